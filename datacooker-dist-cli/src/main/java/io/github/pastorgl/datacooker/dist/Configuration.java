@@ -34,6 +34,8 @@ public class Configuration {
         addOption("m", "driverMemory", true, "Driver memory for local mode, by default Spark uses 1g");
         addOption("u", "sparkUI", false, "Enable Spark UI for local mode, by default it is disabled");
         addOption("L", "localCores", true, "Set cores # for local mode, by default * -- all cores");
+        addOption("r", "resume", false, "Resume the direction from its progress manifest under tmpDir, skipping" +
+                " already completed tasks and output parts");
     }
 
     private Map<String, DistTask[]> copyTasks;
@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.dist;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import io.github.pastorgl.datacooker.data.Columnar;
+import io.github.pastorgl.datacooker.data.PlainText;
+import org.apache.spark.serializer.KryoRegistrator;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact serializers of records for shuffles. Each record is self-contained, as the shuffle may move serialized
+ * records around and concatenate them with ones from other streams. Column names are written with each record, but
+ * lists of them are interned on read, so records of the same shape share one. Common value types are written with
+ * a one-byte tag instead of a class. Only these classes are registered, so if spark.kryo.registrationRequired is
+ * set, any other value types must be registered too
+ */
+public class DistKryoRegistrator implements KryoRegistrator {
+    @Override
+    public void registerClasses(Kryo kryo) {
+        kryo.register(Columnar.class, new ColumnarSerializer());
+        kryo.register(PlainText.class, new PlainTextSerializer());
+        kryo.register(Object[].class);
+        kryo.register(ArrayList.class);
+        kryo.register(BigDecimal.class);
+        kryo.register(BigInteger.class);
+        kryo.register(Timestamp.class, new TimestampSerializer());
+        kryo.register(java.sql.Date.class);
+        kryo.register(java.util.Date.class);
+    }
+
+    static class ColumnarSerializer extends Serializer<Columnar> {
+        // distinct column lists shared by records read in this JVM
+        static final int MAX_INTERNED = 1024;
+        private static final Map<List<String>, List<String>> INTERNED = new ConcurrentHashMap<>();
+
+        private static final byte NULL = 0;
+        private static final byte STRING = 1;
+        private static final byte INT = 2;
+        private static final byte LONG = 3;
+        private static final byte DOUBLE = 4;
+        private static final byte BOOLEAN = 5;
+        private static final byte BYTES = 6;
+        private static final byte OTHER = 7;
+        private static final byte FLOAT = 8;
+        private static final byte DECIMAL = 9;
+        private static final byte TIMESTAMP = 10;
+        private static final byte DATE = 11;
+
+        @Override
+        public void write(Kryo kryo, Output output, Columnar rec) {
+            List<String> columns = rec.attrs();
+            output.writeVarInt(columns.size(), true);
+            for (String column : columns) {
+                output.writeString(column);
+            }
+
+            for (String column : columns) {
+                writeValue(kryo, output, rec.asIs(column));
+            }
+        }
+
+        @Override
+        public Columnar read(Kryo kryo, Input input, Class<Columnar> type) {
+            int size = input.readVarInt(true);
+            List<String> columns = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                columns.add(input.readString());
+            }
+            List<String> interned = INTERNED.get(columns);
+            if (interned != null) {
+                columns = interned;
+            } else if (INTERNED.size() < MAX_INTERNED) {
+                columns = INTERNED.computeIfAbsent(columns, c -> c);
+            }
+
+            Object[] values = new Object[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = readValue(kryo, input);
+            }
+
+            return new Columnar(columns, values);
+        }
+
+        private static void writeValue(Kryo kryo, Output output, Object value) {
+            if (value == null) {
+                output.writeByte(NULL);
+            } else if (value instanceof String) {
+                output.writeByte(STRING);
+                output.writeString((String) value);
+            } else if (value instanceof Integer) {
+                output.writeByte(INT);
+                output.writeVarInt((Integer) value, false);
+            } else if (value instanceof Long) {
+                output.writeByte(LONG);
+                output.writeVarLong((Long) value, false);
+            } else if (value instanceof Double) {
+                output.writeByte(DOUBLE);
+                output.writeDouble((Double) value);
+            } else if (value instanceof Boolean) {
+                output.writeByte(BOOLEAN);
+                output.writeBoolean((Boolean) value);
+            } else if (value instanceof Float) {
+                output.writeByte(FLOAT);
+                output.writeFloat((Float) value);
+            } else if (value instanceof BigDecimal) {
+                BigDecimal decimal = (BigDecimal) value;
+                byte[] unscaled = decimal.unscaledValue().toByteArray();
+                output.writeByte(DECIMAL);
+                output.writeVarInt(decimal.scale(), false);
+                output.writeVarInt(unscaled.length, true);
+                output.writeBytes(unscaled);
+            } else if (value instanceof Timestamp) {
+                output.writeByte(TIMESTAMP);
+                writeTimestamp(output, (Timestamp) value);
+            } else if (value instanceof java.sql.Date) {
+                output.writeByte(DATE);
+                output.writeVarLong(((java.sql.Date) value).getTime(), false);
+            } else if (value instanceof byte[]) {
+                byte[] bytes = (byte[]) value;
+                output.writeByte(BYTES);
+                output.writeVarInt(bytes.length, true);
+                output.writeBytes(bytes);
+            } else {
+                output.writeByte(OTHER);
+                kryo.writeClassAndObject(output, value);
+            }
+        }
+
+        private static Object readValue(Kryo kryo, Input input) {
+            switch (input.readByte()) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return input.readString();
+                case INT:
+                    return input.readVarInt(false);
+                case LONG:
+                    return input.readVarLong(false);
+                case DOUBLE:
+                    return input.readDouble();
+                case BOOLEAN:
+                    return input.readBoolean();
+                case BYTES:
+                    return input.readBytes(input.readVarInt(true));
+                case FLOAT:
+                    return input.readFloat();
+                case DECIMAL: {
+                    int scale = input.readVarInt(false);
+                    return new BigDecimal(new BigInteger(input.readBytes(input.readVarInt(true))), scale);
+                }
+                case TIMESTAMP:
+                    return readTimestamp(input);
+                case DATE:
+                    return new java.sql.Date(input.readVarLong(false));
+                default:
+                    return kryo.readClassAndObject(input);
+            }
+        }
+    }
+
+    // Kryo's default Date serializer drops nanoseconds of a Timestamp
+    static class TimestampSerializer extends Serializer<Timestamp> {
+        @Override
+        public void write(Kryo kryo, Output output, Timestamp ts) {
+            writeTimestamp(output, ts);
+        }
+
+        @Override
+        public Timestamp read(Kryo kryo, Input input, Class<Timestamp> type) {
+            return readTimestamp(input);
+        }
+    }
+
+    private static void writeTimestamp(Output output, Timestamp ts) {
+        output.writeVarLong(ts.getTime(), false);
+        output.writeVarInt(ts.getNanos(), true);
+    }
+
+    private static Timestamp readTimestamp(Input input) {
+        Timestamp ts = new Timestamp(input.readVarLong(false));
+        ts.setNanos(input.readVarInt(true));
+        return ts;
+    }
+
+    static class PlainTextSerializer extends Serializer<PlainText> {
+        @Override
+        public void write(Kryo kryo, Output output, PlainText rec) {
+            byte[] bytes = String.valueOf(rec).getBytes(StandardCharsets.UTF_8);
+            output.writeVarInt(bytes.length, true);
+            output.writeBytes(bytes);
+        }
+
+        @Override
+        public PlainText read(Kryo kryo, Input input, Class<PlainText> type) {
+            return new PlainText(input.readBytes(input.readVarInt(true)));
+        }
+    }
+}
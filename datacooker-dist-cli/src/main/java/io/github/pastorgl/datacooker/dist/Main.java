@@ -7,6 +7,7 @@ package io.github.pastorgl.datacooker.dist;
 import io.github.pastorgl.datacooker.config.InvalidConfigurationException;
 import io.github.pastorgl.datacooker.data.DataStream;
 import io.github.pastorgl.datacooker.data.Partitioning;
+import io.github.pastorgl.datacooker.s3direct.S3DirectFastPath;
 import io.github.pastorgl.datacooker.storage.*;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.collections4.map.ListOrderedMap;
@@ -17,6 +18,7 @@ import org.apache.spark.SparkConf;
 import org.apache.spark.api.java.JavaSparkContext;
 import scala.Tuple2;
 
+import java.io.Flushable;
 import java.io.Reader;
 import java.io.StringReader;
 import java.util.Collection;
@@ -41,7 +43,8 @@ public class Main {
 
             SparkConf sparkConf = new SparkConf()
                     .setAppName(DIST_NAME)
-                    .set("spark.serializer", org.apache.spark.serializer.KryoSerializer.class.getCanonicalName());
+                    .set("spark.serializer", org.apache.spark.serializer.KryoSerializer.class.getCanonicalName())
+                    .set("spark.kryo.registrator", DistKryoRegistrator.class.getCanonicalName());
 
             boolean local = configBuilder.hasOption("local");
             if (local) {
@@ -104,8 +107,16 @@ public class Main {
             }
             Map<String, Object> globalParams = Collections.singletonMap("tmp", tmp);
 
+            boolean resume = configBuilder.hasOption("resume");
+            ProgressManifest progress = new ProgressManifest(context.hadoopConfiguration(), tmp, distDirection, resume);
+
             Configuration.DistTask[] direction = configBuilder.getDirection(distDirection);
             for (int i = 0; i < direction.length; i++) {
+                if (progress.isDone(i)) {
+                    LOG.info("Task #" + i + " of direction '" + distDirection + "' is already completed, skipping");
+                    continue;
+                }
+
                 Configuration.DistTask distTask = direction[i];
 
                 String from = distTask.source.adapter;
@@ -123,19 +134,25 @@ public class Main {
                 ia.initialize(context, config, distTask.source.path);
 
                 String sourceSubName = (distTask.source.subName != null) ? distTask.source.subName : (distDirection + "#" + i);
-                ListOrderedMap<String, DataStream> rdds = ia.load(sourceSubName, distTask.source.partNum, Partitioning.HASHCODE);
 
-                for (Map.Entry<String, DataStream> ds : rdds.entrySet()) {
-                    OutputAdapterInfo outputAdapter = Adapters.OUTPUTS.get(to);
-                    if (outputAdapter == null) {
-                        throw new InvalidConfigurationException("Adapter named '" + to + "' not found");
-                    }
+                OutputAdapterInfo outputAdapter = Adapters.OUTPUTS.get(to);
+                if (outputAdapter == null) {
+                    throw new InvalidConfigurationException("Adapter named '" + to + "' not found");
+                }
+
+                HashMap<String, Object> outParams = new HashMap<>(globalParams);
+                outParams.put("progress", progress.taskDir(i));
+                outParams.putAll(distTask.dest.params);
+
+                OutputAdapter oa = output(context, outputAdapter, outParams, distTask.dest.path);
+                if (S3DirectFastPath.copy(context, ia, oa, distTask.dest.subName, distTask.source.partNum, resume)) {
+                    progress.done(i);
+                    continue;
+                }
 
-                    OutputAdapter oa = outputAdapter.configurable.getDeclaredConstructor().newInstance();
-                    HashMap<String, Object> outParams = new HashMap<>(globalParams);
-                    outParams.putAll(distTask.dest.params);
-                    oa.initialize(context, new io.github.pastorgl.datacooker.config.Configuration(oa.meta.definitions, "Output " + oa.meta.verb, outParams), distTask.dest.path);
+                ListOrderedMap<String, DataStream> rdds = ia.load(sourceSubName, distTask.source.partNum, Partitioning.HASHCODE);
 
+                for (Map.Entry<String, DataStream> ds : rdds.entrySet()) {
                     String subName = ds.getKey().substring(sourceSubName.length());
                     if (subName.startsWith("/")) {
                         subName = subName.substring(1);
@@ -145,7 +162,16 @@ public class Main {
                     }
                     oa.save(subName, ds.getValue());
                 }
+
+                // source with incremental state may store it only after its rows are safely saved
+                if (ia instanceof Flushable) {
+                    ((Flushable) ia).flush();
+                }
+
+                progress.done(i);
             }
+
+            progress.clear();
         } catch (Exception ex) {
             if (ex instanceof ParseException) {
                 configBuilder.printHelp(DIST_NAME);
@@ -160,4 +186,10 @@ public class Main {
             }
         }
     }
+
+    private static OutputAdapter output(JavaSparkContext context, OutputAdapterInfo outputAdapter, Map<String, Object> outParams, String path) throws Exception {
+        OutputAdapter oa = outputAdapter.configurable.getDeclaredConstructor().newInstance();
+        oa.initialize(context, new io.github.pastorgl.datacooker.config.Configuration(oa.meta.definitions, "Output " + oa.meta.verb, outParams), path);
+        return oa;
+    }
 }
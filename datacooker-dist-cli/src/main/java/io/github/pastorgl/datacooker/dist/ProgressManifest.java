@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.dist;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+
+/**
+ * Progress of a copy direction, kept under tmp location as dist-progress/direction/ with a
+ * task-NNNNN.done marker for each completed DistTask, and task-NNNNN/ directory for output
+ * adapters to record their completed parts
+ */
+public class ProgressManifest {
+    private final FileSystem fs;
+    private final Path dir;
+
+    public ProgressManifest(org.apache.hadoop.conf.Configuration hadoopConf, String tmp, String direction, boolean resume) throws IOException {
+        dir = new Path(tmp, "dist-progress/" + direction.replaceAll("[^A-Za-z0-9._-]", "_"));
+        fs = dir.getFileSystem(hadoopConf);
+
+        if (!resume && fs.exists(dir)) {
+            fs.delete(dir, true);
+        }
+        fs.mkdirs(dir);
+    }
+
+    public String taskDir(int task) {
+        return new Path(dir, String.format("task-%05d", task)).toString();
+    }
+
+    public boolean isDone(int task) throws IOException {
+        return fs.exists(new Path(dir, String.format("task-%05d.done", task)));
+    }
+
+    public void done(int task) throws IOException {
+        fs.create(new Path(dir, String.format("task-%05d.done", task)), true).close();
+    }
+
+    public void clear() throws IOException {
+        fs.delete(dir, true);
+    }
+}
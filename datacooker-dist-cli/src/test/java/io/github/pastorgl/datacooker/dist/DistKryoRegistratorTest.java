@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.dist;
+
+import io.github.pastorgl.datacooker.data.Columnar;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class DistKryoRegistratorTest {
+    private static final List<String> WIDE = Arrays.asList("id", "name", "price", "at", "day", "ratio", "raw");
+    private static final List<String> NARROW = Arrays.asList("id", "name");
+
+    private static JavaSparkContext context;
+
+    @BeforeClass
+    public static void setUp() {
+        context = new JavaSparkContext(new SparkConf()
+                .setAppName("DistKryoRegistratorTest")
+                .setMaster("local[2]")
+                .set("spark.serializer", org.apache.spark.serializer.KryoSerializer.class.getCanonicalName())
+                .set("spark.kryo.registrator", DistKryoRegistrator.class.getCanonicalName())
+                .set("spark.kryo.registrationRequired", "true")
+                // sort-based shuffle writer, which relocates serialized records
+                .set("spark.shuffle.sort.bypassMergeThreshold", "1")
+                .set("spark.ui.enabled", "false"));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        context.stop();
+    }
+
+    private static Columnar record(int i) {
+        if (i % 3 == 0) {
+            return new Columnar(NARROW, new Object[]{(long) i, "name" + i});
+        }
+
+        Timestamp at = new Timestamp(1_700_000_000_000L + i);
+        at.setNanos(123_456_789);
+        return new Columnar(WIDE, new Object[]{(long) i, (i % 5 == 0) ? null : "name" + i,
+                new BigDecimal("12345678901234567890.12").add(BigDecimal.valueOf(i)), at,
+                new java.sql.Date(86_400_000L * i), i / 7.F, new byte[]{(byte) i, 1, 2}});
+    }
+
+    @Test
+    public void roundTripThroughShuffle() {
+        int count = 10_000;
+        List<Columnar> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            records.add(record(i));
+        }
+
+        List<Columnar> shuffled = context.parallelize(records, 3)
+                .repartition(4)
+                .collect();
+        assertEquals(count, shuffled.size());
+
+        Map<Long, Columnar> byId = new HashMap<>();
+        for (Columnar rec : shuffled) {
+            byId.put((Long) rec.asIs("id"), rec);
+        }
+        for (int i = 0; i < count; i++) {
+            Columnar expected = record(i);
+            Columnar actual = byId.get((long) i);
+            assertNotNull(actual);
+
+            assertEquals(expected.attrs(), actual.attrs());
+            for (String column : expected.attrs()) {
+                Object e = expected.asIs(column);
+                Object a = actual.asIs(column);
+                if (e instanceof byte[]) {
+                    assertArrayEquals((byte[]) e, (byte[]) a);
+                } else {
+                    assertEquals(e, a);
+                }
+            }
+        }
+    }
+}
@@ -11,4 +11,52 @@ public class JDBCStorage {
     public static final String JDBC_PASSWORD = "password";
     public static final String BATCH_SIZE = "batch_size";
     public static final String COLUMNS = "columns";
+    public static final String PARTITION_COLUMN = "partition_column";
+    public static final String PARTITION_BOUNDS = "partition_bounds";
+    public static final String FETCH_SIZE = "fetch_size";
+    public static final String AUTO_COMMIT = "auto_commit";
+    public static final String READ_ONLY = "read_only";
+    public static final String ISOLATION = "isolation";
+    public static final String SESSION_INIT = "session_init";
+    public static final String WATERMARK_COLUMN = "watermark_column";
+    public static final String WATERMARK_LAG = "watermark_lag";
+    public static final String COMMIT_INTERVAL = "commit_interval";
+    public static final String ROWS_PER_STATEMENT = "rows_per_statement";
+    public static final String BATCH_LATENCY = "batch_latency";
+    public static final String REWRITE_BATCHES = "rewrite_batches";
+    public static final String LOAD_METHOD = "load_method";
+    public static final String MAX_CONNECTIONS = "max_connections";
+    public static final String WRITE_MODE = "write_mode";
+    public static final String KEY_COLUMNS = "key_columns";
+    public static final String NAMED_COLUMNS = "named_columns";
+
+    public enum PartitionBounds {
+        MINMAX,
+        QUANTILES
+    }
+
+    public enum WriteMode {
+        APPEND,
+        UPSERT
+    }
+
+    public enum LoadMethod {
+        INSERT,
+        COPY,
+        LOAD_DATA,
+        CSVREAD
+    }
+
+    public enum Isolation {
+        READ_UNCOMMITTED(java.sql.Connection.TRANSACTION_READ_UNCOMMITTED),
+        READ_COMMITTED(java.sql.Connection.TRANSACTION_READ_COMMITTED),
+        REPEATABLE_READ(java.sql.Connection.TRANSACTION_REPEATABLE_READ),
+        SERIALIZABLE(java.sql.Connection.TRANSACTION_SERIALIZABLE);
+
+        public final int level;
+
+        Isolation(int level) {
+            this.level = level;
+        }
+    }
 }
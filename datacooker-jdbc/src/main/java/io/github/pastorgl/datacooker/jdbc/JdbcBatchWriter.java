@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.jdbc;
+
+import io.github.pastorgl.datacooker.data.DataRecord;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.StringJoiner;
+
+/**
+ * Batched INSERT of records into a table over a single connection. Values go into table columns by position, or, if
+ * columns are named, into table columns of the same names. Rows are bound into multi-row VALUES statements,
+ * which are sent in batches of batch size rows, and committed each commit interval rows (or once, at the end).
+ * If target latency is set, batch size is doubled while batches take less than a half of it, and halved when a
+ * batch takes longer than it
+ */
+public class JdbcBatchWriter implements AutoCloseable {
+    // lowest common limit of bound parameters per statement among popular databases
+    static final int MAX_PARAMETERS = 32767;
+    static final int MAX_BATCH = 65536;
+
+    private final Connection conn;
+    private final String table;
+    private final String[] columns;
+    private final boolean named;
+    private final int rowsPerStatement;
+    private final Integer batchLatency;
+    private final int commitInterval;
+
+    private PreparedStatement multi;
+    private PreparedStatement single;
+
+    private final Object[][] rows;
+    private int inStatement = 0;
+
+    private int batchSize;
+    private int batched = 0;
+    private long uncommitted = 0L;
+    private long written = 0L;
+
+    /**
+     * @param named if true, record attributes are table column names, else values are inserted by position
+     */
+    public JdbcBatchWriter(Connection conn, String table, String[] columns, boolean named, int rowsPerStatement, int batchSize,
+                           Integer batchLatency, int commitInterval) throws SQLException {
+        this.conn = conn;
+        this.table = table;
+        this.columns = Arrays.stream(columns).filter(c -> !c.equals("_")).toArray(String[]::new);
+        this.named = named;
+        this.rowsPerStatement = Math.max(1, Math.min(rowsPerStatement, MAX_PARAMETERS / Math.max(1, this.columns.length)));
+        this.batchSize = Math.max(batchSize, this.rowsPerStatement);
+        this.batchLatency = batchLatency;
+        this.commitInterval = commitInterval;
+
+        this.rows = new Object[this.rowsPerStatement][];
+
+        conn.setAutoCommit(false);
+    }
+
+    public void write(DataRecord<?> rec) throws SQLException {
+        Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = rec.asIs(columns[i]);
+        }
+        rows[inStatement++] = values;
+
+        if (inStatement == rowsPerStatement) {
+            if (multi == null) {
+                multi = conn.prepareStatement(insert(rowsPerStatement));
+            }
+
+            bind(multi, inStatement);
+            multi.addBatch();
+            batched += inStatement;
+            inStatement = 0;
+
+            if (batched >= batchSize) {
+                execute(multi);
+            }
+        }
+    }
+
+    /**
+     * Send remaining rows and commit
+     */
+    public long finish() throws SQLException {
+        if (batched > 0) {
+            execute(multi);
+        }
+
+        if (inStatement > 0) {
+            if (single == null) {
+                single = conn.prepareStatement(insert(1));
+            }
+
+            for (int r = 0; r < inStatement; r++) {
+                rows[0] = rows[r];
+                bind(single, 1);
+                single.addBatch();
+                batched++;
+            }
+            inStatement = 0;
+
+            execute(single);
+        }
+
+        conn.commit();
+        return written;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            if (uncommitted > 0L) {
+                conn.rollback();
+            }
+        } finally {
+            if (multi != null) {
+                multi.close();
+            }
+            if (single != null) {
+                single.close();
+            }
+        }
+    }
+
+    private void execute(PreparedStatement ps) throws SQLException {
+        long start = System.nanoTime();
+        ps.executeBatch();
+        ps.clearBatch();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+
+        uncommitted += batched;
+        written += batched;
+        batched = 0;
+
+        if ((commitInterval > 0) && (uncommitted >= commitInterval)) {
+            conn.commit();
+            uncommitted = 0L;
+        }
+
+        if (batchLatency != null) {
+            if (elapsedMs < batchLatency / 2) {
+                batchSize = Math.min(batchSize * 2, MAX_BATCH);
+            } else if (elapsedMs > batchLatency) {
+                batchSize = Math.max(batchSize / 2, rowsPerStatement);
+            }
+        }
+    }
+
+    private void bind(PreparedStatement ps, int count) throws SQLException {
+        int p = 1;
+        for (int r = 0; r < count; r++) {
+            for (Object value : rows[r]) {
+                ps.setObject(p++, value);
+            }
+        }
+    }
+
+    private String insert(int count) {
+        StringJoiner row = new StringJoiner(",", "(", ")");
+        for (int i = 0; i < columns.length; i++) {
+            row.add("?");
+        }
+
+        StringJoiner values = new StringJoiner(",");
+        for (int r = 0; r < count; r++) {
+            values.add(row.toString());
+        }
+
+        if (!named) {
+            return "INSERT INTO " + table + " VALUES " + values;
+        }
+
+        // table may have more columns, or in another order
+        StringJoiner names = new StringJoiner(",", "(", ")");
+        for (String column : columns) {
+            names.add(column);
+        }
+        return "INSERT INTO " + table + " " + names + " VALUES " + values;
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.jdbc;
+
+import io.github.pastorgl.datacooker.data.DataRecord;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Database's native bulk load of records, streamed as CSV into PostgreSQL's COPY FROM STDIN, or staged into a
+ * local file for MySQL's LOAD DATA LOCAL INFILE or H2's CSVREAD (which reads the file on database side, so only
+ * works with embedded H2 or on the same host). Columns are loaded by name, so the table may have more of them,
+ * or in another order
+ */
+public abstract class JdbcBulkLoader {
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    protected final String table;
+    protected final String[] columns;
+
+    protected JdbcBulkLoader(String table, String[] columns) {
+        this.table = table;
+        this.columns = Arrays.stream(columns).filter(c -> !c.equals("_")).toArray(String[]::new);
+    }
+
+    /**
+     * @return loader of the method, or null if the method is INSERT, or the database doesn't support it
+     */
+    public static JdbcBulkLoader of(JDBCStorage.LoadMethod method, Connection conn, String table, String[] columns) throws SQLException {
+        if (!supported(method, conn)) {
+            return null;
+        }
+
+        switch (method) {
+            case COPY: {
+                return new Copy(table, columns);
+            }
+            case LOAD_DATA: {
+                return new LoadData(table, columns);
+            }
+            default: {
+                return new CsvRead(table, columns);
+            }
+        }
+    }
+
+    /**
+     * @return false if the method is INSERT, or the database doesn't support it
+     */
+    public static boolean supported(JDBCStorage.LoadMethod method, Connection conn) throws SQLException {
+        String product = conn.getMetaData().getDatabaseProductName().toLowerCase(Locale.ROOT);
+
+        switch (method) {
+            case COPY: {
+                try {
+                    return conn.isWrapperFor(PGConnection.class);
+                } catch (NoClassDefFoundError ignore) {
+                    // no PostgreSQL driver
+                    return false;
+                }
+            }
+            case LOAD_DATA: {
+                return product.contains("mysql") || product.contains("mariadb");
+            }
+            case CSVREAD: {
+                return product.equals("h2");
+            }
+            default: {
+                return false;
+            }
+        }
+    }
+
+    protected String columnList() {
+        return "(" + String.join(",", columns) + ")";
+    }
+
+    /**
+     * Load all records in one statement, without commit
+     *
+     * @return number of loaded records
+     */
+    public abstract long load(Connection conn, Iterator<DataRecord<?>> records) throws SQLException, IOException;
+
+    /**
+     * Write records as CSV lines, with all non-NULL values quoted, and NULLs as unquoted token
+     */
+    protected long writeCsv(Writer writer, Iterator<DataRecord<?>> records, String nullToken) throws IOException {
+        long count = 0L;
+        StringBuilder line = new StringBuilder();
+        while (records.hasNext()) {
+            DataRecord<?> rec = records.next();
+
+            line.setLength(0);
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+
+                Object value = rec.asIs(columns[i]);
+                if (value == null) {
+                    line.append(nullToken);
+                } else {
+                    line.append('"').append(String.valueOf(value).replace("\"", "\"\"")).append('"');
+                }
+            }
+            line.append('\n');
+
+            writer.write(line.toString());
+            count++;
+        }
+        return count;
+    }
+
+    protected File stage(Iterator<DataRecord<?>> records, String nullToken, long[] count) throws IOException {
+        File file = File.createTempFile("dc-bulk-", ".csv");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            count[0] = writeCsv(writer, records, nullToken);
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+        return file;
+    }
+
+    static class Copy extends JdbcBulkLoader {
+        Copy(String table, String[] columns) {
+            super(table, columns);
+        }
+
+        @Override
+        public long load(Connection conn, Iterator<DataRecord<?>> records) throws SQLException, IOException {
+            PGConnection pg = conn.unwrap(PGConnection.class);
+
+            // unquoted empty field is NULL, quoted empty field is an empty string
+            try (Writer writer = new OutputStreamWriter(new PGCopyOutputStream(pg, "COPY " + table + " " + columnList() + " FROM STDIN WITH (FORMAT csv)", BUFFER_SIZE), StandardCharsets.UTF_8)) {
+                return writeCsv(writer, records, "");
+            }
+        }
+    }
+
+    static class LoadData extends JdbcBulkLoader {
+        LoadData(String table, String[] columns) {
+            super(table, columns);
+        }
+
+        @Override
+        public long load(Connection conn, Iterator<DataRecord<?>> records) throws SQLException, IOException {
+            long[] count = new long[1];
+            File file = stage(records, "NULL", count);
+
+            // with non-empty ENCLOSED BY, unquoted NULL is NULL
+            String path = "'" + file.getAbsolutePath().replace("\\", "\\\\").replace("'", "''") + "'";
+            try (Statement st = conn.createStatement()) {
+                st.execute("LOAD DATA LOCAL INFILE " + path + " INTO TABLE " + table
+                        + " CHARACTER SET utf8mb4 FIELDS TERMINATED BY ',' OPTIONALLY ENCLOSED BY '\"' ESCAPED BY ''"
+                        + " LINES TERMINATED BY '\\n' " + columnList());
+            } finally {
+                file.delete();
+            }
+
+            return count[0];
+        }
+    }
+
+    static class CsvRead extends JdbcBulkLoader {
+        CsvRead(String table, String[] columns) {
+            super(table, columns);
+        }
+
+        @Override
+        public long load(Connection conn, Iterator<DataRecord<?>> records) throws SQLException, IOException {
+            long[] count = new long[1];
+            File file = stage(records, "", count);
+
+            // file has no header line, so column names are given
+            String[] names = new String[columns.length];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = "C" + (i + 1);
+            }
+
+            String path = "'" + file.getAbsolutePath().replace("'", "''") + "'";
+            try (Statement st = conn.createStatement()) {
+                st.execute("INSERT INTO " + table + " " + columnList() + " SELECT * FROM CSVREAD(" + path + ", '"
+                        + String.join(",", names) + "', 'charset=UTF-8 fieldSeparator=, fieldDelimiter=\" escape=\"')");
+            } finally {
+                file.delete();
+            }
+
+            return count[0];
+        }
+    }
+}
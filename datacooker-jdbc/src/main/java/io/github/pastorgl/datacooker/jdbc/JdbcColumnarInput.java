@@ -11,34 +11,48 @@ import io.github.pastorgl.datacooker.metadata.DefinitionMetaBuilder;
 import io.github.pastorgl.datacooker.metadata.InputAdapterMeta;
 import io.github.pastorgl.datacooker.storage.InputAdapter;
 import org.apache.commons.collections4.map.ListOrderedMap;
-import org.apache.spark.api.java.JavaSparkContext;
-import org.apache.spark.rdd.JdbcRDD;
 import scala.Tuple2;
-import scala.reflect.ClassManifestFactory$;
 import scala.runtime.AbstractFunction0;
 import scala.runtime.AbstractFunction1;
 
+import java.io.Flushable;
+import java.io.IOException;
 import java.io.Serializable;
 import java.sql.*;
 import java.util.*;
 
 
 @SuppressWarnings("unused")
-public class JdbcColumnarInput extends InputAdapter {
-    private JavaSparkContext ctx;
+public class JdbcColumnarInput extends InputAdapter implements Flushable {
     private String dbDriver;
     private String dbUrl;
     private String dbUser;
     private String dbPassword;
     private String delimiter;
+    private String partitionColumn;
+    private JDBCStorage.PartitionBounds partitionBounds;
+
+    private int fetchSize;
+    private boolean autoCommit;
+    private boolean readOnly;
+    private JDBCStorage.Isolation isolation;
+    private String[] sessionInit;
+    private Integer maxConnections;
+
+    private String watermarkColumn;
+    private Long watermarkLag;
+    private String tmpDir;
+    private Watermark watermark;
 
     @Override
     public InputAdapterMeta meta() {
-        return new InputAdapterMeta("jdbcColumnar", "JDBC adapter for reading Columnar data from an" +
-                " SQL SELECT query against a configured database. Must use numeric boundaries for each part denoted" +
-                " by two ? placeholders, from 0 to (part_count - 1). Supports only PARTITION BY" +
+        return new InputAdapterMeta("jdbcColumnar", "JDBC adapter for reading Columnar data from a table or an" +
+                " SQL SELECT query against a configured database. With " + JDBCStorage.PARTITION_COLUMN + " set," +
+                " it is split into ranges of that column automatically. Otherwise, query must use numeric boundaries" +
+                " for each part denoted by two ? placeholders, from 0 to (part_count - 1). Supports only PARTITION BY" +
                 " HASHCODE and RANDOM.",
-                new String[]{"SELECT *, weeknum - 1 AS part_num FROM weekly_table WHERE part_num BETWEEN ? AND ?"},
+                new String[]{"SELECT *, weeknum - 1 AS part_num FROM weekly_table WHERE part_num BETWEEN ? AND ?",
+                        "weekly_table", "SELECT * FROM weekly_table WHERE weeknum > 10"},
 
                 StreamType.COLUMNAR,
                 new DefinitionMetaBuilder()
@@ -46,6 +60,45 @@ public class JdbcColumnarInput extends InputAdapter {
                         .def(JDBCStorage.JDBC_URL, "JDBC connection string URL")
                         .def(JDBCStorage.JDBC_USER, "JDBC connection user", null, "By default, user isn't set")
                         .def(JDBCStorage.JDBC_PASSWORD, "JDBC connection password", null, "By default, use no password")
+                        .def(JDBCStorage.PARTITION_COLUMN, "Numeric, date or timestamp column to split the table" +
+                                " or query into part_count ranges", null, "By default, query must have ? placeholders" +
+                                " for part number boundaries")
+                        .def(JDBCStorage.PARTITION_BOUNDS, "MINMAX splits range between column's min and max" +
+                                        " evenly, QUANTILES splits by its quantiles (computed by the database with NTILE, over a random" +
+                                        " sample of a large source)" +
+                                        " for balanced parts on skewed data", JDBCStorage.PartitionBounds.class,
+                                JDBCStorage.PartitionBounds.MINMAX, "By default, split between min and max")
+                        .def(JDBCStorage.FETCH_SIZE, "Number of rows fetched per round trip by forward-only read-only" +
+                                        " cursors. For MySQL without useCursorFetch=true in the URL, rows are" +
+                                        " streamed one by one instead", Integer.class, 1000,
+                                "By default, fetch 1000 rows")
+                        .def(JDBCStorage.AUTO_COMMIT, "Read in auto-commit mode. Some drivers (PostgreSQL) only" +
+                                        " respect fetch size within a transaction, and buffer whole result otherwise",
+                                Boolean.class, false, "By default, read within a transaction")
+                        .def(JDBCStorage.READ_ONLY, "Mark connections read-only", Boolean.class, true,
+                                "By default, connections are read-only")
+                        .def(JDBCStorage.ISOLATION, "Transaction isolation level", JDBCStorage.Isolation.class,
+                                null, "By default, use driver's default level")
+                        .def(JDBCStorage.SESSION_INIT, "SQL statements to execute on each new connection, like" +
+                                        " SET statements for session parameters", Object[].class, null,
+                                "By default, don't execute anything")
+                        .def(JDBCStorage.MAX_CONNECTIONS, "Max number of concurrent connections to the database." +
+                                        " If there are more parts, several of them are read one after another over" +
+                                        " the same connection", Integer.class, null,
+                                "By default, each part is read over its own connection")
+                        .def(JDBCStorage.WATERMARK_COLUMN, "Monotonic column (like an id, or an updated_at" +
+                                        " timestamp) for incremental extraction. Only rows beyond its max value" +
+                                        " extracted by the previous run are read, and new max value is stored under" +
+                                        " tmp after the rows are saved. If " + JDBCStorage.PARTITION_COLUMN + " isn't" +
+                                        " set, rows are split into ranges of this column. Query must not have ?" +
+                                        " placeholders then", null,
+                                "By default, extract all rows")
+                        .def(JDBCStorage.WATERMARK_LAG, "Rows within this lag below watermark column's current max" +
+                                        " value are left for the next run, so rows of transactions still in flight" +
+                                        " that commit later with lower values aren't skipped. In column's units for" +
+                                        " numeric columns, and in seconds for date and timestamp ones", Long.class,
+                                null, "By default, extract up to current max value, so rows committed later with" +
+                                        " lower values are never extracted")
                         .build()
         );
     }
@@ -56,47 +109,161 @@ public class JdbcColumnarInput extends InputAdapter {
         dbUrl = params.get(JDBCStorage.JDBC_URL);
         dbUser = params.get(JDBCStorage.JDBC_USER);
         dbPassword = params.get(JDBCStorage.JDBC_PASSWORD);
+
+        partitionColumn = params.get(JDBCStorage.PARTITION_COLUMN);
+        partitionBounds = params.get(JDBCStorage.PARTITION_BOUNDS);
+
+        fetchSize = params.get(JDBCStorage.FETCH_SIZE);
+        if (dbUrl.startsWith("jdbc:mysql:") && !dbUrl.contains("useCursorFetch=true")) {
+            fetchSize = Integer.MIN_VALUE;
+        }
+        autoCommit = params.get(JDBCStorage.AUTO_COMMIT);
+        readOnly = params.get(JDBCStorage.READ_ONLY);
+        isolation = params.get(JDBCStorage.ISOLATION);
+
+        Object[] init = params.get(JDBCStorage.SESSION_INIT);
+        if (init != null) {
+            sessionInit = Arrays.stream(init).map(String::valueOf).toArray(String[]::new);
+        }
+
+        maxConnections = params.get(JDBCStorage.MAX_CONNECTIONS);
+        if ((maxConnections != null) && (maxConnections < 1)) {
+            throw new InvalidConfigurationException(JDBCStorage.MAX_CONNECTIONS + " must be positive");
+        }
+
+        watermarkColumn = params.get(JDBCStorage.WATERMARK_COLUMN);
+        if ((watermarkColumn != null) && (partitionColumn == null)) {
+            partitionColumn = watermarkColumn;
+        }
+        watermarkLag = params.get(JDBCStorage.WATERMARK_LAG);
+        if ((watermarkLag != null) && (watermarkLag < 0L)) {
+            throw new InvalidConfigurationException(JDBCStorage.WATERMARK_LAG + " must not be negative");
+        }
+
+        // range queries wrap the source query, so its own placeholders would be left unbound
+        if ((partitionColumn != null) && !JdbcPartitions.source(path).equals(path) && path.contains("?")) {
+            throw new InvalidConfigurationException("Query of Input Adapter '" + meta.verb + "' with "
+                    + ((watermarkColumn != null) ? JDBCStorage.WATERMARK_COLUMN : JDBCStorage.PARTITION_COLUMN)
+                    + " set must not have ? placeholders");
+        }
+        tmpDir = params.get("tmp");
     }
 
     @Override
     public ListOrderedMap<String, DataStream> load(String name, int partCount, Partitioning partitioning) {
+        DbConnection dbConnection = new DbConnection(dbDriver, dbUrl, dbUser, dbPassword, readOnly, autoCommit,
+                isolation, sessionInit);
+
+        List<Object[]> queries;
+        if (partitionColumn != null) {
+            String source = JdbcPartitions.source(path);
+
+            String filter = null;
+            List<Object> filterParams = new ArrayList<>();
+
+            List<Object> splits;
+            try (Connection conn = dbConnection.apply()) {
+                if (watermarkColumn != null) {
+                    watermark = new Watermark(context.hadoopConfiguration(), tmpDir, dbUrl, path, watermarkColumn);
+
+                    Object from = watermark.stored();
+                    if (from != null) {
+                        filter = watermarkColumn + " > ?";
+                        filterParams.add(from);
+                    }
+
+                    // upper bound is fixed now, so rows added while extracting are left for the next run
+                    Object to = JdbcPartitions.max(conn, source, watermarkColumn, filter, filterParams);
+                    if ((to != null) && (watermarkLag != null)) {
+                        to = JdbcPartitions.minus(to, watermarkLag);
+                        if ((from != null) && (JdbcPartitions.compare(to, from) <= 0)) {
+                            to = null;
+                        }
+                    }
+                    System.out.println("Extracting " + path + " with " + watermarkColumn + " in (" + from + ", " + to + "]");
+                    if (to == null) {
+                        filter = "1 = 0";
+                        filterParams.clear();
+                    } else {
+                        filter = ((filter != null) ? (filter + " AND ") : "") + watermarkColumn + " <= ?";
+                        filterParams.add(to);
+                        watermark.advance(to);
+                    }
+                }
+
+                splits = JdbcPartitions.splits(conn, source, partitionColumn, Math.max(partCount, 1), partitionBounds,
+                        filter, filterParams);
+            } catch (SQLException | IOException e) {
+                throw new RuntimeException("Can't discover bounds of column " + partitionColumn + " of " + path, e);
+            }
+            System.out.println("Reading " + path + " in " + (splits.size() + 1) + " range(s) of column "
+                    + partitionColumn + ", split at " + splits);
+
+            queries = JdbcPartitions.rangeQueries(source, partitionColumn, splits, filter, filterParams);
+        } else {
+            queries = JdbcPartitions.placeholderQueries(path, 0, Math.max(partCount, 0), Math.max(partCount, 1));
+        }
+
+        // with a cap on connections, each Spark partition reads every n-th query
+        int partsCount = (maxConnections != null) ? Math.min(queries.size(), maxConnections) : queries.size();
+        List<Integer> parts = new ArrayList<>();
+        for (int i = 0; i < partsCount; i++) {
+            parts.add(i);
+        }
+
         ListOrderedMap<String, DataStream> ret = new ListOrderedMap<>();
         ret.put(path, new DataStreamBuilder(name, Collections.emptyMap())
                 .created(meta.verb, path, StreamType.Columnar, partitioning.name())
-                .build(new JdbcRDD<Tuple2>(
-                        ctx.sc(),
-                        new DbConnection(dbDriver, dbUrl, dbUser, dbPassword),
-                        path,
-                        0, Math.max(partCount, 0),
-                        Math.max(partCount, 1),
-                        new RecordRowMapper(partitioning),
-                        ClassManifestFactory$.MODULE$.fromClass(Tuple2.class)
-                ).toJavaRDD().mapToPair(r -> r))
+                .build(context.parallelize(parts, parts.size())
+                        .flatMapToPair(new JdbcPartitions.QueryReader(dbConnection, queries, partsCount, fetchSize,
+                                new RecordRowMapper(partitioning))))
         );
         return ret;
     }
 
+    /**
+     * Store the watermark reached by this run's extraction. Must be called only after extracted rows are saved
+     */
+    @Override
+    public void flush() throws IOException {
+        if (watermark != null) {
+            watermark.commit();
+        }
+    }
+
     static class DbConnection extends AbstractFunction0<Connection> implements Serializable {
         final String _dbDriver;
         final String _dbUrl;
         final String _dbUser;
         final String _dbPassword;
 
-        DbConnection(String _dbDriver, String _dbUrl, String _dbUser, String _dbPassword) {
+        final boolean _readOnly;
+        final boolean _autoCommit;
+        final JDBCStorage.Isolation _isolation;
+        final String[] _sessionInit;
+
+        DbConnection(String _dbDriver, String _dbUrl, String _dbUser, String _dbPassword, boolean _readOnly,
+                     boolean _autoCommit, JDBCStorage.Isolation _isolation, String[] _sessionInit) {
             this._dbDriver = _dbDriver;
             this._dbUrl = _dbUrl;
             this._dbUser = _dbUser;
             this._dbPassword = _dbPassword;
+
+            this._readOnly = _readOnly;
+            this._autoCommit = _autoCommit;
+            this._isolation = _isolation;
+            this._sessionInit = _sessionInit;
         }
 
-        @Override
-        public Connection apply() {
-            try {
-                Class.forName(_dbDriver);
-            } catch (ClassNotFoundException e) {
-                e.printStackTrace();
-            }
+        /**
+         * @return key of executor's {@link JdbcConnectionPool} for connections with these settings
+         */
+        String key() {
+            return JdbcConnectionPool.key(_dbUrl, properties(), _readOnly, _autoCommit, _isolation,
+                    (_sessionInit != null) ? String.join("\n", _sessionInit) : null);
+        }
 
+        private Properties properties() {
             Properties properties = new Properties();
             if (_dbUser != null) {
                 properties.setProperty("user", _dbUser);
@@ -104,39 +271,161 @@ public class JdbcColumnarInput extends InputAdapter {
             if (_dbPassword != null) {
                 properties.setProperty("password", _dbPassword);
             }
+            return properties;
+        }
+
+        @Override
+        public Connection apply() {
+            try {
+                Class.forName(_dbDriver);
+            } catch (ClassNotFoundException e) {
+                throw new RuntimeException("JDBC driver " + _dbDriver + " isn't found", e);
+            }
 
             Connection connection = null;
             try {
-                connection = DriverManager.getConnection(_dbUrl, properties);
+                connection = DriverManager.getConnection(_dbUrl, properties());
+
+                connection.setReadOnly(_readOnly);
+                if (_isolation != null) {
+                    connection.setTransactionIsolation(_isolation.level);
+                }
+                if (_sessionInit != null) {
+                    try (Statement st = connection.createStatement()) {
+                        for (String sql : _sessionInit) {
+                            st.execute(sql);
+                        }
+                    }
+                }
+                // some drivers, like PostgreSQL's, stream rows by fetch size only within a transaction
+                connection.setAutoCommit(_autoCommit);
+
+                return connection;
             } catch (SQLException e) {
-                e.printStackTrace();
+                if (connection != null) {
+                    try {
+                        connection.close();
+                    } catch (SQLException ignore) {
+                    }
+                }
+                throw new RuntimeException("Can't connect to " + _dbUrl, e);
             }
-
-            return connection;
         }
     }
 
-    static class RecordRowMapper extends AbstractFunction1<ResultSet, Tuple2> implements Serializable {
+    static class RecordRowMapper extends AbstractFunction1<ResultSet, Tuple2<Object, DataRecord<?>>> implements Serializable {
         private final Random random;
 
+        // all rows of a partition are mapped from the same ResultSet, so its shape is resolved once
+        private transient ResultSet resolvedFor;
+        private transient List<String> columns;
+        private transient ColumnGetter[] getters;
+
         public RecordRowMapper(Partitioning partitioning) {
             this.random = (partitioning == Partitioning.RANDOM) ? new Random() : null;
         }
 
         @Override
-        public Tuple2 apply(ResultSet row) {
+        public Tuple2<Object, DataRecord<?>> apply(ResultSet row) {
             try {
-                ResultSetMetaData metaData = row.getMetaData();
-                int columnCount = metaData.getColumnCount();
-                Map<String, Object> map = new HashMap<>();
-                for (int i = 0; i < columnCount; i++) {
-                    map.put(metaData.getColumnName(i), row.getObject(i));
+                if (row != resolvedFor) {
+                    resolve(row);
+                }
+
+                Object[] values = new Object[getters.length];
+                for (int i = 0; i < getters.length; i++) {
+                    values[i] = getters[i].get(row, i + 1);
                 }
-                Columnar obj = new Columnar().put(map);
-                return new Tuple2((random == null) ? obj.hashCode() : random.nextInt(), obj);
-            } catch (SQLException ignore) {
-                return null;
+
+                Columnar obj = new Columnar(columns, values);
+                return new Tuple2<>((random == null) ? obj.hashCode() : random.nextInt(), obj);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
             }
         }
+
+        private void resolve(ResultSet row) throws SQLException {
+            ResultSetMetaData metaData = row.getMetaData();
+            int columnCount = metaData.getColumnCount();
+
+            String[] names = new String[columnCount];
+            getters = new ColumnGetter[columnCount];
+            for (int i = 1; i <= columnCount; i++) {
+                names[i - 1] = metaData.getColumnLabel(i);
+                getters[i - 1] = getter(metaData.getColumnType(i), metaData.getPrecision(i));
+            }
+
+            columns = Arrays.asList(names);
+            resolvedFor = row;
+        }
+
+        // same types as getObject would return, but without its per-value type lookup
+        private static ColumnGetter getter(int sqlType, int precision) {
+            switch (sqlType) {
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER: {
+                    return (rs, i) -> {
+                        int v = rs.getInt(i);
+                        return rs.wasNull() ? null : v;
+                    };
+                }
+                case Types.BIGINT: {
+                    return (rs, i) -> {
+                        long v = rs.getLong(i);
+                        return rs.wasNull() ? null : v;
+                    };
+                }
+                case Types.REAL: {
+                    return (rs, i) -> {
+                        float v = rs.getFloat(i);
+                        return rs.wasNull() ? null : v;
+                    };
+                }
+                case Types.FLOAT:
+                case Types.DOUBLE: {
+                    return (rs, i) -> {
+                        double v = rs.getDouble(i);
+                        return rs.wasNull() ? null : v;
+                    };
+                }
+                case Types.BIT: {
+                    // BIT(n) of more than one bit is a bit string, which only the driver knows how to represent
+                    if (precision > 1) {
+                        return ResultSet::getObject;
+                    }
+                    return (rs, i) -> {
+                        boolean v = rs.getBoolean(i);
+                        return rs.wasNull() ? null : v;
+                    };
+                }
+                case Types.BOOLEAN: {
+                    return (rs, i) -> {
+                        boolean v = rs.getBoolean(i);
+                        return rs.wasNull() ? null : v;
+                    };
+                }
+                case Types.DECIMAL:
+                case Types.NUMERIC: {
+                    return ResultSet::getBigDecimal;
+                }
+                case Types.CHAR:
+                case Types.VARCHAR:
+                case Types.LONGVARCHAR:
+                case Types.NCHAR:
+                case Types.NVARCHAR:
+                case Types.LONGNVARCHAR: {
+                    return ResultSet::getString;
+                }
+                default: {
+                    return ResultSet::getObject;
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface ColumnGetter {
+        Object get(ResultSet rs, int column) throws SQLException;
     }
 }
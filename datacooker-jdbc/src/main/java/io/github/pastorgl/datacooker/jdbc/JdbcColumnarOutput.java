@@ -4,23 +4,25 @@
  */
 package io.github.pastorgl.datacooker.jdbc;
 
-import com.opencsv.CSVParser;
-import com.opencsv.CSVParserBuilder;
 import io.github.pastorgl.datacooker.config.Configuration;
+import io.github.pastorgl.datacooker.config.InvalidConfigurationException;
 import io.github.pastorgl.datacooker.data.DataRecord;
 import io.github.pastorgl.datacooker.data.DataStream;
 import io.github.pastorgl.datacooker.data.StreamType;
 import io.github.pastorgl.datacooker.metadata.DefinitionMetaBuilder;
 import io.github.pastorgl.datacooker.metadata.OutputAdapterMeta;
 import io.github.pastorgl.datacooker.storage.OutputAdapter;
+import org.apache.spark.api.java.JavaPairRDD;
 import org.sparkproject.guava.collect.Iterators;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.Properties;
+import java.util.Set;
 
 @SuppressWarnings("unused")
 public class JdbcColumnarOutput extends OutputAdapter {
@@ -30,8 +32,16 @@ public class JdbcColumnarOutput extends OutputAdapter {
     private String dbPassword;
 
     private int batchSize;
+    private int commitInterval;
+    private int rowsPerStatement;
+    private Integer batchLatency;
+    private boolean rewriteBatches;
+    private JDBCStorage.LoadMethod loadMethod;
+    private Integer maxConnections;
+    private JDBCStorage.WriteMode writeMode;
+    private String[] keyColumns;
+    private boolean namedColumns;
 
-    private char delimiter;
     private String[] columns;
 
     @Override
@@ -46,22 +56,78 @@ public class JdbcColumnarOutput extends OutputAdapter {
                         .def(JDBCStorage.JDBC_URL, "JDBC connection string URL")
                         .def(JDBCStorage.JDBC_USER, "JDBC connection user", null, "By default, user isn't set")
                         .def(JDBCStorage.JDBC_PASSWORD, "JDBC connection password", null, "By default, use no password")
-                        .def(JDBCStorage.BATCH_SIZE, "Batch size for SQL INSERTs", Integer.class,
+                        .def(JDBCStorage.BATCH_SIZE, "Batch size for SQL INSERTs, in records. If batch latency is set," +
+                                        " this is the initial size", Integer.class,
                                 500, "By default, use 500 records")
+                        .def(JDBCStorage.COMMIT_INTERVAL, "Commit each this many records", Integer.class,
+                                0, "By default, commit once per partition, so a retried task doesn't duplicate records")
+                        .def(JDBCStorage.ROWS_PER_STATEMENT, "Bind this many records into each multi-row INSERT VALUES" +
+                                        " statement, limited by 32767 parameters per statement", Integer.class,
+                                1, "By default, one record per statement")
+                        .def(JDBCStorage.BATCH_LATENCY, "Target round-trip time of a batch, in milliseconds. Batch size" +
+                                        " is doubled while batches are faster than a half of it, and halved when slower", Integer.class,
+                                null, "By default, batch size is fixed")
+                        .def(JDBCStorage.REWRITE_BATCHES, "Ask known drivers to rewrite batches into bulk statements" +
+                                        " (MySQL and MariaDB rewriteBatchedStatements, PostgreSQL reWriteBatchedInserts," +
+                                        " SQL Server useBulkCopyForBatchInsert), unless set in the URL", Boolean.class,
+                                true, "By default, do ask")
+                        .def(JDBCStorage.LOAD_METHOD, "Load records with database's native bulk loader instead of" +
+                                        " INSERTs: PostgreSQL COPY FROM STDIN, MySQL LOAD DATA LOCAL INFILE (from a file" +
+                                        " staged on executor), or H2 CSVREAD (only for embedded or same-host H2). If the" +
+                                        " database doesn't support the method, INSERT is used", JDBCStorage.LoadMethod.class,
+                                JDBCStorage.LoadMethod.INSERT, "By default, use batched INSERTs")
+                        .def(JDBCStorage.MAX_CONNECTIONS, "Max number of concurrent connections to the database." +
+                                        " If there are more partitions, records are shuffled into this number of them", Integer.class,
+                                null, "By default, each partition is written over its own connection")
+                        .def(JDBCStorage.WRITE_MODE, "APPEND inserts records into the table. UPSERT inserts them" +
+                                        " into a staging table of the same shape, and after all partitions are written," +
+                                        " merges it into the table by " + JDBCStorage.KEY_COLUMNS + " with a single" +
+                                        " set-based statement (INSERT ON CONFLICT, ON DUPLICATE KEY UPDATE, or MERGE)," +
+                                        " then drops staging table. Only written columns are updated, and one record" +
+                                        " of each key is merged", JDBCStorage.WriteMode.class,
+                                JDBCStorage.WriteMode.APPEND, "By default, append")
+                        .def(JDBCStorage.KEY_COLUMNS, "Key columns of the table for UPSERT. PostgreSQL and MySQL" +
+                                " require a unique constraint on them", Object[].class, null, "By default, not set")
+                        .def(JDBCStorage.NAMED_COLUMNS, "Insert attributes into table columns of the same names" +
+                                " (INSERT INTO table (col1, col2) VALUES), so the table may have more columns," +
+                                " or in another order. UPSERT always does", Boolean.class,
+                                false, "By default, insert attributes into table columns by position, skipping _ ones")
                         .def(JDBCStorage.COLUMNS, "Columns to write",
-                                Object[].class, null, "By default, select all columns")
+                                Object[].class, null, "By default, write all attributes of the first record in each partition")
                         .build()
         );
     }
 
     @Override
-    protected void configure(Configuration params) {
+    protected void configure(Configuration params) throws InvalidConfigurationException {
         dbDriver = params.get(JDBCStorage.JDBC_DRIVER);
         dbUrl = params.get(JDBCStorage.JDBC_URL);
         dbUser = params.get(JDBCStorage.JDBC_USER);
         dbPassword = params.get(JDBCStorage.JDBC_PASSWORD);
 
         batchSize = params.get(JDBCStorage.BATCH_SIZE);
+        commitInterval = params.get(JDBCStorage.COMMIT_INTERVAL);
+        rowsPerStatement = params.get(JDBCStorage.ROWS_PER_STATEMENT);
+        batchLatency = params.get(JDBCStorage.BATCH_LATENCY);
+        rewriteBatches = params.get(JDBCStorage.REWRITE_BATCHES);
+        loadMethod = params.get(JDBCStorage.LOAD_METHOD);
+        maxConnections = params.get(JDBCStorage.MAX_CONNECTIONS);
+        if ((maxConnections != null) && (maxConnections < 1)) {
+            throw new InvalidConfigurationException(JDBCStorage.MAX_CONNECTIONS + " must be positive");
+        }
+
+        writeMode = params.get(JDBCStorage.WRITE_MODE);
+        Object[] keys = params.get(JDBCStorage.KEY_COLUMNS);
+        if (keys != null) {
+            keyColumns = Arrays.stream(keys).map(String::valueOf).toArray(String[]::new);
+        }
+        if ((writeMode == JDBCStorage.WriteMode.UPSERT) && ((keyColumns == null) || (keyColumns.length == 0))) {
+            throw new InvalidConfigurationException(JDBCStorage.WRITE_MODE + " UPSERT requires " + JDBCStorage.KEY_COLUMNS);
+        }
+
+        // merge addresses columns by their names
+        namedColumns = params.get(JDBCStorage.NAMED_COLUMNS) || (writeMode == JDBCStorage.WriteMode.UPSERT);
+
         Object[] cols = params.get(JDBCStorage.COLUMNS);
         if (cols != null) {
             columns = Arrays.stream(cols).map(String::valueOf).toArray(String[]::new);
@@ -70,80 +136,151 @@ public class JdbcColumnarOutput extends OutputAdapter {
 
     @Override
     public void save(String ignore, DataStream dataStream) {
+        if (writeMode == JDBCStorage.WriteMode.APPEND) {
+            write(dataStream, path);
+            return;
+        }
+
+        try {
+            Class.forName(dbDriver);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("JDBC driver " + dbDriver + " isn't found", e);
+        }
+
+        try (Connection conn = DriverManager.getConnection(dbUrl, connectionProperties())) {
+            JdbcMerge merge = new JdbcMerge(conn);
+
+            // target is left intact if any partition fails
+            String staging = merge.createStaging(path);
+            try {
+                Set<String> written = write(dataStream, staging);
+
+                int affected = written.isEmpty() ? 0 : merge.merge(path, staging, keyColumns, written);
+                System.out.println("Merged " + staging + " into " + path + " by " + String.join(", ", keyColumns)
+                        + ", " + affected + " row(s) affected");
+            } finally {
+                merge.dropStaging(staging);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Can't upsert into " + path, e);
+        }
+    }
+
+    /**
+     * @return columns written by any of partitions
+     */
+    private Set<String> write(DataStream dataStream, String table) {
         final String _dbDriver = dbDriver;
         final String _dbUrl = dbUrl;
-        final String _dbUser = dbUser;
-        final String _dbPassword = dbPassword;
+        final Properties _properties = connectionProperties();
+        final String _poolKey = JdbcConnectionPool.key(dbUrl, _properties);
 
-        int _batchSize = batchSize;
+        final int _batchSize = batchSize;
+        final int _commitInterval = commitInterval;
+        final int _rowsPerStatement = rowsPerStatement;
+        final Integer _batchLatency = batchLatency;
+        final JDBCStorage.LoadMethod _loadMethod = loadMethod;
 
-        final char _delimiter = delimiter;
         final String[] _cols = columns;
-        final String _table = path;
+        final boolean _namedColumns = namedColumns;
+        final String _table = table;
 
-        dataStream.rdd().mapPartitions(partition -> {
-            Connection conn = null;
-            PreparedStatement ps = null;
+        if (loadMethod != JDBCStorage.LoadMethod.INSERT) {
+            // tell it once here, rather than from each partition
             try {
-                Class.forName(_dbDriver);
+                Class.forName(dbDriver);
+                try (Connection conn = DriverManager.getConnection(dbUrl, _properties)) {
+                    if (!JdbcBulkLoader.supported(loadMethod, conn)) {
+                        System.out.println("Load method " + loadMethod.name() + " isn't supported by "
+                                + conn.getMetaData().getDatabaseProductName() + ", falling back to INSERT");
+                    }
+                }
+            } catch (ClassNotFoundException | SQLException e) {
+                throw new RuntimeException("Can't connect to " + dbUrl, e);
+            }
+        }
 
-                Properties properties = new Properties();
-                properties.setProperty("user", _dbUser);
-                properties.setProperty("password", _dbPassword);
+        JavaPairRDD<Object, DataRecord<?>> rdd = dataStream.rdd();
+        if ((maxConnections != null) && (rdd.getNumPartitions() > maxConnections)) {
+            // shuffled, so upstream stages keep their parallelism and only the write is capped
+            rdd = rdd.coalesce(maxConnections, true);
+        }
 
-                conn = DriverManager.getConnection(_dbUrl, properties);
+        return new LinkedHashSet<>(rdd.mapPartitions(partition -> {
+            if (!partition.hasNext()) {
+                return Iterators.<String>emptyIterator();
+            }
+
+            Class.forName(_dbDriver);
 
-                CSVParser parser = new CSVParserBuilder().withSeparator(_delimiter).build();
+            DataRecord<?> first = partition.next()._2;
+            String[] cols = (_cols != null) ? _cols : first.attrs().toArray(new String[0]);
 
-                StringBuilder sb = new StringBuilder("INSERT INTO " + _table + " VALUES ");
-                sb.append("(");
-                for (int i = 0, j = 0; i < _cols.length; i++) {
-                    if (!_cols[i].equals("_")) {
-                        if (j > 0) {
-                            sb.append(",");
+            Connection conn = JdbcConnectionPool.borrow(_poolKey, () -> {
+                try {
+                    return DriverManager.getConnection(_dbUrl, _properties);
+                } catch (SQLException e) {
+                    throw new RuntimeException("Can't connect to " + _dbUrl, e);
+                }
+            });
+            try {
+                JdbcBulkLoader loader = JdbcBulkLoader.of(_loadMethod, conn, _table, cols);
+                if (loader != null) {
+                    conn.setAutoCommit(false);
+                    loader.load(conn, Iterators.concat(Iterators.singletonIterator(first),
+                            Iterators.transform(partition, t -> t._2)));
+                    conn.commit();
+                } else {
+                    try (JdbcBatchWriter writer = new JdbcBatchWriter(conn, _table, cols, _namedColumns, _rowsPerStatement, _batchSize, _batchLatency, _commitInterval)) {
+                        writer.write(first);
+                        while (partition.hasNext()) {
+                            writer.write(partition.next()._2);
                         }
-                        sb.append("?");
-                        j++;
+                        writer.finish();
                     }
                 }
-                sb.append(")");
 
-                ps = conn.prepareStatement(sb.toString());
-                int b = 0;
-                while (partition.hasNext()) {
-                    DataRecord<?> row = partition.next()._2;
+                JdbcConnectionPool.release(_poolKey, conn);
+            } catch (SQLException | IOException e) {
+                JdbcConnectionPool.discard(conn);
+                throw new RuntimeException(e);
+            } catch (RuntimeException e) {
+                JdbcConnectionPool.discard(conn);
+                throw e;
+            }
 
-                    for (int i = 0, j = 1; i < _cols.length; i++) {
-                        if (!_cols[i].equals("_")) {
-                            ps.setObject(j++, row.asIs(_cols[i]));
-                        }
-                    }
-                    ps.addBatch();
+            return Arrays.stream(cols).filter(c -> !c.equals("_")).iterator();
+        }).collect());
+    }
 
-                    if (b == _batchSize) {
-                        ps.executeBatch();
+    private Properties connectionProperties() {
+        Properties properties = new Properties();
+        if (dbUser != null) {
+            properties.setProperty("user", dbUser);
+        }
+        if (dbPassword != null) {
+            properties.setProperty("password", dbPassword);
+        }
 
-                        ps.clearBatch();
-                        b = 0;
-                    }
+        if (loadMethod == JDBCStorage.LoadMethod.LOAD_DATA) {
+            properties.setProperty("allowLoadLocalInfile", "true");
+        }
 
-                    b++;
-                }
-                if (b != 0) {
-                    ps.executeBatch();
-                }
+        if (rewriteBatches) {
+            String flag = null;
+            if (dbUrl.startsWith("jdbc:mysql:") || dbUrl.startsWith("jdbc:mariadb:")) {
+                flag = "rewriteBatchedStatements";
+            } else if (dbUrl.startsWith("jdbc:postgresql:")) {
+                flag = "reWriteBatchedInserts";
+            } else if (dbUrl.startsWith("jdbc:sqlserver:")) {
+                flag = "useBulkCopyForBatchInsert";
+            }
 
-                return Iterators.emptyIterator();
-            } catch (SQLException | ClassNotFoundException e) {
-                throw new RuntimeException(e);
-            } finally {
-                if (ps != null) {
-                    ps.close();
-                }
-                if (conn != null) {
-                    conn.close();
-                }
+            if ((flag != null) && !dbUrl.contains(flag)) {
+                properties.setProperty(flag, "true");
             }
-        }).count();
+        }
+
+        return properties;
     }
 }
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.jdbc;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Per-executor pool of idle connections, shared by tasks running in the same JVM, so a connection is set up once
+ * per executor instead of once per partition. Connections are validated before reuse, rolled back when returned,
+ * and closed on JVM shutdown. Returned connection gets back auto-commit, read-only, isolation, catalog and schema
+ * it had when created, so a borrower never sees settings left by the previous one. A connection which has failed
+ * must be discarded instead of returned
+ */
+public class JdbcConnectionPool {
+    // seconds
+    static final int VALIDATION_TIMEOUT = 5;
+    static final int MAX_IDLE = 16;
+
+    private static final Map<String, Deque<Connection>> IDLE = new ConcurrentHashMap<>();
+    private static final Map<Connection, State> INITIAL = new ConcurrentHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(JdbcConnectionPool::closeAll));
+    }
+
+    /**
+     * @return key of the pool for connections with the same URL and properties
+     */
+    public static String key(String url, Properties properties, Object... settings) {
+        StringBuilder sb = new StringBuilder(url);
+        new TreeMap<>(properties).forEach((k, v) -> sb.append('\n').append(k).append('=').append(v));
+        for (Object s : settings) {
+            sb.append('\n').append(s);
+        }
+        return DigestUtils.md5Hex(sb.toString());
+    }
+
+    public static Connection borrow(String key, Supplier<Connection> factory) {
+        Deque<Connection> idle = IDLE.computeIfAbsent(key, k -> new ArrayDeque<>());
+        while (true) {
+            Connection conn;
+            synchronized (idle) {
+                conn = idle.pollFirst();
+            }
+            if (conn == null) {
+                conn = factory.get();
+                try {
+                    INITIAL.put(conn, new State(conn));
+                } catch (SQLException ignore) {
+                    // state is unknown, so the connection won't be pooled
+                }
+                return conn;
+            }
+
+            try {
+                if (conn.isValid(VALIDATION_TIMEOUT)) {
+                    return conn;
+                }
+            } catch (SQLException ignore) {
+            }
+            discard(conn);
+        }
+    }
+
+    public static void release(String key, Connection conn) {
+        try {
+            if (conn.isClosed()) {
+                return;
+            }
+            State initial = INITIAL.get(conn);
+            if (initial == null) {
+                discard(conn);
+                return;
+            }
+
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+            }
+            initial.restore(conn);
+            conn.clearWarnings();
+        } catch (SQLException e) {
+            discard(conn);
+            return;
+        }
+
+        Deque<Connection> idle = IDLE.computeIfAbsent(key, k -> new ArrayDeque<>());
+        synchronized (idle) {
+            if (idle.size() < MAX_IDLE) {
+                idle.addFirst(conn);
+                return;
+            }
+        }
+        discard(conn);
+    }
+
+    public static void discard(Connection conn) {
+        INITIAL.remove(conn);
+        try {
+            conn.close();
+        } catch (SQLException ignore) {
+        }
+    }
+
+    private static void closeAll() {
+        for (Deque<Connection> idle : IDLE.values()) {
+            synchronized (idle) {
+                idle.forEach(JdbcConnectionPool::discard);
+                idle.clear();
+            }
+        }
+    }
+
+    private static class State {
+        private final boolean autoCommit;
+        private final boolean readOnly;
+        private final int isolation;
+        private final String catalog;
+        private final String schema;
+
+        private State(Connection conn) throws SQLException {
+            autoCommit = conn.getAutoCommit();
+            readOnly = conn.isReadOnly();
+            isolation = conn.getTransactionIsolation();
+            catalog = conn.getCatalog();
+            schema = conn.getSchema();
+        }
+
+        // only what was changed, as some drivers do a round trip for each setter
+        private void restore(Connection conn) throws SQLException {
+            if (conn.getAutoCommit() != autoCommit) {
+                conn.setAutoCommit(autoCommit);
+            }
+            if (conn.isReadOnly() != readOnly) {
+                conn.setReadOnly(readOnly);
+            }
+            if (conn.getTransactionIsolation() != isolation) {
+                conn.setTransactionIsolation(isolation);
+            }
+            if ((catalog != null) && !catalog.equals(conn.getCatalog())) {
+                conn.setCatalog(catalog);
+            }
+            if ((schema != null) && !schema.equals(conn.getSchema())) {
+                conn.setSchema(schema);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.jdbc;
+
+import java.sql.*;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Set-based upsert of a target table from a staging table of the same shape, by key columns, in the database's
+ * own dialect: PostgreSQL INSERT ON CONFLICT, MySQL INSERT ON DUPLICATE KEY UPDATE, H2 MERGE KEY, or standard
+ * MERGE for others. PostgreSQL and MySQL also require a unique constraint on key columns
+ */
+public class JdbcMerge {
+    private final Connection conn;
+    private final String product;
+
+    public JdbcMerge(Connection conn) throws SQLException {
+        this.conn = conn;
+        this.product = conn.getMetaData().getDatabaseProductName().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Create an empty staging table with the target's columns
+     *
+     * @return staging table name
+     */
+    public String createStaging(String target) throws SQLException {
+        String staging = target + "_stg" + UUID.randomUUID().toString().substring(0, 8);
+
+        // not a temporary table, as it's filled by sessions of all executors
+        String sql;
+        if (product.contains("sql server")) {
+            sql = "SELECT * INTO " + staging + " FROM " + target + " WHERE 1 = 0";
+        } else {
+            sql = (product.equals("postgresql") ? "CREATE UNLOGGED TABLE " : "CREATE TABLE ") + staging
+                    + " AS SELECT * FROM " + target + " WHERE 1 = 0";
+        }
+        try (Statement st = conn.createStatement()) {
+            st.execute(sql);
+        }
+        return staging;
+    }
+
+    public void dropStaging(String staging) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.execute("DROP TABLE " + staging);
+        }
+    }
+
+    /**
+     * Merge staging rows into the target in a single transaction. Only written columns are inserted and updated, so
+     * the rest keep their values, or get their defaults in new rows. If staging has more than one row with the same
+     * key, like the ones left by a retried task, only one of them is merged
+     *
+     * @return number of affected rows, as reported by the database
+     */
+    public int merge(String target, String staging, String[] keys, Collection<String> written) throws SQLException {
+        List<String> stagingColumns = new ArrayList<>();
+        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery("SELECT * FROM " + staging + " WHERE 1 = 0")) {
+            ResultSetMetaData md = rs.getMetaData();
+            for (int i = 1; i <= md.getColumnCount(); i++) {
+                stagingColumns.add(md.getColumnName(i));
+            }
+        }
+
+        List<String> columns = new ArrayList<>();
+        for (String name : written) {
+            columns.add(column(stagingColumns, name, target));
+        }
+        List<String> keyList = new ArrayList<>();
+        for (String key : keys) {
+            String column = column(stagingColumns, key, target);
+            if (!columns.contains(column)) {
+                throw new SQLException("Key column " + key + " isn't written to table " + target);
+            }
+            keyList.add(column);
+        }
+        List<String> values = columns.stream().filter(c -> !keyList.contains(c)).collect(Collectors.toList());
+
+        String cols = String.join(", ", columns);
+        String source = deduplicated(staging, cols, String.join(", ", keyList));
+        String sql;
+        switch (product) {
+            case "postgresql": {
+                sql = "INSERT INTO " + target + " (" + cols + ") SELECT " + cols + " FROM " + source
+                        + " ON CONFLICT (" + String.join(", ", keyList) + ") DO " + (values.isEmpty() ? "NOTHING"
+                        : "UPDATE SET " + values.stream().map(c -> c + " = EXCLUDED." + c).collect(Collectors.joining(", ")));
+                break;
+            }
+            case "mysql":
+            case "mariadb": {
+                // without columns to update, key is assigned to itself, which is a no-op
+                List<String> update = values.isEmpty() ? keyList.subList(0, 1) : values;
+                sql = "INSERT INTO " + target + " (" + cols + ") SELECT " + cols + " FROM " + source
+                        + " ON DUPLICATE KEY UPDATE " + update.stream().map(c -> c + " = VALUES(" + c + ")").collect(Collectors.joining(", "));
+                break;
+            }
+            case "h2": {
+                sql = "MERGE INTO " + target + " (" + cols + ") KEY (" + String.join(", ", keyList) + ") SELECT "
+                        + cols + " FROM " + source;
+                break;
+            }
+            default: {
+                sql = "MERGE INTO " + target + " dc_t USING " + source + " ON ("
+                        + keyList.stream().map(c -> "dc_t." + c + " = dc_s." + c).collect(Collectors.joining(" AND ")) + ")"
+                        + (values.isEmpty() ? "" : " WHEN MATCHED THEN UPDATE SET "
+                        + values.stream().map(c -> c + " = dc_s." + c).collect(Collectors.joining(", ")))
+                        + " WHEN NOT MATCHED THEN INSERT (" + cols + ") VALUES ("
+                        + columns.stream().map(c -> "dc_s." + c).collect(Collectors.joining(", ")) + ")"
+                        // SQL Server requires MERGE to be terminated
+                        + (product.contains("sql server") ? ";" : "");
+            }
+        }
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (Statement st = conn.createStatement()) {
+            int affected = st.executeUpdate(sql);
+            conn.commit();
+            return affected;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static String column(List<String> columns, String name, String target) throws SQLException {
+        return columns.stream().filter(name::equalsIgnoreCase).findFirst()
+                .orElseThrow(() -> new SQLException("Column " + name + " isn't found in table " + target));
+    }
+
+    // one row per key, as each target row may be affected only once. ORDER BY is required by SQL Server and Oracle
+    private static String deduplicated(String staging, String cols, String keys) {
+        return "(SELECT " + cols + " FROM (SELECT " + cols + ", ROW_NUMBER() OVER (PARTITION BY " + keys + " ORDER BY "
+                + keys + ") dc_rn FROM " + staging + ") dc_d WHERE dc_rn = 1) dc_s";
+    }
+}
@@ -0,0 +1,380 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.jdbc;
+
+import io.github.pastorgl.datacooker.data.DataRecord;
+import org.apache.spark.TaskContext;
+import org.apache.spark.api.java.function.PairFlatMapFunction;
+import org.apache.spark.util.TaskCompletionListener;
+import scala.Tuple2;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Range partitioning of a table or query by a numeric, date or timestamp column. Split points are either evenly
+ * spaced between column's min and max, or its quantiles. First and last ranges are open, so rows outside of
+ * discovered bounds are still read, and NULLs go to the first range. Quantiles of a large source are computed
+ * over a random sample of about {@link #QUANTILE_SAMPLE} rows, if the database has a known random function
+ */
+public class JdbcPartitions {
+    static final long QUANTILE_SAMPLE = 100_000L;
+
+    public static String source(String tableOrQuery) {
+        String t = tableOrQuery.trim();
+        String upper = t.toUpperCase(Locale.ROOT);
+        if (upper.startsWith("SELECT") || upper.startsWith("WITH")) {
+            return "(" + t + ") dc_src";
+        }
+        return t;
+    }
+
+    /**
+     * @param filter condition of source rows to split, with its parameters, or null for all rows
+     * @return ascending distinct split points, at most (partCount - 1)
+     */
+    public static List<Object> splits(Connection conn, String source, String column, int partCount, JDBCStorage.PartitionBounds bounds,
+                                      String filter, List<Object> filterParams) throws SQLException {
+        List<Object> splits = new ArrayList<>();
+        if (partCount < 2) {
+            return splits;
+        }
+
+        String where = (filter != null) ? (" WHERE " + filter) : "";
+        if (bounds == JDBCStorage.PartitionBounds.QUANTILES) {
+            String notNull = ((filter != null) ? (where + " AND ") : " WHERE ") + column + " IS NOT NULL";
+
+            // sorting just a sample for the window is much cheaper than the whole source
+            String sample = "";
+            String random = randomFunction(conn);
+            if (random != null) {
+                long count;
+                try (PreparedStatement ps = prepare(conn, "SELECT COUNT(*) FROM " + source + notNull, filterParams);
+                     ResultSet rs = ps.executeQuery()) {
+                    count = rs.next() ? rs.getLong(1) : 0L;
+                }
+                if (count > QUANTILE_SAMPLE) {
+                    sample = " AND " + random + " < " + BigDecimal.valueOf((double) QUANTILE_SAMPLE / count).toPlainString();
+                }
+            }
+
+            // each split is the lowest value of a tile, except the first one
+            String sql = "SELECT MIN(c) FROM (SELECT " + column + " AS c, NTILE(" + partCount + ") OVER (ORDER BY "
+                    + column + ") AS t FROM " + source + notNull + sample + ") dc_q GROUP BY t ORDER BY 1";
+            try (PreparedStatement ps = prepare(conn, sql, filterParams); ResultSet rs = ps.executeQuery()) {
+                boolean first = true;
+                while (rs.next()) {
+                    Object v = normalize(rs.getObject(1));
+                    if (first) {
+                        first = false;
+                    } else if ((v != null) && (splits.isEmpty() || !v.equals(splits.get(splits.size() - 1)))) {
+                        splits.add(v);
+                    }
+                }
+            }
+        } else {
+            Object min, max;
+            String sql = "SELECT MIN(" + column + "), MAX(" + column + ") FROM " + source + where;
+            try (PreparedStatement ps = prepare(conn, sql, filterParams); ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return splits;
+                }
+                min = normalize(rs.getObject(1));
+                max = normalize(rs.getObject(2));
+            }
+            if ((min == null) || (max == null)) {
+                return splits;
+            }
+
+            for (int i = 1; i < partCount; i++) {
+                Object v = interpolate(min, max, i, partCount);
+                if (!splits.contains(v) && !v.equals(min)) {
+                    splits.add(v);
+                }
+            }
+        }
+
+        return splits;
+    }
+
+    /**
+     * @return WHERE condition of i-th range, and its bound parameters
+     */
+    public static Object[] range(String column, List<Object> splits, int i) {
+        if (splits.isEmpty()) {
+            return new Object[]{"1 = 1"};
+        }
+        if (i == 0) {
+            return new Object[]{"(" + column + " < ? OR " + column + " IS NULL)", splits.get(0)};
+        }
+        if (i == splits.size()) {
+            return new Object[]{column + " >= ?", splits.get(i - 1)};
+        }
+        return new Object[]{column + " >= ? AND " + column + " < ?", splits.get(i - 1), splits.get(i)};
+    }
+
+    /**
+     * @return max value of the column among source rows, or null if there are none
+     */
+    public static Object max(Connection conn, String source, String column, String filter, List<Object> filterParams) throws SQLException {
+        String sql = "SELECT MAX(" + column + ") FROM " + source + ((filter != null) ? (" WHERE " + filter) : "");
+        try (PreparedStatement ps = prepare(conn, sql, filterParams); ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? normalize(rs.getObject(1)) : null;
+        }
+    }
+
+    /**
+     * @return expression of a uniformly distributed random value in [0, 1) evaluated for each row, or null if
+     * it is unknown for the database
+     */
+    private static String randomFunction(Connection conn) throws SQLException {
+        String product = conn.getMetaData().getDatabaseProductName().toLowerCase(Locale.ROOT);
+        if (product.contains("postgres")) {
+            return "RANDOM()";
+        }
+        if (product.contains("mysql") || product.contains("mariadb") || product.contains("h2")
+                || product.contains("db2") || product.contains("hsql")) {
+            return "RAND()";
+        }
+        if (product.contains("oracle")) {
+            return "DBMS_RANDOM.VALUE";
+        }
+        if (product.contains("microsoft")) {
+            // RAND() is evaluated once per query there
+            return "(ABS(CAST(CHECKSUM(NEWID()) AS BIGINT)) / 2147483648.0)";
+        }
+        return null;
+    }
+
+    /**
+     * @param lag in value's units for numbers, in seconds for dates and timestamps
+     */
+    static Object minus(Object v, long lag) {
+        if (v instanceof Long) {
+            return (Long) v - lag;
+        }
+        if (v instanceof BigInteger) {
+            return ((BigInteger) v).subtract(BigInteger.valueOf(lag));
+        }
+        if (v instanceof BigDecimal) {
+            return ((BigDecimal) v).subtract(BigDecimal.valueOf(lag));
+        }
+        if (v instanceof java.sql.Date) {
+            return new java.sql.Date(((java.sql.Date) v).getTime() - lag * 1000L);
+        }
+        if (v instanceof java.util.Date) {
+            return new Timestamp(((java.util.Date) v).getTime() - lag * 1000L);
+        }
+
+        throw new IllegalArgumentException("Watermark column of type " + v.getClass().getSimpleName()
+                + " is neither numeric, nor date or timestamp, so it can't have a lag");
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static int compare(Object a, Object b) {
+        if ((a instanceof Number) && (b instanceof Number)) {
+            return new BigDecimal(a.toString()).compareTo(new BigDecimal(b.toString()));
+        }
+        if ((a instanceof java.util.Date) && (b instanceof java.util.Date)) {
+            return Long.compare(((java.util.Date) a).getTime(), ((java.util.Date) b).getTime());
+        }
+        return ((Comparable) a).compareTo(b);
+    }
+
+    private static PreparedStatement prepare(Connection conn, String sql, List<Object> params) throws SQLException {
+        PreparedStatement ps = conn.prepareStatement(sql);
+        if (params != null) {
+            for (int p = 0; p < params.size(); p++) {
+                ps.setObject(p + 1, params.get(p));
+            }
+        }
+        return ps;
+    }
+
+    static Object normalize(Object v) {
+        if (v instanceof LocalDate) {
+            return java.sql.Date.valueOf((LocalDate) v);
+        }
+        if (v instanceof LocalDateTime) {
+            return Timestamp.valueOf((LocalDateTime) v);
+        }
+        if (v instanceof OffsetDateTime) {
+            return Timestamp.from(((OffsetDateTime) v).toInstant());
+        }
+        if ((v instanceof Integer) || (v instanceof Short) || (v instanceof Byte)) {
+            return ((Number) v).longValue();
+        }
+        if ((v instanceof Double) || (v instanceof Float)) {
+            return BigDecimal.valueOf(((Number) v).doubleValue());
+        }
+        return v;
+    }
+
+    private static Object interpolate(Object min, Object max, int i, int n) {
+        if (min instanceof Long) {
+            long lo = (Long) min, hi = (Long) max;
+            return lo + BigInteger.valueOf(hi).subtract(BigInteger.valueOf(lo))
+                    .multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(n)).longValue();
+        }
+        if (min instanceof BigInteger) {
+            BigInteger lo = (BigInteger) min, hi = (BigInteger) max;
+            return lo.add(hi.subtract(lo).multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(n)));
+        }
+        if (min instanceof BigDecimal) {
+            BigDecimal lo = (BigDecimal) min, hi = (BigDecimal) max;
+            return lo.add(hi.subtract(lo).multiply(BigDecimal.valueOf(i)).divide(BigDecimal.valueOf(n), MathContext.DECIMAL64));
+        }
+        if (min instanceof Timestamp) {
+            long lo = ((Timestamp) min).getTime(), hi = ((Timestamp) max).getTime();
+            return new Timestamp(lo + (hi - lo) / n * i);
+        }
+        if (min instanceof java.sql.Date) {
+            long lo = ((java.sql.Date) min).getTime(), hi = ((java.sql.Date) max).getTime();
+            return new java.sql.Date(lo + (hi - lo) / n * i);
+        }
+        if (min instanceof java.util.Date) {
+            long lo = ((java.util.Date) min).getTime(), hi = ((java.util.Date) max).getTime();
+            return new Timestamp(lo + (hi - lo) / n * i);
+        }
+
+        throw new IllegalArgumentException("Partition column of type " + min.getClass().getSimpleName()
+                + " is neither numeric, nor date or timestamp");
+    }
+
+    /**
+     * @return SQL with its parameters for each range
+     */
+    public static List<Object[]> rangeQueries(String source, String column, List<Object> splits, String filter, List<Object> filterParams) {
+        List<Object[]> queries = new ArrayList<>();
+        for (int i = 0; i <= splits.size(); i++) {
+            Object[] range = range(column, splits, i);
+
+            List<Object> query = new ArrayList<>();
+            if (filter != null) {
+                query.add("SELECT * FROM " + source + " WHERE " + filter + " AND " + range[0]);
+                query.addAll(filterParams);
+            } else {
+                query.add("SELECT * FROM " + source + " WHERE " + range[0]);
+            }
+            query.addAll(Arrays.asList(range).subList(1, range.length));
+
+            queries.add(query.toArray());
+        }
+        return queries;
+    }
+
+    /**
+     * @return query with two ? placeholders, bound to each part's boundaries, the same way as {@code JdbcRDD} does
+     */
+    public static List<Object[]> placeholderQueries(String query, long lower, long upper, int numPartitions) {
+        BigInteger length = BigInteger.ONE.add(BigInteger.valueOf(upper)).subtract(BigInteger.valueOf(lower));
+
+        List<Object[]> queries = new ArrayList<>();
+        for (int i = 0; i < numPartitions; i++) {
+            long start = lower + BigInteger.valueOf(i).multiply(length).divide(BigInteger.valueOf(numPartitions)).longValue();
+            long end = lower + BigInteger.valueOf(i + 1).multiply(length).divide(BigInteger.valueOf(numPartitions)).longValue() - 1;
+            queries.add(new Object[]{query, start, end});
+        }
+        return queries;
+    }
+
+    /**
+     * Reads every n-th query on executor, lazily, one after another, with forward-only read-only cursors over a
+     * connection borrowed from executor's pool. Connection is returned to the pool when all queries are exhausted,
+     * or discarded if the task has completed before that
+     */
+    static class QueryReader implements PairFlatMapFunction<Integer, Object, DataRecord<?>> {
+        private final JdbcColumnarInput.DbConnection dbConnection;
+        private final List<Object[]> queries;
+        private final int step;
+        private final int fetchSize;
+        private final JdbcColumnarInput.RecordRowMapper mapper;
+
+        QueryReader(JdbcColumnarInput.DbConnection dbConnection, List<Object[]> queries, int step, int fetchSize,
+                    JdbcColumnarInput.RecordRowMapper mapper) {
+            this.dbConnection = dbConnection;
+            this.queries = queries;
+            this.step = step;
+            this.fetchSize = fetchSize;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public Iterator<Tuple2<Object, DataRecord<?>>> call(Integer i) throws Exception {
+            String key = dbConnection.key();
+            Connection conn = JdbcConnectionPool.borrow(key, dbConnection::apply);
+
+            AtomicBoolean done = new AtomicBoolean(false);
+            TaskContext tc = TaskContext.get();
+            if (tc != null) {
+                tc.addTaskCompletionListener((TaskCompletionListener) ctx -> {
+                    if (!done.getAndSet(true)) {
+                        JdbcConnectionPool.discard(conn);
+                    }
+                });
+            }
+
+            return new Iterator<>() {
+                private int q = i;
+                private PreparedStatement ps = null;
+                private ResultSet rs = null;
+                private Boolean hasNext = null;
+
+                @Override
+                public boolean hasNext() {
+                    try {
+                        while (hasNext == null) {
+                            if (rs == null) {
+                                if (q >= queries.size()) {
+                                    if (!done.getAndSet(true)) {
+                                        JdbcConnectionPool.release(key, conn);
+                                    }
+                                    hasNext = false;
+                                } else {
+                                    open(queries.get(q));
+                                    q += step;
+                                }
+                            } else if (rs.next()) {
+                                hasNext = true;
+                            } else {
+                                rs.close();
+                                ps.close();
+                                rs = null;
+                            }
+                        }
+                    } catch (SQLException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return hasNext;
+                }
+
+                @Override
+                public Tuple2<Object, DataRecord<?>> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    hasNext = null;
+                    return mapper.apply(rs);
+                }
+
+                private void open(Object[] query) throws SQLException {
+                    ps = conn.prepareStatement((String) query[0], ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                    ps.setFetchSize(fetchSize);
+                    for (int p = 1; p < query.length; p++) {
+                        ps.setObject(p, query[p]);
+                    }
+                    rs = ps.executeQuery();
+                }
+            };
+        }
+    }
+}
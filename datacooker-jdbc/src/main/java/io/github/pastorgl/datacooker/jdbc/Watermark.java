@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.jdbc;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+
+/**
+ * State of incremental extraction, the highest value of watermark column already extracted from a source. Kept
+ * under tmp location as dist-watermarks/hash.watermark, a single line of value type and value separated by tab.
+ * New value is only stored by {@link #commit()}, which is called after extracted rows are saved
+ */
+public class Watermark {
+    private final FileSystem fs;
+    private final Path path;
+
+    private final Object stored;
+    private Object pending = null;
+
+    public Watermark(org.apache.hadoop.conf.Configuration hadoopConf, String tmp, String url, String source, String column) throws IOException {
+        path = new Path(tmp, "dist-watermarks/" + DigestUtils.md5Hex(url + "\n" + source + "\n" + column) + ".watermark");
+        fs = path.getFileSystem(hadoopConf);
+
+        if (fs.exists(path)) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(path), StandardCharsets.UTF_8))) {
+                stored = decode(reader.readLine());
+            }
+        } else {
+            stored = null;
+        }
+    }
+
+    /**
+     * @return value up to which rows were extracted by previous runs, or null if there were none
+     */
+    public Object stored() {
+        return stored;
+    }
+
+    public void advance(Object value) {
+        pending = value;
+    }
+
+    public void commit() throws IOException {
+        if (pending == null) {
+            return;
+        }
+
+        Path writing = path.suffix(".tmp");
+        try (FSDataOutputStream out = fs.create(writing, true)) {
+            out.write((encode(pending) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        fs.delete(path, false);
+        fs.rename(writing, path);
+
+        pending = null;
+    }
+
+    private static String encode(Object v) {
+        if (v instanceof Long) {
+            return "LONG\t" + v;
+        }
+        if (v instanceof BigInteger) {
+            return "BIGINT\t" + v;
+        }
+        if (v instanceof BigDecimal) {
+            return "DECIMAL\t" + ((BigDecimal) v).toPlainString();
+        }
+        if (v instanceof Timestamp) {
+            return "TIMESTAMP\t" + v;
+        }
+        if (v instanceof java.sql.Date) {
+            return "DATE\t" + v;
+        }
+        if (v instanceof java.util.Date) {
+            return "TIMESTAMP\t" + new Timestamp(((java.util.Date) v).getTime());
+        }
+        return "STRING\t" + v;
+    }
+
+    private static Object decode(String line) throws IOException {
+        if (line == null) {
+            return null;
+        }
+
+        int tab = line.indexOf('\t');
+        if (tab < 0) {
+            throw new IOException("Malformed watermark '" + line + "'");
+        }
+
+        String value = line.substring(tab + 1);
+        switch (line.substring(0, tab)) {
+            case "LONG":
+                return Long.parseLong(value);
+            case "BIGINT":
+                return new BigInteger(value);
+            case "DECIMAL":
+                return new BigDecimal(value);
+            case "TIMESTAMP":
+                return Timestamp.valueOf(value);
+            case "DATE":
+                return java.sql.Date.valueOf(value);
+            default:
+                return value;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.jdbc;
+
+import io.github.pastorgl.datacooker.data.Columnar;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class JdbcBatchWriterTest {
+    private static final List<String> COLUMNS = Arrays.asList("name", "id", "skipped");
+
+    private Connection conn;
+
+    @Before
+    public void setUp() throws Exception {
+        conn = DriverManager.getConnection("jdbc:h2:mem:batch_writer;DB_CLOSE_DELAY=-1");
+        try (Statement st = conn.createStatement()) {
+            // columns in another order than records, and one more with a default value
+            st.execute("CREATE TABLE target (id BIGINT, created TIMESTAMP DEFAULT CURRENT_TIMESTAMP, name VARCHAR(64))");
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Statement st = conn.createStatement()) {
+            st.execute("DROP TABLE target");
+        }
+        conn.close();
+    }
+
+    @Test
+    public void writesByColumnNames() throws Exception {
+        int count = 100_003;
+
+        long start = System.nanoTime();
+        long written;
+        try (JdbcBatchWriter writer = new JdbcBatchWriter(conn, "target", new String[]{"id", "_", "name"}, true, 100, 1000,
+                null, 10_000)) {
+            for (long i = 0; i < count; i++) {
+                writer.write(new Columnar(COLUMNS, new Object[]{"name" + i, i, "not written"}));
+            }
+            written = writer.finish();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println("JdbcBatchWriter: " + written + " rows at " + (written * 1_000_000_000L / elapsed) + " rows/s");
+
+        assertEquals(count, written);
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COUNT(*), COUNT(created), SUM(id), MAX(name) FROM target WHERE name = CONCAT('name', id)")) {
+            rs.next();
+            assertEquals(count, rs.getLong(1));
+            assertEquals(count, rs.getLong(2));
+            assertEquals((long) count * (count - 1) / 2, rs.getLong(3));
+        }
+    }
+
+    @Test
+    public void writesByPosition() throws Exception {
+        try (Statement st = conn.createStatement()) {
+            st.execute("CREATE TABLE positional (num BIGINT, label VARCHAR(64))");
+        }
+
+        try {
+            // attribute names don't have to match table columns
+            try (JdbcBatchWriter writer = new JdbcBatchWriter(conn, "positional", new String[]{"id", "_", "name"}, false, 10, 100,
+                    null, 0)) {
+                for (long i = 0; i < 25; i++) {
+                    writer.write(new Columnar(COLUMNS, new Object[]{"name" + i, i, "not written"}));
+                }
+                assertEquals(25L, writer.finish());
+            }
+
+            try (Statement st = conn.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM positional WHERE label = CONCAT('name', num)")) {
+                rs.next();
+                assertEquals(25L, rs.getLong(1));
+            }
+        } finally {
+            try (Statement st = conn.createStatement()) {
+                st.execute("DROP TABLE positional");
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.jdbc;
+
+import io.github.pastorgl.datacooker.data.Columnar;
+import io.github.pastorgl.datacooker.data.DataRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JdbcBulkLoaderTest {
+    private static final List<String> COLUMNS = Arrays.asList("name", "id");
+
+    private Connection conn;
+
+    @Before
+    public void setUp() throws Exception {
+        conn = DriverManager.getConnection("jdbc:h2:mem:bulk_loader;DB_CLOSE_DELAY=-1");
+        try (Statement st = conn.createStatement()) {
+            // columns in another order than records, and one more with a default value
+            st.execute("CREATE TABLE target (id BIGINT, flag INT DEFAULT 7, name VARCHAR(64))");
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Statement st = conn.createStatement()) {
+            st.execute("DROP TABLE target");
+        }
+        conn.close();
+    }
+
+    @Test
+    public void csvRead() throws Exception {
+        JdbcBulkLoader loader = JdbcBulkLoader.of(JDBCStorage.LoadMethod.CSVREAD, conn, "target", new String[]{"id", "name"});
+        assertNotNull(loader);
+
+        List<DataRecord<?>> records = new ArrayList<>();
+        records.add(new Columnar(COLUMNS, new Object[]{"plain", 1L}));
+        records.add(new Columnar(COLUMNS, new Object[]{"with, comma and \"quotes\"", 2L}));
+        records.add(new Columnar(COLUMNS, new Object[]{null, 3L}));
+        records.add(new Columnar(COLUMNS, new Object[]{"", 4L}));
+
+        conn.setAutoCommit(false);
+        assertEquals(4L, loader.load(conn, records.iterator()));
+        conn.commit();
+
+        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery("SELECT id, flag, name FROM target ORDER BY id")) {
+            assertTrue(rs.next());
+            assertEquals(1L, rs.getLong(1));
+            assertEquals(7, rs.getInt(2));
+            assertEquals("plain", rs.getString(3));
+
+            assertTrue(rs.next());
+            assertEquals("with, comma and \"quotes\"", rs.getString(3));
+
+            assertTrue(rs.next());
+            assertNull(rs.getString(3));
+
+            assertTrue(rs.next());
+            assertEquals("", rs.getString(3));
+
+            assertFalse(rs.next());
+        }
+    }
+
+    @Test
+    public void unsupportedMethodsFallBackToInsert() throws Exception {
+        assertNull(JdbcBulkLoader.of(JDBCStorage.LoadMethod.COPY, conn, "target", new String[]{"id", "name"}));
+        assertNull(JdbcBulkLoader.of(JDBCStorage.LoadMethod.LOAD_DATA, conn, "target", new String[]{"id", "name"}));
+        assertNull(JdbcBulkLoader.of(JDBCStorage.LoadMethod.INSERT, conn, "target", new String[]{"id", "name"}));
+
+        // which is what JdbcColumnarOutput does when there's no loader
+        try (JdbcBatchWriter writer = new JdbcBatchWriter(conn, "target", new String[]{"id", "name"}, true, 10, 100, null, 0)) {
+            for (long i = 0; i < 25; i++) {
+                writer.write(new Columnar(COLUMNS, new Object[]{"name" + i, i}));
+            }
+            assertEquals(25L, writer.finish());
+        }
+
+        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery("SELECT COUNT(*), MIN(flag) FROM target WHERE name = CONCAT('name', id)")) {
+            rs.next();
+            assertEquals(25L, rs.getLong(1));
+            assertEquals(7, rs.getInt(2));
+        }
+    }
+}
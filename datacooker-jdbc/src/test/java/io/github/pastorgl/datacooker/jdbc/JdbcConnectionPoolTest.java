@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.jdbc;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class JdbcConnectionPoolTest {
+    private static final String URL = "jdbc:h2:mem:connection_pool;DB_CLOSE_DELAY=-1";
+
+    private static Connection connect() {
+        try {
+            return DriverManager.getConnection(URL);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void restoresStateOnRelease() throws Exception {
+        String key = JdbcConnectionPool.key(URL, new Properties(), "restoresStateOnRelease");
+
+        Connection conn = JdbcConnectionPool.borrow(key, JdbcConnectionPoolTest::connect);
+        int isolation = conn.getTransactionIsolation();
+        assertTrue(conn.getAutoCommit());
+
+        conn.setAutoCommit(false);
+        conn.setReadOnly(true);
+        conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        JdbcConnectionPool.release(key, conn);
+
+        Connection reused = JdbcConnectionPool.borrow(key, JdbcConnectionPoolTest::connect);
+        assertSame(conn, reused);
+        assertTrue(reused.getAutoCommit());
+        assertFalse(reused.isReadOnly());
+        assertEquals(isolation, reused.getTransactionIsolation());
+
+        JdbcConnectionPool.discard(reused);
+    }
+
+    @Test
+    public void discardsUnknownConnection() throws Exception {
+        String key = JdbcConnectionPool.key(URL, new Properties(), "discardsUnknownConnection");
+
+        Connection foreign = connect();
+        JdbcConnectionPool.release(key, foreign);
+        assertTrue(foreign.isClosed());
+    }
+}
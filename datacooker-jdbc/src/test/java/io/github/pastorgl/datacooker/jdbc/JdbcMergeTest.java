@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.jdbc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class JdbcMergeTest {
+    private Connection conn;
+
+    @Before
+    public void setUp() throws Exception {
+        conn = DriverManager.getConnection("jdbc:h2:mem:merge;DB_CLOSE_DELAY=-1");
+        try (Statement st = conn.createStatement()) {
+            st.execute("CREATE TABLE target (id BIGINT PRIMARY KEY, name VARCHAR(64), note VARCHAR(64) DEFAULT 'new')");
+            st.execute("INSERT INTO target VALUES (1, 'one', 'kept'), (2, 'two', 'kept')");
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Statement st = conn.createStatement()) {
+            st.execute("DROP TABLE target");
+        }
+        conn.close();
+    }
+
+    @Test
+    public void mergesWrittenColumnsOnce() throws Exception {
+        JdbcMerge merge = new JdbcMerge(conn);
+        String staging = merge.createStaging("target");
+        try {
+            try (Statement st = conn.createStatement()) {
+                // rows of a retried task are staged twice, and note isn't written at all
+                st.execute("INSERT INTO " + staging + " (id, name) VALUES (2, 'TWO'), (3, 'three'), (2, 'TWO'), (3, 'three')");
+            }
+
+            merge.merge("target", staging, new String[]{"id"}, Arrays.asList("id", "name"));
+        } finally {
+            merge.dropStaging(staging);
+        }
+
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT id, name, note FROM target ORDER BY id")) {
+            String[][] expected = {{"1", "one", "kept"}, {"2", "TWO", "kept"}, {"3", "three", "new"}};
+            for (String[] row : expected) {
+                rs.next();
+                assertEquals(row[0], rs.getString(1));
+                assertEquals(row[1], rs.getString(2));
+                assertEquals(row[2], rs.getString(3));
+            }
+            assertEquals(false, rs.next());
+        }
+    }
+}
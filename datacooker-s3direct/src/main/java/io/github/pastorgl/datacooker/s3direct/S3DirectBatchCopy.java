@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct;
+
+import io.github.pastorgl.datacooker.s3direct.functions.S3DirectBatchCopyFunction;
+import io.github.pastorgl.datacooker.s3direct.functions.S3DirectColumnarInputFunction;
+import io.github.pastorgl.datacooker.storage.InputAdapter;
+import io.github.pastorgl.datacooker.storage.OutputAdapter;
+import io.github.pastorgl.datacooker.storage.hadoop.HadoopStorage;
+import org.apache.spark.api.java.JavaSparkContext;
+
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * Copy from s3directColumnar to s3directText or s3directParquet in Arrow column batches. Each group of source
+ * objects is read and written as one output part by the same task, so there are neither intermediate records,
+ * nor a shuffle
+ */
+public class S3DirectBatchCopy {
+    private final S3DirectColumnarInput source;
+    private final S3DirectColumnarInputFunction sourceFunction;
+    private final S3DirectOutput dest;
+
+    private S3DirectBatchCopy(S3DirectColumnarInput source, S3DirectColumnarInputFunction sourceFunction, S3DirectOutput dest) {
+        this.source = source;
+        this.sourceFunction = sourceFunction;
+        this.dest = dest;
+    }
+
+    public static S3DirectBatchCopy of(InputAdapter ia, OutputAdapter oa) {
+        if (!(ia instanceof S3DirectColumnarInput) || !(oa instanceof S3DirectOutput)) {
+            return null;
+        }
+
+        S3DirectOutput dest = (S3DirectOutput) oa;
+        if (!dest.arrowBatches) {
+            return null;
+        }
+        if ((dest.partitionBy != null) || (dest.order != null)) {
+            System.out.println("Arrow batches requested, but destination is partitioned or ordered. Falling back to" +
+                    " one record at a time");
+            return null;
+        }
+
+        S3DirectColumnarInputFunction sourceFunction = ((S3DirectColumnarInput) ia).batchFunction();
+        if (sourceFunction == null) {
+            System.out.println("Arrow batches requested, but source records are filtered. Falling back to" +
+                    " one record at a time");
+            return null;
+        }
+
+        return new S3DirectBatchCopy((S3DirectColumnarInput) ia, sourceFunction, dest);
+    }
+
+    /**
+     * @return false if source objects are split into subs, or are of mixed formats, so they have to be copied by records
+     */
+    public boolean copy(JavaSparkContext context, String sub, int partCount) throws Exception {
+        if (partCount <= 0) {
+            partCount = context.defaultParallelism();
+        }
+
+        List<List<String>> groups = source.fileGroups(partCount);
+        if (groups == null) {
+            System.out.println("Arrow batches requested, but source objects are split into subs. Falling back to" +
+                    " one record at a time");
+            return false;
+        }
+
+        // types of a text column and a Parquet column of the same name may differ, and so would parts
+        long parquet = groups.stream().flatMap(List::stream).filter(key -> "parquet".equalsIgnoreCase(HadoopStorage.suffix(key))).count();
+        long total = groups.stream().mapToLong(List::size).sum();
+        if ((parquet != 0L) && (parquet != total)) {
+            System.out.println("Arrow batches requested, but source objects are both Parquet and text. Falling back" +
+                    " to one record at a time");
+            return false;
+        }
+
+        StringWriter confXml = new StringWriter();
+        context.hadoopConfiguration().writeXml(confXml);
+
+        context.parallelize(groups, Math.max(groups.size(), 1))
+                .mapPartitionsWithIndex(new S3DirectBatchCopyFunction(sourceFunction,
+                        dest.batchWriter((sub != null) ? sub : ""), confXml.toString()), false)
+                .count();
+        return true;
+    }
+}
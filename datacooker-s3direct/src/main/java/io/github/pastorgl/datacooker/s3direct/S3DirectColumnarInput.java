@@ -11,6 +11,7 @@ import io.github.pastorgl.datacooker.metadata.DefinitionMetaBuilder;
 import io.github.pastorgl.datacooker.metadata.InputAdapterMeta;
 import io.github.pastorgl.datacooker.storage.hadoop.input.functions.InputFunction;
 import io.github.pastorgl.datacooker.s3direct.functions.S3DirectColumnarInputFunction;
+import io.github.pastorgl.datacooker.s3direct.functions.S3DirectSelect;
 import org.apache.spark.api.java.JavaPairRDD;
 
 import java.util.Arrays;
@@ -30,6 +31,9 @@ public class S3DirectColumnarInput extends S3DirectInput {
     protected boolean schemaFromFile;
     protected String[] dsColumns;
     protected String dsDelimiter;
+    protected S3DirectSelect select;
+    protected boolean vectorized;
+    protected boolean partitionDiscovery;
 
     @Override
     public InputAdapterMeta meta() {
@@ -47,9 +51,25 @@ public class S3DirectColumnarInput extends S3DirectInput {
                                 " the endpoint from client's standard profile")
                         .def(S3D_REGION, "S3 region", null, "By default, try to discover" +
                                 " the region from client's standard profile")
+                        .def(THROTTLE, "Adapt the number of concurrent S3 requests of each executor to each bucket" +
+                                        " and key prefix to their latency and to SlowDown responses", Boolean.class, true,
+                                "By default, throttle S3 requests")
                         .def(SUB_DIRS, "If set, any first-level 'subdirectories' under designated prefix will" +
                                         " be split to different streams", Boolean.class, false,
                                 "By default, don't split")
+                        .def(PARTITION_FILTER, "Predicates in the form of 'column op value' (op is one of =, <>, <," +
+                                        " <=, >, >=; value is a number or a 'quoted string') on Hive-style col=value" +
+                                        " sub-prefixes. Sub-prefixes which values don't match are neither listed" +
+                                        " nor read", Object[].class, null, "By default, read all sub-prefixes")
+                        .def(PARTITION_DISCOVERY, "If set, add values of Hive-style col=value sub-prefixes of" +
+                                        " each object to its records as columns", Boolean.class, false,
+                                "By default, don't add partition columns")
+                        .def(HEDGE_PERCENTILE, "If set, hedge GETs which time to first byte is above this" +
+                                        " percentile, or read throughput is below (100 - percentile), of all GETs" +
+                                        " in the executor, by a duplicate request", Double.class, null,
+                                "By default, don't hedge GETs")
+                        .def(HEDGE_BUDGET, "Max share of GETs which may be hedged", Double.class, 0.05D,
+                                "By default, up to 5% of GETs")
                         .def(SCHEMA_FROM_FILE, "Read schema from 1st line of delimited text file." +
                                         " Ignored for Parquet",
                                 Boolean.class, true, "By default, try to get schema from file")
@@ -61,6 +81,19 @@ public class S3DirectColumnarInput extends S3DirectInput {
                                 String.class, "\t", "By default, tabulation character")
                         .def(COLUMNS, "Columns to select from the schema",
                                 Object[].class, null, "By default, don't select columns from the schema")
+                        .def(SELECT_WHERE, "Predicates in the form of 'column op value' (op is one of =, <>, <, <=, >, >=;" +
+                                        " value is a number or a 'quoted string') to filter records by. All of them" +
+                                        " must match", Object[].class, null, "By default, don't filter records")
+                        .def(S3_SELECT, "Push " + COLUMNS + " and " + SELECT_WHERE + " down to the storage with" +
+                                        " S3 Select for delimited text (uncompressed, gzip or bzip2) and Parquet objects," +
+                                        " with a fallback to reading objects as is. Values from Parquet are returned as text",
+                                Boolean.class, false, "By default, read objects as is")
+                        .def(VECTORIZED, "Decode Parquet column chunks in batches of primitive values, and" +
+                                        " make a record of a row only when it is read. Binary values are Strings," +
+                                        " DECIMAL are BigDecimal, DATE are java.sql.Date, TIMESTAMP and INT96 are" +
+                                        " java.sql.Timestamp. Files with nested or repeated columns are read row by" +
+                                        " row anyway", Boolean.class, false,
+                                "By default, read Parquet row by row")
                         .build()
         );
     }
@@ -87,12 +120,49 @@ public class S3DirectColumnarInput extends S3DirectInput {
         if (cols != null) {
             dsColumns = Arrays.stream(cols).map(String::valueOf).toArray(String[]::new);
         }
+
+        vectorized = params.get(VECTORIZED);
+        partitionDiscovery = params.get(PARTITION_DISCOVERY);
+
+        boolean s3Select = params.get(S3_SELECT);
+        Object[] where = params.get(SELECT_WHERE);
+        if (s3Select || (where != null)) {
+            try {
+                select = new S3DirectSelect(s3Select, where);
+            } catch (IllegalArgumentException e) {
+                throw new InvalidConfigurationException("Invalid '" + SELECT_WHERE + "' for Input Adapter '" + meta.verb
+                        + "': " + e.getMessage());
+            }
+
+            if (!schemaFromFile) {
+                List<String> schema = Arrays.asList(schemaDefault);
+                for (String column : select.whereColumns()) {
+                    if (!schema.contains(column)) {
+                        throw new InvalidConfigurationException("Column '" + column + "' of '" + SELECT_WHERE
+                                + "' is not in the '" + SCHEMA_DEFAULT + "' for Input Adapter '" + meta.verb + "'");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return function to read objects directly, without records, or null if records are filtered or get
+     * partition columns
+     */
+    S3DirectColumnarInputFunction batchFunction() {
+        if ((select != null) || partitionDiscovery) {
+            return null;
+        }
+
+        return new S3DirectColumnarInputFunction(schemaFromFile, schemaDefault, dsColumns, dsDelimiter.charAt(0),
+                endpoint, region, accessKey, secretKey, throttle, bucket, tmpDir, hedge, null, vectorized, null, context.hadoopConfiguration(), Partitioning.HASHCODE);
     }
 
     @Override
     protected DataStream callForFiles(String name, int partCount, List<List<String>> partNum, Partitioning partitioning) {
         InputFunction inputFunction = new S3DirectColumnarInputFunction(schemaFromFile, schemaDefault, dsColumns, dsDelimiter.charAt(0),
-                endpoint, region, accessKey, secretKey, bucket, tmpDir, context.hadoopConfiguration(), partitioning);
+                endpoint, region, accessKey, secretKey, throttle, bucket, tmpDir, hedge, select, vectorized, partitionDiscovery ? keyPrefix : null, context.hadoopConfiguration(), partitioning);
         JavaPairRDD<Object, DataRecord<?>> rdd = context.parallelize(partNum, partNum.size())
                 .flatMapToPair(inputFunction.build())
                 .repartition(partCount);
@@ -0,0 +1,279 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import io.github.pastorgl.datacooker.s3direct.functions.S3DirectCopyFunction;
+import io.github.pastorgl.datacooker.storage.InputAdapter;
+import io.github.pastorgl.datacooker.storage.OutputAdapter;
+import io.github.pastorgl.datacooker.storage.hadoop.HadoopStorage;
+import org.apache.spark.api.java.JavaSparkContext;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Server-side copy between two S3 Direct locations on the same endpoint. Objects are never
+ * downloaded to executors, they only issue CopyObject and UploadPartCopy requests. In sync
+ * mode, only objects missing or changed at destination are copied. Objects are copied as is,
+ * so it's done only if they are already in destination's format and codec, and records
+ * aren't projected or filtered on either side. Source partition filter prunes whole objects, so it applies, and
+ * in sync mode, destination is listed with the same filter, so pruned partitions are left as they are
+ */
+public class S3DirectCopy {
+    private final S3DirectInput source;
+    private final S3DirectOutput dest;
+
+    private S3DirectCopy(S3DirectInput source, S3DirectOutput dest) {
+        this.source = source;
+        this.dest = dest;
+    }
+
+    public static S3DirectCopy of(InputAdapter ia, OutputAdapter oa) {
+        if (!(ia instanceof S3DirectInput) || !(oa instanceof S3DirectOutput)) {
+            return null;
+        }
+
+        S3DirectInput source = (S3DirectInput) ia;
+        S3DirectOutput dest = (S3DirectOutput) oa;
+        if (!dest.serverSideCopy) {
+            return null;
+        }
+        if ((dest.partitionBy != null) || (dest.order != null)) {
+            System.out.println("Server-side copy requested, but destination is partitioned or ordered. Falling back" +
+                    " to copy through executors");
+            return null;
+        }
+
+        String incompatible = incompatibility(source, dest);
+        if (incompatible != null) {
+            System.out.println("Server-side copy requested, but " + incompatible + ". Falling back to copy" +
+                    " through executors");
+            return null;
+        }
+
+        // dest credentials are used to read the source, so both sides must be the same account on the same endpoint
+        if (!Objects.equals(source.endpoint, dest.endpoint) || !Objects.equals(source.region, dest.region)
+                || !Objects.equals(source.accessKey, dest.accessKey)) {
+            System.out.println("Server-side copy requested, but source and destination are on different endpoints" +
+                    " or accounts. Falling back to copy through executors");
+            return null;
+        }
+
+        return new S3DirectCopy(source, dest);
+    }
+
+    private static String incompatibility(S3DirectInput source, S3DirectOutput dest) {
+        if (dest instanceof S3DirectTextOutput) {
+            S3DirectTextOutput text = (S3DirectTextOutput) dest;
+            if (text.columns != null) {
+                return "destination selects columns";
+            }
+
+            if (source instanceof S3DirectPlainTextInput) {
+                return null;
+            }
+            if (source instanceof S3DirectColumnarInput) {
+                S3DirectColumnarInput columnar = (S3DirectColumnarInput) source;
+                String projection = projection(columnar);
+                if (projection != null) {
+                    return projection;
+                }
+                if (!columnar.dsDelimiter.equals(text.delimiter)) {
+                    return "source and destination delimiters differ";
+                }
+                return null;
+            }
+        } else if (dest instanceof S3DirectParquetOutput) {
+            if (((S3DirectParquetOutput) dest).columns() != null) {
+                return "destination selects columns";
+            }
+
+            if (source instanceof S3DirectColumnarInput) {
+                return projection((S3DirectColumnarInput) source);
+            }
+        }
+
+        return "source and destination formats differ";
+    }
+
+    private static String projection(S3DirectColumnarInput source) {
+        if (source.select != null) {
+            return "source records are filtered";
+        }
+        if (source.dsColumns != null) {
+            return "source selects columns";
+        }
+        if (source.partitionDiscovery) {
+            return "source records get partition columns";
+        }
+        return null;
+    }
+
+    /**
+     * @return why objects can't be copied as is to a destination of that kind and codec, or null if they can
+     */
+    static String objectIncompatibility(List<String> keys, boolean parquet, HadoopStorage.Codec codec) {
+        for (String key : keys) {
+            String name = key.substring(key.lastIndexOf('/') + 1);
+
+            boolean isParquet = name.toLowerCase(Locale.ROOT).endsWith(".parquet");
+            if (isParquet != parquet) {
+                return "S3 object " + key + (isParquet ? " is Parquet" : " isn't Parquet");
+            }
+            if (isParquet) {
+                name = name.substring(0, name.length() - ".parquet".length());
+            }
+
+            // codec is the last extension, as parts are named by both outputs, and by Spark
+            int dot = name.lastIndexOf('.');
+            String ext = (dot < 0) ? "" : name.substring(dot + 1);
+            HadoopStorage.Codec objectCodec = ext.isEmpty() ? HadoopStorage.Codec.NONE : HadoopStorage.Codec.lookup(ext);
+            if ((objectCodec != codec) && !codec.name().equalsIgnoreCase(ext)) {
+                return "S3 object " + key + " isn't compressed with " + codec.name();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return false if source objects aren't in destination's format or codec, so they have to be copied by records
+     */
+    public boolean copy(JavaSparkContext context, String sub, int partCount, boolean resume) throws Exception {
+        AmazonS3 s3 = S3DirectStorage.get(dest.endpoint, dest.region, dest.accessKey, dest.secretKey, dest.throttle);
+
+        String destRoot = S3DirectStorage.key(dest.keyPrefix, sub);
+        // resumed copy skips objects already copied by the interrupted run
+        boolean sync = resume || (dest.syncMode != S3DirectStorage.SyncMode.NONE);
+
+        List<S3DirectObject> objects;
+        Map<String, S3DirectObject> existing = new HashMap<>();
+        if (sync) {
+            ExecutorService listers = Executors.newFixedThreadPool(2);
+            try {
+                Future<List<S3DirectObject>> sourceListing = listers.submit(() -> source.list(s3, source.bucket, source.keyPrefix));
+                // destination mirrors source layout, so its pruned partitions are neither listed nor deleted
+                Future<List<S3DirectObject>> destListing = listers.submit(() -> source.list(s3, dest.bucket, destRoot.isEmpty() ? "" : destRoot + "/"));
+
+                objects = sourceListing.get();
+                destListing.get().forEach(o -> existing.put(o.key, o));
+            } finally {
+                listers.shutdown();
+            }
+            System.out.println("Discovered " + objects.size() + " source and " + existing.size() + " destination S3 object(s) to sync server-side");
+        } else {
+            objects = source.list(s3, source.bucket, source.keyPrefix);
+            System.out.println("Discovered " + objects.size() + " S3 object(s) to copy server-side");
+        }
+
+        String incompatible = objectIncompatibility(objects.stream().map(o -> o.key).collect(Collectors.toList()),
+                dest instanceof S3DirectParquetOutput, dest.codec);
+        if (incompatible != null) {
+            System.out.println(incompatible + ". Falling back to copy through executors");
+            return false;
+        }
+
+        Map<String, String> uploads = new HashMap<>();
+        try {
+            int upToDate = 0;
+            List<S3DirectCopyFunction.Item> items = new ArrayList<>();
+            for (S3DirectObject obj : objects) {
+                String destKey = S3DirectStorage.key(destRoot, obj.key.substring(source.keyPrefix.length()));
+
+                boolean conditional = false;
+                if (sync) {
+                    S3DirectObject present = existing.remove(destKey);
+
+                    if ((present != null) && (present.size == obj.size)) {
+                        if (Objects.equals(present.eTag, obj.eTag)) {
+                            upToDate++;
+                            continue;
+                        }
+
+                        // ETag of a multipart copy differs from source, so check recorded fingerprint instead
+                        if (obj.size <= S3DirectStorage.MAX_COPY_SIZE) {
+                            conditional = true;
+                        } else if (obj.eTag.equals(s3.getObjectMetadata(dest.bucket, destKey).getUserMetaDataOf(S3DirectStorage.SOURCE_ETAG))) {
+                            upToDate++;
+                            continue;
+                        }
+                    }
+                }
+
+                if (obj.size <= S3DirectStorage.MAX_COPY_SIZE) {
+                    S3DirectCopyFunction.Item item = S3DirectCopyFunction.Item.object(obj.key, destKey, obj.size);
+                    if (sync) {
+                        item.fingerprint(obj.eTag, conditional);
+                    }
+                    items.add(item);
+                } else {
+                    ObjectMetadata om = S3DirectStorage.copyMetadata(s3.getObjectMetadata(source.bucket, obj.key));
+                    if (sync) {
+                        om.addUserMetadata(S3DirectStorage.SOURCE_ETAG, obj.eTag);
+                    }
+                    String uploadId = s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(dest.bucket, destKey, om))
+                            .getUploadId();
+                    uploads.put(destKey, uploadId);
+
+                    int partNumber = 1;
+                    for (long first = 0L; first < obj.size; first += S3DirectStorage.COPY_PART_SIZE) {
+                        long last = Math.min(first + S3DirectStorage.COPY_PART_SIZE, obj.size) - 1;
+                        items.add(S3DirectCopyFunction.Item.part(obj.key, destKey, uploadId, partNumber++, first, last));
+                    }
+                }
+            }
+            if (sync) {
+                System.out.println(upToDate + " S3 object(s) are up to date, " + items.size() + " copy request(s) to schedule");
+            }
+
+            if (!items.isEmpty()) {
+                if (partCount <= 0) {
+                    partCount = context.defaultParallelism();
+                }
+                List<List<S3DirectCopyFunction.Item>> bins = S3DirectStorage.binPack(items, S3DirectCopyFunction.Item::size, partCount);
+
+                Map<String, List<PartETag>> parts = context.parallelize(bins, bins.size())
+                        .flatMap(new S3DirectCopyFunction(dest.endpoint, dest.region, dest.accessKey, dest.secretKey, dest.throttle, source.bucket, dest.bucket))
+                        .filter(item -> item.uploadId != null)
+                        .collect().stream()
+                        .collect(Collectors.groupingBy(item -> item.destKey,
+                                Collectors.mapping(item -> new PartETag(item.partNumber, item.eTag), Collectors.toList())));
+
+                for (Map.Entry<String, String> upload : uploads.entrySet()) {
+                    List<PartETag> partETags = parts.get(upload.getKey());
+                    partETags.sort(Comparator.comparingInt(PartETag::getPartNumber));
+
+                    s3.completeMultipartUpload(new CompleteMultipartUploadRequest(dest.bucket, upload.getKey(), upload.getValue(), partETags));
+                }
+                uploads.clear();
+            }
+        } finally {
+            for (Map.Entry<String, String> upload : uploads.entrySet()) {
+                try {
+                    s3.abortMultipartUpload(new AbortMultipartUploadRequest(dest.bucket, upload.getKey(), upload.getValue()));
+                } catch (Exception ignore) {
+                }
+            }
+        }
+
+        if ((dest.syncMode == S3DirectStorage.SyncMode.MIRROR) && !existing.isEmpty()) {
+            System.out.println("Deleting " + existing.size() + " destination S3 object(s) missing from source");
+
+            List<DeleteObjectsRequest.KeyVersion> keys = existing.keySet().stream()
+                    .map(DeleteObjectsRequest.KeyVersion::new)
+                    .collect(Collectors.toList());
+            for (int i = 0; i < keys.size(); i += S3DirectStorage.MAX_DELETE_KEYS) {
+                s3.deleteObjects(new DeleteObjectsRequest(dest.bucket)
+                        .withKeys(keys.subList(i, Math.min(i + S3DirectStorage.MAX_DELETE_KEYS, keys.size()))));
+            }
+        }
+        return true;
+    }
+}
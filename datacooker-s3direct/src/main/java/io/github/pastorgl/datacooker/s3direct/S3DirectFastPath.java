@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct;
+
+import io.github.pastorgl.datacooker.storage.InputAdapter;
+import io.github.pastorgl.datacooker.storage.OutputAdapter;
+import org.apache.spark.api.java.JavaSparkContext;
+
+/**
+ * Copy between S3 Direct adapters without records, if they allow it. Server-side copy is tried first, then
+ * transcode, then Arrow batches, each falling back to the next
+ */
+public class S3DirectFastPath {
+    /**
+     * @return true if source has been copied to destination, or false if it has to be copied by records
+     */
+    public static boolean copy(JavaSparkContext context, InputAdapter ia, OutputAdapter oa, String sub, int partCount, boolean resume) throws Exception {
+        S3DirectCopy s3DirectCopy = S3DirectCopy.of(ia, oa);
+        if ((s3DirectCopy != null) && s3DirectCopy.copy(context, sub, partCount, resume)) {
+            return true;
+        }
+
+        S3DirectTranscode s3DirectTranscode = S3DirectTranscode.of(ia, oa);
+        if ((s3DirectTranscode != null) && s3DirectTranscode.copy(context, sub, partCount)) {
+            return true;
+        }
+
+        S3DirectBatchCopy s3DirectBatchCopy = S3DirectBatchCopy.of(ia, oa);
+        return (s3DirectBatchCopy != null) && s3DirectBatchCopy.copy(context, sub, partCount);
+    }
+}
@@ -5,13 +5,13 @@
 package io.github.pastorgl.datacooker.s3direct;
 
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.model.ListObjectsRequest;
-import com.amazonaws.services.s3.model.ObjectListing;
-import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.google.common.collect.Lists;
 import io.github.pastorgl.datacooker.config.Configuration;
+import io.github.pastorgl.datacooker.config.InvalidConfigurationException;
 import io.github.pastorgl.datacooker.data.DataStream;
 import io.github.pastorgl.datacooker.data.Partitioning;
+import io.github.pastorgl.datacooker.s3direct.functions.S3DirectHedge;
+import io.github.pastorgl.datacooker.s3direct.functions.S3DirectSelect;
 import io.github.pastorgl.datacooker.storage.hadoop.input.HadoopInput;
 import org.apache.commons.collections4.map.ListOrderedMap;
 
@@ -30,21 +30,40 @@ public abstract class S3DirectInput extends HadoopInput {
     protected String secretKey;
     protected String endpoint;
     protected String region;
+    protected boolean throttle;
     protected String tmpDir;
     protected String bucket;
     protected String keyPrefix;
+    protected S3DirectHedge hedge;
+    protected S3DirectSelect partitionFilter;
 
     @Override
-    protected void configure(Configuration params) {
+    protected void configure(Configuration params) throws InvalidConfigurationException {
         super.configure(params);
 
         accessKey = params.get(S3D_ACCESS_KEY);
         secretKey = params.get(S3D_SECRET_KEY);
         endpoint = params.get(S3D_ENDPOINT);
         region = params.get(S3D_REGION);
+        throttle = params.get(THROTTLE);
 
         tmpDir = params.get("tmp");
 
+        Double hedgePercentile = params.get(HEDGE_PERCENTILE);
+        if ((hedgePercentile != null) && (hedgePercentile > 0.D)) {
+            hedge = new S3DirectHedge(hedgePercentile, params.get(HEDGE_BUDGET));
+        }
+
+        Object[] filter = params.get(PARTITION_FILTER);
+        if (filter != null) {
+            try {
+                partitionFilter = new S3DirectSelect(false, filter);
+            } catch (IllegalArgumentException e) {
+                throw new InvalidConfigurationException("Invalid '" + PARTITION_FILTER + "' for Input Adapter '" + meta.verb
+                        + "': " + e.getMessage());
+            }
+        }
+
         Matcher m = Pattern.compile(S3DirectStorage.PATH_PATTERN).matcher(path);
         m.matches();
         bucket = m.group(1);
@@ -53,20 +72,7 @@ public abstract class S3DirectInput extends HadoopInput {
 
     @Override
     public ListOrderedMap<String, DataStream> load(String prefix, int partCount, Partitioning partitioning) {
-        AmazonS3 s3 = S3DirectStorage.get(endpoint, region, accessKey, secretKey);
-
-        ListObjectsRequest request = new ListObjectsRequest();
-        request.setBucketName(bucket);
-        request.setPrefix(keyPrefix);
-
-        ObjectListing lo;
-        List<String> discoveredFiles = new ArrayList<>();
-        do {
-            lo = s3.listObjects(request);
-            discoveredFiles.addAll(lo.getObjectSummaries().stream()
-                    .map(S3ObjectSummary::getKey)
-                    .collect(Collectors.toList()));
-        } while (lo.isTruncated());
+        List<String> discoveredFiles = discover();
 
         Map<String, List<String>> subMap = new HashMap<>();
         if (subs) {
@@ -100,15 +106,7 @@ public abstract class S3DirectInput extends HadoopInput {
 
         ListOrderedMap<String, DataStream> ret = new ListOrderedMap<>();
         for (Map.Entry<String, List<String>> ds : subMap.entrySet()) {
-            List<String> files = ds.getValue();
-
-            int groupSize = files.size() / partCount;
-            if (groupSize <= 0) {
-                groupSize = 1;
-            }
-
-            List<List<String>> partNum = new ArrayList<>();
-            Lists.partition(files, groupSize).forEach(p -> partNum.add(new ArrayList<>(p)));
+            List<List<String>> partNum = groups(ds.getValue(), partCount);
 
             String sub = ds.getKey();
             String name = sub.isEmpty() ? prefix : prefix + "/" + sub;
@@ -117,4 +115,47 @@ public abstract class S3DirectInput extends HadoopInput {
 
         return ret;
     }
+
+    /**
+     * @return all objects under the prefix, in groups to read by each part, or null if they're split into subs
+     */
+    List<List<String>> fileGroups(int partCount) {
+        if (subs) {
+            return null;
+        }
+
+        List<String> files = discover();
+        System.out.println("Discovered " + files.size() + " S3 object(s)");
+
+        return groups(files, partCount);
+    }
+
+    private List<String> discover() {
+        AmazonS3 s3 = S3DirectStorage.get(endpoint, region, accessKey, secretKey, throttle);
+
+        return list(s3, bucket, keyPrefix).stream()
+                .map(o -> o.key)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return objects under the prefix, which may be in another bucket with the same layout. With partition
+     * filter, sub-prefixes of pruned partitions aren't listed
+     */
+    List<S3DirectObject> list(AmazonS3 s3, String bucket, String keyPrefix) {
+        return (partitionFilter == null)
+                ? S3DirectStorage.list(s3, bucket, keyPrefix)
+                : S3DirectStorage.listPartitions(s3, bucket, keyPrefix, partitionFilter::matches, partitionFilter.whereColumns());
+    }
+
+    private static List<List<String>> groups(List<String> files, int partCount) {
+        int groupSize = (partCount > 0) ? (files.size() / partCount) : files.size();
+        if (groupSize <= 0) {
+            groupSize = 1;
+        }
+
+        List<List<String>> partNum = new ArrayList<>();
+        Lists.partition(files, groupSize).forEach(p -> partNum.add(new ArrayList<>(p)));
+        return partNum;
+    }
 }
@@ -0,0 +1,25 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.io.Serializable;
+
+public class S3DirectObject implements Serializable {
+    public final String key;
+    public final long size;
+    public final String eTag;
+
+    public S3DirectObject(String key, long size, String eTag) {
+        this.key = key;
+        this.size = size;
+        this.eTag = eTag;
+    }
+
+    public S3DirectObject(S3ObjectSummary summary) {
+        this(summary.getKey(), summary.getSize(), summary.getETag());
+    }
+}
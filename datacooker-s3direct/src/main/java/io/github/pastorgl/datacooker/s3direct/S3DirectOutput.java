@@ -6,16 +6,37 @@ package io.github.pastorgl.datacooker.s3direct;
 
 import io.github.pastorgl.datacooker.config.Configuration;
 import io.github.pastorgl.datacooker.config.InvalidConfigurationException;
+import io.github.pastorgl.datacooker.s3direct.functions.BatchPartWriter;
+import io.github.pastorgl.datacooker.s3direct.functions.S3DirectCodecs;
+import io.github.pastorgl.datacooker.s3direct.functions.RecordOrder;
 import io.github.pastorgl.datacooker.storage.hadoop.output.HadoopOutput;
 
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 public abstract class S3DirectOutput extends HadoopOutput {
     protected String accessKey;
     protected String secretKey;
 
     protected String contentType;
+    protected Integer codecLevel;
     protected String endpoint;
     protected String region;
+    protected boolean throttle;
     protected String tmpDir;
+    protected String progressDir;
+    protected String bucket;
+    protected String keyPrefix;
+
+    protected boolean serverSideCopy;
+    protected S3DirectStorage.SyncMode syncMode;
+    protected boolean arrowBatches;
+
+    protected String[] partitionBy;
+    protected int maxOpenPartitions;
+    protected long spillMemory;
+    protected RecordOrder order;
 
     @Override
     protected void configure(Configuration params) throws InvalidConfigurationException {
@@ -25,9 +46,70 @@ public abstract class S3DirectOutput extends HadoopOutput {
         secretKey = params.get(S3DirectStorage.S3D_SECRET_KEY);
         endpoint = params.get(S3DirectStorage.S3D_ENDPOINT);
         region = params.get(S3DirectStorage.S3D_REGION);
+        throttle = params.get(S3DirectStorage.THROTTLE);
 
         contentType = params.get(S3DirectStorage.CONTENT_TYPE);
+        codecLevel = params.get(S3DirectStorage.CODEC_LEVEL);
+        if (codecLevel != null) {
+            int[] range = S3DirectCodecs.levelRange(codec);
+            if (range == null) {
+                throw new InvalidConfigurationException("Codec " + codec.name() + " of Output Adapter '" + meta.verb
+                        + "' doesn't support '" + S3DirectStorage.CODEC_LEVEL + "'");
+            }
+            if ((codecLevel < range[0]) || (codecLevel > range[1])) {
+                throw new InvalidConfigurationException("'" + S3DirectStorage.CODEC_LEVEL + "' of Output Adapter '"
+                        + meta.verb + "' must be from " + range[0] + " to " + range[1] + " for codec " + codec.name());
+            }
+        }
+        serverSideCopy = params.get(S3DirectStorage.SERVER_SIDE_COPY);
+        syncMode = params.get(S3DirectStorage.SYNC);
+        if ((syncMode != S3DirectStorage.SyncMode.NONE) && !serverSideCopy) {
+            throw new InvalidConfigurationException("'" + S3DirectStorage.SYNC + "' requires '"
+                    + S3DirectStorage.SERVER_SIDE_COPY + "' to be set for Output Adapter '" + meta.verb + "'");
+        }
+
+        arrowBatches = params.get(S3DirectStorage.ARROW_BATCHES);
+
+        Object[] partBy = params.get(S3DirectStorage.PARTITION_BY);
+        if (partBy != null) {
+            partitionBy = Arrays.stream(partBy).map(String::valueOf).toArray(String[]::new);
+        }
+        maxOpenPartitions = params.get(S3DirectStorage.MAX_OPEN_PARTITIONS);
+        if (maxOpenPartitions < 1) {
+            throw new InvalidConfigurationException("'" + S3DirectStorage.MAX_OPEN_PARTITIONS + "' must be positive for" +
+                    " Output Adapter '" + meta.verb + "'");
+        }
+        spillMemory = ((Integer) params.get(S3DirectStorage.SPILL_MEMORY)) * 1024L * 1024L;
+
+        Object[] sortBy = params.get(S3DirectStorage.SORT_BY);
+        Object[] clusterBy = params.get(S3DirectStorage.CLUSTER_BY);
+        if ((sortBy != null) && (clusterBy != null)) {
+            throw new InvalidConfigurationException("Only one of '" + S3DirectStorage.SORT_BY + "' and '"
+                    + S3DirectStorage.CLUSTER_BY + "' can be set for Output Adapter '" + meta.verb + "'");
+        }
+        if (sortBy != null) {
+            order = RecordOrder.sortBy(Arrays.stream(sortBy).map(String::valueOf).toArray(String[]::new));
+        }
+        if (clusterBy != null) {
+            order = RecordOrder.clusterBy(Arrays.stream(clusterBy).map(String::valueOf).toArray(String[]::new),
+                    params.get(S3DirectStorage.CLUSTER_CURVE));
+        }
 
         tmpDir = params.get("tmp");
+        progressDir = params.get("progress");
+
+        Matcher m = Pattern.compile(S3DirectStorage.PATH_PATTERN).matcher(path);
+        if (!m.matches()) {
+            throw new InvalidConfigurationException("Output path '" + path + "' is not an s3d:// location for Output Adapter '" + meta.verb + "'");
+        }
+        bucket = m.group(1);
+        keyPrefix = m.group(2);
+    }
+
+    /**
+     * @return output function, which also writes Arrow batches
+     */
+    BatchPartWriter batchWriter(String sub) {
+        return (BatchPartWriter) getOutputFunction(sub);
     }
 }
@@ -22,6 +22,7 @@ import static io.github.pastorgl.datacooker.s3direct.S3DirectStorage.*;
 @SuppressWarnings("unused")
 public abstract class S3DirectParquetOutput extends S3DirectOutput {
     private String[] columns;
+    boolean transcode;
 
     @Override
     public OutputAdapterMeta meta() {
@@ -33,6 +34,8 @@ public abstract class S3DirectParquetOutput extends S3DirectOutput {
                 new DefinitionMetaBuilder()
                         .def(CODEC, "Codec to compress the output", Codec.class, Codec.NONE,
                                 "By default, use no compression")
+                        .def(CODEC_LEVEL, "Compression level of the codec, if it supports levels (gzip, deflate" +
+                                " and zstd)", Integer.class, null, "By default, use codec's default level")
                         .def(S3D_ACCESS_KEY, "S3 access key", null, "By default, try to discover" +
                                 " the key from client's standard credentials chain")
                         .def(S3D_SECRET_KEY, "S3 secret key", null, "By default, try to discover" +
@@ -41,10 +44,48 @@ public abstract class S3DirectParquetOutput extends S3DirectOutput {
                                 " the endpoint from client's standard profile")
                         .def(S3D_REGION, "S3 region", null, "By default, try to discover" +
                                 " the region from client's standard profile")
+                        .def(THROTTLE, "Adapt the number of concurrent S3 requests of each executor to each bucket" +
+                                        " and key prefix to their latency and to SlowDown responses", Boolean.class, true,
+                                "By default, throttle S3 requests")
                         .def(CONTENT_TYPE, "Content type for objects", "application/vnd.apache.parquet",
                                 "By default, content type is application/vnd.apache.parquet")
                         .def(COLUMNS, "Columns to write",
                                 Object[].class, null, "By default, select all columns")
+                        .def(ARROW_BATCHES, "If set, and source is s3directColumnar without record filtering," +
+                                        " read and write objects in Arrow column batches, one part per group of source" +
+                                        " objects, without intermediate records and a shuffle", Boolean.class, false,
+                                "By default, read and write one record at a time")
+                        .def(TRANSCODE, "If set, and source is s3directColumnar delimited text without record" +
+                                        " filtering and with the same columns, transcode objects straight into Parquet" +
+                                        " columns, one part per group of source objects, without intermediate records" +
+                                        " and a shuffle", Boolean.class, false,
+                                "By default, read and write one record at a time")
+                        .def(PARTITION_BY, "Columns to partition output by, Hive-style. Each task writes records" +
+                                        " of a partition under col=value/ sub-prefix, and partition columns are kept" +
+                                        " in records too", Object[].class, null, "By default, don't partition output")
+                        .def(MAX_OPEN_PARTITIONS, "Max number of partitions each task writes at once. Records of any" +
+                                        " other partitions are sorted by partition and written after the rest. Sorted" +
+                                        " or clustered records are written one partition at a time",
+                                Integer.class, 16, "By default, 16 partitions")
+                        .def(SPILL_MEMORY, "Memory budget, in megabytes, for records which each task sets aside" +
+                                        " to write later, above which they are spilled to local disk",
+                                Integer.class, 64, "By default, 64 megabytes")
+                        .def(SORT_BY, "Columns to sort records of each part by, one after another. Numbers are" +
+                                        " compared by value, text as is", Object[].class, null,
+                                "By default, write records in the order they come")
+                        .def(CLUSTER_BY, "Numeric columns, like lat and lon, to cluster records of each part by," +
+                                        " along a space filling curve", Object[].class, null,
+                                "By default, write records in the order they come")
+                        .def(CLUSTER_CURVE, "Space filling curve to cluster records along", ClusterCurve.class,
+                                ClusterCurve.ZORDER, "By default, Z-order")
+                        .def(SERVER_SIDE_COPY, "If set, and source is an S3 Direct adapter on the same endpoint," +
+                                        " copy source objects as is with server-side CopyObject and UploadPartCopy," +
+                                        " keeping their keys relative to source prefix", Boolean.class, false,
+                                "By default, read and write records through executors")
+                        .def(SYNC, "For server-side copy, UPDATE copies only objects missing at destination" +
+                                        " or changed by size or ETag, MIRROR also deletes destination objects" +
+                                        " missing from source", SyncMode.class, SyncMode.NONE,
+                                "By default, copy all source objects")
                         .build()
         );
     }
@@ -57,6 +98,16 @@ public abstract class S3DirectParquetOutput extends S3DirectOutput {
         if (cols != null) {
             columns = Arrays.stream(cols).map(String::valueOf).toArray(String[]::new);
         }
+
+        transcode = params.get(TRANSCODE);
+    }
+
+    String[] columns() {
+        return columns;
+    }
+
+    S3DirectParquetOutputFunction parquetWriter(String sub) {
+        return (S3DirectParquetOutputFunction) getOutputFunction(sub);
     }
 
     @Override
@@ -70,6 +121,7 @@ public abstract class S3DirectParquetOutput extends S3DirectOutput {
         }
 
         return new S3DirectParquetOutputFunction(sub, path, codec, confXml, columns,
-                endpoint, region, accessKey, secretKey, tmpDir, contentType);
+                endpoint, region, accessKey, secretKey, throttle, tmpDir, contentType, progressDir, codecLevel,
+                partitionBy, maxOpenPartitions, spillMemory, order);
     }
 }
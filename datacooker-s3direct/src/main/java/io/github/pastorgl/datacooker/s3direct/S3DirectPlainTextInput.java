@@ -34,17 +34,30 @@ public class S3DirectPlainTextInput extends S3DirectInput {
                                 " the endpoint from client's standard profile")
                         .def(S3D_REGION, "S3 region", null, "By default, try to discover" +
                                 " the region from client's standard profile")
+                        .def(THROTTLE, "Adapt the number of concurrent S3 requests of each executor to each bucket" +
+                                        " and key prefix to their latency and to SlowDown responses", Boolean.class, true,
+                                "By default, throttle S3 requests")
                         .def(SUB_DIRS, "If set, any first-level 'subdirectories' under designated prefix will" +
                                         " be split to different streams", Boolean.class, false,
                                 "By default, don't split")
+                        .def(PARTITION_FILTER, "Predicates in the form of 'column op value' (op is one of =, <>, <," +
+                                        " <=, >, >=; value is a number or a 'quoted string') on Hive-style col=value" +
+                                        " sub-prefixes. Sub-prefixes which values don't match are neither listed" +
+                                        " nor read", Object[].class, null, "By default, read all sub-prefixes")
+                        .def(HEDGE_PERCENTILE, "If set, hedge GETs which time to first byte is above this" +
+                                        " percentile, or read throughput is below (100 - percentile), of all GETs" +
+                                        " in the executor, by a duplicate request", Double.class, null,
+                                "By default, don't hedge GETs")
+                        .def(HEDGE_BUDGET, "Max share of GETs which may be hedged", Double.class, 0.05D,
+                                "By default, up to 5% of GETs")
                         .build()
         );
     }
 
     @Override
     protected DataStream callForFiles(String name, int partCount, List<List<String>> partNum, Partitioning partitioning) {
-        InputFunction inputFunction = new S3DirectTextInputFunction(endpoint, region, accessKey, secretKey, bucket,
-                context.hadoopConfiguration(), partitioning);
+        InputFunction inputFunction = new S3DirectTextInputFunction(endpoint, region, accessKey, secretKey, throttle, bucket,
+                hedge, context.hadoopConfiguration(), partitioning);
         JavaPairRDD<Object, DataRecord<?>> rdd = context.parallelize(partNum, partNum.size())
                 .flatMapToPair(inputFunction.build())
                 .repartition(partCount);
@@ -9,6 +9,19 @@ import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.client.builder.AwsClientBuilder;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import io.github.pastorgl.datacooker.s3direct.functions.HivePartitions;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiPredicate;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
 
 public class S3DirectStorage {
     public static final String S3D_ACCESS_KEY = "access_key";
@@ -16,9 +29,51 @@ public class S3DirectStorage {
     public static final String S3D_ENDPOINT = "endpoint";
     public static final String S3D_REGION = "region";
     public static final String CONTENT_TYPE = "content_type";
+    public static final String CODEC_LEVEL = "codec_level";
+    public static final String COMPRESSION_THREADS = "compression_threads";
+    public static final String SERVER_SIDE_COPY = "server_side_copy";
+    public static final String THROTTLE = "throttle";
+    public static final String SYNC = "sync";
+    public static final String HEDGE_PERCENTILE = "hedge_percentile";
+    public static final String HEDGE_BUDGET = "hedge_budget";
+    public static final String S3_SELECT = "s3_select";
+    public static final String SELECT_WHERE = "select_where";
+    public static final String ARROW_BATCHES = "arrow_batches";
+    public static final String TRANSCODE = "transcode";
+    public static final String VECTORIZED = "vectorized";
+    public static final String PARTITION_BY = "partition_by";
+    public static final String MAX_OPEN_PARTITIONS = "max_open_partitions";
+    public static final String SPILL_MEMORY = "spill_memory";
+    public static final String PARTITION_DISCOVERY = "partition_discovery";
+    public static final String PARTITION_FILTER = "partition_filter";
+    public static final String SORT_BY = "sort_by";
+    public static final String CLUSTER_BY = "cluster_by";
+    public static final String CLUSTER_CURVE = "cluster_curve";
     public static final String PATH_PATTERN = "^s3d://([^/]+)/(.+)";
 
-    public static AmazonS3 get(String endpoint, String region, String accessKey, String secretKey) {
+    // S3 won't CopyObject anything larger, so such objects are copied by UploadPartCopy ranges
+    public static final long MAX_COPY_SIZE = 5L * 1024 * 1024 * 1024;
+    public static final long COPY_PART_SIZE = 512L * 1024 * 1024;
+    // user metadata key to record source object ETag, which isn't preserved by multipart copies
+    public static final String SOURCE_ETAG = "dc-source-etag";
+    public static final int MAX_DELETE_KEYS = 1000;
+    public static final int LIST_THREADS = 16;
+
+    public enum SyncMode {
+        NONE,
+        UPDATE,
+        MIRROR
+    }
+
+    public enum ClusterCurve {
+        ZORDER,
+        HILBERT
+    }
+
+    /**
+     * @param throttle if set, requests of the client are let through by {@link S3DirectThrottle}
+     */
+    public static AmazonS3 get(String endpoint, String region, String accessKey, String secretKey, boolean throttle) {
         AmazonS3ClientBuilder s3ClientBuilder = AmazonS3ClientBuilder.standard();
         if (endpoint != null) {
             s3ClientBuilder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, region));
@@ -27,8 +82,191 @@ public class S3DirectStorage {
             s3ClientBuilder.setCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials(accessKey, secretKey)));
         }
 
+        if (throttle) {
+            s3ClientBuilder.withRequestHandlers(S3DirectThrottle.handler());
+        }
+
         return s3ClientBuilder
                 .enableForceGlobalBucketAccess()
                 .build();
     }
+
+    public static List<S3DirectObject> list(AmazonS3 s3, String bucket, String keyPrefix) {
+        ListObjectsRequest request = new ListObjectsRequest();
+        request.setBucketName(bucket);
+        request.setPrefix(keyPrefix);
+
+        List<S3DirectObject> discovered = new ArrayList<>();
+        ObjectListing lo = s3.listObjects(request);
+        while (true) {
+            discovered.addAll(lo.getObjectSummaries().stream()
+                    .map(S3DirectObject::new)
+                    .collect(Collectors.toList()));
+
+            if (!lo.isTruncated()) {
+                break;
+            }
+            lo = s3.listNextBatchOfObjects(lo);
+        }
+
+        return discovered;
+    }
+
+    /**
+     * List objects under the prefix level by level, skipping Hive-style col=value sub-prefixes which values
+     * don't pass the filter, so pruned partitions aren't listed at all. Sub-prefixes of a level are listed in
+     * parallel, and once all filtered columns are on the path, the rest of the sub-prefix is listed flat
+     */
+    public static List<S3DirectObject> listPartitions(AmazonS3 s3, String bucket, String keyPrefix, BiPredicate<String, String> partitionFilter,
+                                                      Collection<String> filterColumns) {
+        List<S3DirectObject> discovered = new ArrayList<>();
+
+        ExecutorService listers = Executors.newFixedThreadPool(LIST_THREADS);
+        try {
+            Map<String, Set<String>> level = Collections.singletonMap(keyPrefix, Collections.emptySet());
+            while (!level.isEmpty()) {
+                Map<String, Future<ObjectListing>> listings = new LinkedHashMap<>();
+                Map<String, Future<List<S3DirectObject>>> flat = new LinkedHashMap<>();
+                for (Map.Entry<String, Set<String>> prefix : level.entrySet()) {
+                    if (prefix.getValue().containsAll(filterColumns)) {
+                        flat.put(prefix.getKey(), listers.submit(() -> list(s3, bucket, prefix.getKey())));
+                    } else {
+                        listings.put(prefix.getKey(), listers.submit(() -> listLevel(s3, bucket, prefix.getKey())));
+                    }
+                }
+
+                for (Future<List<S3DirectObject>> objects : flat.values()) {
+                    discovered.addAll(objects.get());
+                }
+
+                Map<String, Set<String>> next = new LinkedHashMap<>();
+                for (Map.Entry<String, Future<ObjectListing>> listing : listings.entrySet()) {
+                    Set<String> columns = level.get(listing.getKey());
+
+                    ObjectListing lo = listing.getValue().get();
+                    discovered.addAll(lo.getObjectSummaries().stream()
+                            .map(S3DirectObject::new)
+                            .collect(Collectors.toList()));
+
+                    for (String subPrefix : lo.getCommonPrefixes()) {
+                        String segment = subPrefix.substring(0, subPrefix.length() - 1);
+                        segment = segment.substring(segment.lastIndexOf('/') + 1);
+
+                        int eq = segment.indexOf('=');
+                        if (eq > 0) {
+                            String column = HivePartitions.unescape(segment.substring(0, eq));
+                            if (!partitionFilter.test(column, HivePartitions.unescape(segment.substring(eq + 1)))) {
+                                continue;
+                            }
+
+                            Set<String> subColumns = new HashSet<>(columns);
+                            subColumns.add(column);
+                            next.put(subPrefix, subColumns);
+                        } else {
+                            next.put(subPrefix, columns);
+                        }
+                    }
+                }
+
+                level = next;
+            }
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            listers.shutdown();
+        }
+
+        discovered.sort(Comparator.comparing(o -> o.key));
+        return discovered;
+    }
+
+    // objects and sub-prefixes right under the prefix, with all pages merged into one listing
+    private static ObjectListing listLevel(AmazonS3 s3, String bucket, String keyPrefix) {
+        ListObjectsRequest request = new ListObjectsRequest();
+        request.setBucketName(bucket);
+        request.setPrefix(keyPrefix);
+        request.setDelimiter("/");
+
+        ObjectListing lo = s3.listObjects(request);
+        ObjectListing ret = lo;
+        while (lo.isTruncated()) {
+            lo = s3.listNextBatchOfObjects(lo);
+            ret.getObjectSummaries().addAll(lo.getObjectSummaries());
+            ret.getCommonPrefixes().addAll(lo.getCommonPrefixes());
+        }
+
+        return ret;
+    }
+
+    public static ObjectMetadata copyMetadata(ObjectMetadata source) {
+        ObjectMetadata om = new ObjectMetadata();
+        if (source.getContentType() != null) {
+            om.setContentType(source.getContentType());
+        }
+        if (source.getContentEncoding() != null) {
+            om.setContentEncoding(source.getContentEncoding());
+        }
+        if (source.getContentDisposition() != null) {
+            om.setContentDisposition(source.getContentDisposition());
+        }
+        if (source.getCacheControl() != null) {
+            om.setCacheControl(source.getCacheControl());
+        }
+        om.setUserMetadata(new HashMap<>(source.getUserMetadata()));
+
+        return om;
+    }
+
+    public static String key(String... segments) {
+        StringJoiner sj = new StringJoiner("/");
+        for (String segment : segments) {
+            if ((segment == null) || segment.isEmpty()) {
+                continue;
+            }
+
+            int start = 0, end = segment.length();
+            while ((start < end) && (segment.charAt(start) == '/')) {
+                start++;
+            }
+            while ((end > start) && (segment.charAt(end - 1) == '/')) {
+                end--;
+            }
+            if (start < end) {
+                sj.add(segment.substring(start, end));
+            }
+        }
+
+        return sj.toString();
+    }
+
+    /**
+     * Greedy largest-first packing of weighted items into at most the requested number of bins
+     */
+    public static <T> List<List<T>> binPack(List<T> items, ToLongFunction<T> weight, int binCount) {
+        binCount = Math.max(1, Math.min(binCount, items.size()));
+
+        List<T> sorted = new ArrayList<>(items);
+        sorted.sort(Comparator.comparingLong(weight).reversed());
+
+        List<List<T>> bins = new ArrayList<>();
+        long[] loads = new long[binCount];
+        PriorityQueue<Integer> lightest = new PriorityQueue<>(binCount, Comparator.comparingLong((Integer b) -> loads[b]));
+        for (int i = 0; i < binCount; i++) {
+            bins.add(new ArrayList<>());
+            lightest.add(i);
+        }
+
+        for (T item : sorted) {
+            int bin = lightest.poll();
+            bins.get(bin).add(item);
+            loads[bin] += weight.applyAsLong(item);
+            lightest.add(bin);
+        }
+
+        bins.removeIf(List::isEmpty);
+        return bins;
+    }
 }
@@ -24,6 +24,7 @@ import static io.github.pastorgl.datacooker.s3direct.S3DirectStorage.*;
 public abstract class S3DirectTextOutput extends S3DirectOutput {
     protected String[] columns;
     protected String delimiter;
+    protected Integer compressionThreads;
 
     @Override
     public OutputAdapterMeta meta() {
@@ -35,6 +36,11 @@ public abstract class S3DirectTextOutput extends S3DirectOutput {
                 new DefinitionMetaBuilder()
                         .def(CODEC, "Codec to compress the output", HadoopStorage.Codec.class, HadoopStorage.Codec.NONE,
                                 "By default, use no compression")
+                        .def(CODEC_LEVEL, "Compression level of the codec, if it supports levels (gzip, deflate" +
+                                " and zstd)", Integer.class, null, "By default, use codec's default level")
+                        .def(COMPRESSION_THREADS, "Number of blocks of each part to compress in parallel, by the pool" +
+                                " of compression threads shared by the executor",
+                                Integer.class, null, "By default, as many as there are available processors")
                         .def(S3D_ACCESS_KEY, "S3 access key", null, "By default, try to discover" +
                                 " the key from client's standard credentials chain")
                         .def(S3D_SECRET_KEY, "S3 secret key", null, "By default, try to discover" +
@@ -43,12 +49,47 @@ public abstract class S3DirectTextOutput extends S3DirectOutput {
                                 " the endpoint from client's standard profile")
                         .def(S3D_REGION, "S3 region", null, "By default, try to discover" +
                                 " the region from client's standard profile")
+                        .def(THROTTLE, "Adapt the number of concurrent S3 requests of each executor to each bucket" +
+                                        " and key prefix to their latency and to SlowDown responses", Boolean.class, true,
+                                "By default, throttle S3 requests")
                         .def(CONTENT_TYPE, "Content type for objects", "text/csv", "By default," +
                                 " content type is CSV")
                         .def(COLUMNS, "Columns to write",
                                 Object[].class, null, "By default, select all columns")
                         .def(DELIMITER, "Record column delimiter",
                                 String.class, "\t", "By default, tabulation character")
+                        .def(ARROW_BATCHES, "If set, and source is s3directColumnar without record filtering," +
+                                        " read and write objects in Arrow column batches, one part per group of source" +
+                                        " objects, without intermediate records and a shuffle", Boolean.class, false,
+                                "By default, read and write one record at a time")
+                        .def(PARTITION_BY, "Columns to partition output by, Hive-style. Each task writes records" +
+                                        " of a partition under col=value/ sub-prefix, and partition columns are kept" +
+                                        " in records too", Object[].class, null, "By default, don't partition output")
+                        .def(MAX_OPEN_PARTITIONS, "Max number of partitions each task writes at once. Records of any" +
+                                        " other partitions are sorted by partition and written after the rest. Each" +
+                                        " open partition holds up to an S3 part of about 6 megabytes, so no more of them" +
+                                        " are open than fit into " + SPILL_MEMORY + ". Sorted or clustered" +
+                                        " records are written one partition at a time",
+                                Integer.class, 16, "By default, 16 partitions")
+                        .def(SPILL_MEMORY, "Memory budget, in megabytes, for records which each task sets aside" +
+                                        " to write later, above which they are spilled to local disk",
+                                Integer.class, 64, "By default, 64 megabytes")
+                        .def(SORT_BY, "Columns to sort records of each part by, one after another. Numbers are" +
+                                        " compared by value, text as is", Object[].class, null,
+                                "By default, write records in the order they come")
+                        .def(CLUSTER_BY, "Numeric columns, like lat and lon, to cluster records of each part by," +
+                                        " along a space filling curve", Object[].class, null,
+                                "By default, write records in the order they come")
+                        .def(CLUSTER_CURVE, "Space filling curve to cluster records along", ClusterCurve.class,
+                                ClusterCurve.ZORDER, "By default, Z-order")
+                        .def(SERVER_SIDE_COPY, "If set, and source is an S3 Direct adapter on the same endpoint," +
+                                        " copy source objects as is with server-side CopyObject and UploadPartCopy," +
+                                        " keeping their keys relative to source prefix", Boolean.class, false,
+                                "By default, read and write records through executors")
+                        .def(SYNC, "For server-side copy, UPDATE copies only objects missing at destination" +
+                                        " or changed by size or ETag, MIRROR also deletes destination objects" +
+                                        " missing from source", SyncMode.class, SyncMode.NONE,
+                                "By default, copy all source objects")
                         .build()
         );
     }
@@ -62,6 +103,7 @@ public abstract class S3DirectTextOutput extends S3DirectOutput {
             columns = Arrays.stream(cols).map(String::valueOf).toArray(String[]::new);
         }
         delimiter = params.get(DELIMITER);
+        compressionThreads = params.get(COMPRESSION_THREADS);
     }
 
     @Override
@@ -75,6 +117,7 @@ public abstract class S3DirectTextOutput extends S3DirectOutput {
         }
 
         return new S3DirectTextOutputFunction(sub, path, codec, confXml,
-                columns, delimiter.charAt(0), endpoint, region, accessKey, secretKey, contentType);
+                columns, delimiter.charAt(0), endpoint, region, accessKey, secretKey, throttle, tmpDir, contentType, progressDir, codecLevel, compressionThreads,
+                partitionBy, maxOpenPartitions, spillMemory, order);
     }
 }
@@ -0,0 +1,322 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.services.s3.model.*;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Executor-wide adaptive concurrency control of S3 requests, separate for each bucket and key 'directory'.
+ * Limit of requests in flight grows additively while responses are fast, and is cut in half on a 503
+ * SlowDown (no more than once a second), or by a tenth when latency grows far above its running average. Latency
+ * is averaged for each request class apart, as an UploadPart takes much longer than a GET or HEAD.
+ * A request waits for its turn no longer than {@link #ACQUIRE_TIMEOUT}, and then goes anyway. State of each
+ * controller is exposed as an MXBean under {@link #JMX_DOMAIN}, until it is evicted after being idle for
+ * {@link #IDLE_EVICTION}
+ */
+public class S3DirectThrottle {
+    public static final String JMX_DOMAIN = "io.github.pastorgl.datacooker.s3direct";
+
+    static final double INITIAL_LIMIT = 16.D;
+    static final double MIN_LIMIT = 1.D;
+    static final double MAX_LIMIT = 512.D;
+    static final double LATENCY_FACTOR = 4.D;
+    static final long DECREASE_COOLDOWN = 1_000_000_000L;
+    static final long ACQUIRE_TIMEOUT = 60_000L;
+    static final long IDLE_EVICTION = 600_000_000_000L;
+
+    private static final Map<String, Controller> CONTROLLERS = new ConcurrentHashMap<>();
+
+    private static final HandlerContextKey<Controller> CONTROLLER = new HandlerContextKey<>("S3DirectThrottleController");
+    private static final HandlerContextKey<Long> STARTED = new HandlerContextKey<>("S3DirectThrottleStarted");
+    private static final HandlerContextKey<CompletableFuture<Long>> SENT = new HandlerContextKey<>("S3DirectThrottleSent");
+
+    private static volatile long lastEviction = System.nanoTime();
+
+    public static Controller forPrefix(String bucket, String prefix) {
+        long now = System.nanoTime();
+        if (now - lastEviction > IDLE_EVICTION) {
+            lastEviction = now;
+            evictIdle(now);
+        }
+
+        return CONTROLLERS.computeIfAbsent(bucket + "/" + prefix, Controller::new);
+    }
+
+    private static void evictIdle(long now) {
+        for (String prefix : CONTROLLERS.keySet()) {
+            CONTROLLERS.computeIfPresent(prefix, (p, controller) -> {
+                if (controller.idle(now)) {
+                    controller.unregister();
+                    return null;
+                }
+                return controller;
+            });
+        }
+    }
+
+    /**
+     * @return future completed with {@link System#nanoTime()} when the request is let through to be sent, so its
+     * latency can be measured without the wait for its turn
+     */
+    public static CompletableFuture<Long> sent(AmazonWebServiceRequest request) {
+        CompletableFuture<Long> sent = new CompletableFuture<>();
+        request.addHandlerContext(SENT, sent);
+        return sent;
+    }
+
+    public static RequestHandler2 handler() {
+        return new RequestHandler2() {
+            // permit is taken only once the client is about to send the request, because from this point on
+            // it always calls either afterResponse or afterError, which give the permit back
+            @Override
+            public void beforeRequest(Request<?> request) {
+                AmazonWebServiceRequest original = request.getOriginalRequest();
+                String[] bp = prefix(original);
+                if (bp != null) {
+                    Controller controller = forPrefix(bp[0], bp[1]);
+                    controller.acquire();
+
+                    original.addHandlerContext(CONTROLLER, controller);
+                    original.addHandlerContext(STARTED, System.nanoTime());
+                }
+
+                CompletableFuture<Long> sent = original.getHandlerContext(SENT);
+                if (sent != null) {
+                    sent.complete(System.nanoTime());
+                }
+            }
+
+            // each throttled attempt is counted here, including the last one
+            @Override
+            public void afterAttempt(HandlerAfterAttemptContext context) {
+                Controller controller = context.getRequest().getOriginalRequest().getHandlerContext(CONTROLLER);
+                if ((controller != null) && throttled(context.getException())) {
+                    controller.throttled();
+                }
+            }
+
+            @Override
+            public void afterResponse(Request<?> request, Response<?> response) {
+                release(request, false);
+            }
+
+            @Override
+            public void afterError(Request<?> request, Response<?> response, Exception e) {
+                release(request, true);
+            }
+
+            private void release(Request<?> request, boolean failed) {
+                AmazonWebServiceRequest original = request.getOriginalRequest();
+                Controller controller = original.getHandlerContext(CONTROLLER);
+                if (controller != null) {
+                    original.addHandlerContext(CONTROLLER, null);
+                    controller.release(original.getClass().getSimpleName(), System.nanoTime() - original.getHandlerContext(STARTED), failed);
+                }
+            }
+        };
+    }
+
+    static boolean throttled(Exception e) {
+        if (e instanceof AmazonServiceException) {
+            AmazonServiceException ase = (AmazonServiceException) e;
+            return (ase.getStatusCode() == 503) || "SlowDown".equals(ase.getErrorCode());
+        }
+
+        return false;
+    }
+
+    /**
+     * @return bucket and key up to the last slash, or null if request isn't addressed to a key
+     */
+    static String[] prefix(AmazonWebServiceRequest request) {
+        String bucket;
+        String key;
+        if (request instanceof GetObjectRequest) {
+            bucket = ((GetObjectRequest) request).getBucketName();
+            key = ((GetObjectRequest) request).getKey();
+        } else if (request instanceof GetObjectMetadataRequest) {
+            bucket = ((GetObjectMetadataRequest) request).getBucketName();
+            key = ((GetObjectMetadataRequest) request).getKey();
+        } else if (request instanceof PutObjectRequest) {
+            bucket = ((PutObjectRequest) request).getBucketName();
+            key = ((PutObjectRequest) request).getKey();
+        } else if (request instanceof InitiateMultipartUploadRequest) {
+            bucket = ((InitiateMultipartUploadRequest) request).getBucketName();
+            key = ((InitiateMultipartUploadRequest) request).getKey();
+        } else if (request instanceof UploadPartRequest) {
+            bucket = ((UploadPartRequest) request).getBucketName();
+            key = ((UploadPartRequest) request).getKey();
+        } else if (request instanceof CompleteMultipartUploadRequest) {
+            bucket = ((CompleteMultipartUploadRequest) request).getBucketName();
+            key = ((CompleteMultipartUploadRequest) request).getKey();
+        } else if (request instanceof ListPartsRequest) {
+            bucket = ((ListPartsRequest) request).getBucketName();
+            key = ((ListPartsRequest) request).getKey();
+        } else if (request instanceof CopyObjectRequest) {
+            bucket = ((CopyObjectRequest) request).getDestinationBucketName();
+            key = ((CopyObjectRequest) request).getDestinationKey();
+        } else if (request instanceof CopyPartRequest) {
+            bucket = ((CopyPartRequest) request).getDestinationBucketName();
+            key = ((CopyPartRequest) request).getDestinationKey();
+        } else if (request instanceof ListObjectsRequest) {
+            bucket = ((ListObjectsRequest) request).getBucketName();
+            key = ((ListObjectsRequest) request).getPrefix();
+        } else if (request instanceof ListObjectsV2Request) {
+            bucket = ((ListObjectsV2Request) request).getBucketName();
+            key = ((ListObjectsV2Request) request).getPrefix();
+        } else {
+            return null;
+        }
+
+        if (key == null) {
+            key = "";
+        }
+        int slash = key.lastIndexOf('/');
+        return new String[]{bucket, (slash < 0) ? "" : key.substring(0, slash + 1)};
+    }
+
+    public interface ControllerMXBean {
+        double getLimit();
+
+        int getInFlight();
+
+        long getRequests();
+
+        long getThrottled();
+
+        Map<String, Double> getLatencyMillis();
+    }
+
+    public static class Controller implements ControllerMXBean {
+        private double limit = INITIAL_LIMIT;
+        private int inFlight = 0;
+
+        private long requests = 0L;
+        private long throttled = 0L;
+        private final Map<String, Double> latency = new HashMap<>();
+        private long lastDecrease = 0L;
+        private long lastUsed = System.nanoTime();
+
+        private ObjectName name;
+
+        private Controller(String prefix) {
+            try {
+                name = new ObjectName(JMX_DOMAIN + ":type=S3DirectThrottle,prefix=" + ObjectName.quote(prefix));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            } catch (Exception ignore) {
+                name = null;
+            }
+        }
+
+        public synchronized void acquire() {
+            long deadline = System.currentTimeMillis() + ACQUIRE_TIMEOUT;
+            try {
+                for (long left = ACQUIRE_TIMEOUT; inFlight >= (int) limit; left = deadline - System.currentTimeMillis()) {
+                    if (left <= 0L) {
+                        System.out.println("S3 request waited for its turn more than " + ACQUIRE_TIMEOUT + "ms, going over" +
+                                " the limit of " + (int) limit);
+                        break;
+                    }
+                    wait(left);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight++;
+            lastUsed = System.nanoTime();
+        }
+
+        /**
+         * @param type   request class, which latency is compared only to the running average of the same class
+         * @param failed if the request has failed, its throttled attempts are already counted by {@link #throttled()},
+         *               and its latency isn't sampled
+         */
+        public synchronized void release(String type, long nanos, boolean failed) {
+            inFlight--;
+            requests++;
+            lastUsed = System.nanoTime();
+
+            if (!failed) {
+                double average = latency.getOrDefault(type, (double) nanos);
+
+                if (nanos > LATENCY_FACTOR * average) {
+                    decrease(0.9D);
+                } else {
+                    limit = Math.min(MAX_LIMIT, limit + 1.D / limit);
+                }
+                latency.put(type, 0.95D * average + 0.05D * nanos);
+            }
+
+            notifyAll();
+        }
+
+        public synchronized void throttled() {
+            throttled++;
+            decrease(0.5D);
+        }
+
+        synchronized boolean idle(long now) {
+            return (inFlight <= 0) && (now - lastUsed > IDLE_EVICTION);
+        }
+
+        void unregister() {
+            if (name != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+                } catch (Exception ignore) {
+                }
+            }
+        }
+
+        private void decrease(double factor) {
+            long now = System.nanoTime();
+            if (now - lastDecrease > DECREASE_COOLDOWN) {
+                limit = Math.max(MIN_LIMIT, limit * factor);
+                lastDecrease = now;
+            }
+        }
+
+        @Override
+        public synchronized double getLimit() {
+            return limit;
+        }
+
+        @Override
+        public synchronized int getInFlight() {
+            return inFlight;
+        }
+
+        @Override
+        public synchronized long getRequests() {
+            return requests;
+        }
+
+        @Override
+        public synchronized long getThrottled() {
+            return throttled;
+        }
+
+        @Override
+        public synchronized Map<String, Double> getLatencyMillis() {
+            Map<String, Double> millis = new HashMap<>();
+            latency.forEach((type, nanos) -> millis.put(type, nanos / 1_000_000.D));
+            return millis;
+        }
+    }
+}
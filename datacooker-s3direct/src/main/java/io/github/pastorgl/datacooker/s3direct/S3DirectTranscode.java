@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct;
+
+import io.github.pastorgl.datacooker.s3direct.functions.S3DirectColumnarInputFunction;
+import io.github.pastorgl.datacooker.s3direct.functions.S3DirectTranscodeFunction;
+import io.github.pastorgl.datacooker.storage.InputAdapter;
+import io.github.pastorgl.datacooker.storage.OutputAdapter;
+import io.github.pastorgl.datacooker.storage.hadoop.HadoopStorage;
+import org.apache.spark.api.java.JavaSparkContext;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Transcode delimited text objects of s3directColumnar to s3directParquet with the same columns. Each group of
+ * source objects is parsed and written as one output part by the same task, with parsed fields passed straight to
+ * Parquet column writers, so there are neither records, nor Arrow batches, nor a shuffle
+ */
+public class S3DirectTranscode {
+    private final S3DirectColumnarInput source;
+    private final S3DirectColumnarInputFunction sourceFunction;
+    private final S3DirectParquetOutput dest;
+
+    private S3DirectTranscode(S3DirectColumnarInput source, S3DirectColumnarInputFunction sourceFunction, S3DirectParquetOutput dest) {
+        this.source = source;
+        this.sourceFunction = sourceFunction;
+        this.dest = dest;
+    }
+
+    public static S3DirectTranscode of(InputAdapter ia, OutputAdapter oa) {
+        if (!(ia instanceof S3DirectColumnarInput) || !(oa instanceof S3DirectParquetOutput)) {
+            return null;
+        }
+
+        S3DirectColumnarInput source = (S3DirectColumnarInput) ia;
+        S3DirectParquetOutput dest = (S3DirectParquetOutput) oa;
+        if (!dest.transcode || (dest.partitionBy != null) || (dest.order != null)) {
+            return null;
+        }
+
+        // output must have the same projection as input, so fields are written as they're parsed
+        if ((dest.columns() != null) && !Arrays.equals(dest.columns(), source.dsColumns)) {
+            return null;
+        }
+
+        S3DirectColumnarInputFunction sourceFunction = source.batchFunction();
+        if (sourceFunction == null) {
+            return null;
+        }
+
+        return new S3DirectTranscode(source, sourceFunction, dest);
+    }
+
+    /**
+     * @return false if source objects are split into subs or some of them are Parquet, so they have to be copied
+     * by records
+     */
+    public boolean copy(JavaSparkContext context, String sub, int partCount) throws Exception {
+        if (partCount <= 0) {
+            partCount = context.defaultParallelism();
+        }
+
+        List<List<String>> groups = source.fileGroups(partCount);
+        if (groups == null) {
+            return false;
+        }
+        for (List<String> group : groups) {
+            for (String file : group) {
+                if ("parquet".equalsIgnoreCase(HadoopStorage.suffix(file))) {
+                    return false;
+                }
+            }
+        }
+
+        System.out.println("Transcoding " + groups.size() + " group(s) of delimited text objects to Parquet");
+
+        StringWriter confXml = new StringWriter();
+        context.hadoopConfiguration().writeXml(confXml);
+
+        context.parallelize(groups, Math.max(groups.size(), 1))
+                .mapPartitionsWithIndex(new S3DirectTranscodeFunction(sourceFunction,
+                        dest.parquetWriter((sub != null) ? sub : ""), confXml.toString()), false)
+                .count();
+        return true;
+    }
+}
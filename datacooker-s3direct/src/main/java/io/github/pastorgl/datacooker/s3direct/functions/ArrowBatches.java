@@ -0,0 +1,259 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.*;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.apache.parquet.schema.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Arrow {@link VectorSchemaRoot} batches of columns, which are passed between {@link BatchReader}s and batch writers
+ * instead of one record at a time. Delimited text columns are UTF-8 strings, Parquet columns keep their primitive
+ * types, and their original Parquet type in field metadata, so logical types like DATE, DECIMAL or TIMESTAMP, and
+ * INT96 or FIXED_LEN_BYTE_ARRAY values are written back as they were. Vectors of a batch are reused for the next
+ * one, so a batch is valid only until the next is read
+ */
+public class ArrowBatches {
+    public static final int BATCH_ROWS = 4096;
+
+    // field metadata key
+    static final String PARQUET_TYPE = "parquet.type";
+    private static final Map<String, PrimitiveType> PARQUET_TYPES = new ConcurrentHashMap<>();
+
+    private static final long JULIAN_EPOCH_DAY = 2_440_588L;
+
+    private static final BufferAllocator ROOT = new RootAllocator(Long.MAX_VALUE);
+
+    public static BufferAllocator allocator(String name) {
+        return ROOT.newChildAllocator(name, 0L, Long.MAX_VALUE);
+    }
+
+    public static Schema textSchema(List<String> columns) {
+        List<Field> fields = new ArrayList<>();
+        for (String column : columns) {
+            fields.add(Field.nullable(column, ArrowType.Utf8.INSTANCE));
+        }
+        return new Schema(fields);
+    }
+
+    public static Schema arrowSchema(MessageType parquet) {
+        List<Field> fields = new ArrayList<>();
+        for (Type field : parquet.getFields()) {
+            fields.add(new Field(field.getName(), new FieldType(true, arrowType(field.asPrimitiveType()), null,
+                    Collections.singletonMap(PARQUET_TYPE, field.toString())), null));
+        }
+        return new Schema(fields);
+    }
+
+    private static ArrowType arrowType(PrimitiveType type) {
+        switch (type.getPrimitiveTypeName()) {
+            case INT32:
+                return new ArrowType.Int(32, true);
+            case INT64:
+                return new ArrowType.Int(64, true);
+            case FLOAT:
+                return new ArrowType.FloatingPoint(FloatingPointPrecision.SINGLE);
+            case DOUBLE:
+                return new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE);
+            case BOOLEAN:
+                return ArrowType.Bool.INSTANCE;
+            default:
+                return (type.getLogicalTypeAnnotation() instanceof LogicalTypeAnnotation.StringLogicalTypeAnnotation)
+                        ? ArrowType.Utf8.INSTANCE : ArrowType.Binary.INSTANCE;
+        }
+    }
+
+    /**
+     * @return Parquet schema of a batch, with all columns optional, and strings as annotated binaries
+     */
+    public static MessageType parquetSchema(Schema schema) {
+        Types.MessageTypeBuilder builder = Types.buildMessage();
+        for (Field field : schema.getFields()) {
+            ArrowType type = field.getType();
+            PrimitiveType parquet = parquetType(field);
+            if (parquet != null) {
+                Types.PrimitiveBuilder<PrimitiveType> primitive = Types.optional(parquet.getPrimitiveTypeName());
+                if (parquet.getPrimitiveTypeName() == PrimitiveType.PrimitiveTypeName.FIXED_LEN_BYTE_ARRAY) {
+                    primitive = primitive.length(parquet.getTypeLength());
+                }
+                builder.addField(primitive.as(parquet.getLogicalTypeAnnotation()).named(field.getName()));
+            } else if (type instanceof ArrowType.Int) {
+                builder.optional((((ArrowType.Int) type).getBitWidth() == 64) ? PrimitiveType.PrimitiveTypeName.INT64
+                        : PrimitiveType.PrimitiveTypeName.INT32).named(field.getName());
+            } else if (type instanceof ArrowType.FloatingPoint) {
+                builder.optional((((ArrowType.FloatingPoint) type).getPrecision() == FloatingPointPrecision.SINGLE)
+                        ? PrimitiveType.PrimitiveTypeName.FLOAT : PrimitiveType.PrimitiveTypeName.DOUBLE).named(field.getName());
+            } else if (type instanceof ArrowType.Bool) {
+                builder.optional(PrimitiveType.PrimitiveTypeName.BOOLEAN).named(field.getName());
+            } else if (type instanceof ArrowType.Binary) {
+                builder.optional(PrimitiveType.PrimitiveTypeName.BINARY).named(field.getName());
+            } else {
+                builder.optional(PrimitiveType.PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named(field.getName());
+            }
+        }
+        return builder.named("schema");
+    }
+
+    /**
+     * @return original Parquet type of a batch field, or null if it's not read from Parquet
+     */
+    static PrimitiveType parquetType(Field field) {
+        Map<String, String> metadata = field.getMetadata();
+        String type = (metadata == null) ? null : metadata.get(PARQUET_TYPE);
+        if (type == null) {
+            return null;
+        }
+
+        return PARQUET_TYPES.computeIfAbsent(type,
+                t -> MessageTypeParser.parseMessageType("message m { " + t + "; }").getType(0).asPrimitiveType());
+    }
+
+    /**
+     * @return true if values of both fields are written into Parquet the same way
+     */
+    static boolean sameType(Field a, Field b) {
+        if (!a.getType().equals(b.getType())) {
+            return false;
+        }
+
+        PrimitiveType pa = parquetType(a);
+        PrimitiveType pb = parquetType(b);
+        if ((pa == null) || (pb == null)) {
+            return pa == pb;
+        }
+        return (pa.getPrimitiveTypeName() == pb.getPrimitiveTypeName()) && (pa.getTypeLength() == pb.getTypeLength())
+                && Objects.equals(pa.getLogicalTypeAnnotation(), pb.getLogicalTypeAnnotation());
+    }
+
+    /**
+     * @return i-th value of a DATE, TIMESTAMP, DECIMAL or INT96 column as java.sql.Date, Timestamp or BigDecimal,
+     * or null if the column isn't one of them
+     */
+    static Object logical(FieldVector vector, int i, PrimitiveType type) {
+        LogicalTypeAnnotation logical = type.getLogicalTypeAnnotation();
+        switch (type.getPrimitiveTypeName()) {
+            case INT32: {
+                int value = ((IntVector) vector).get(i);
+                if (logical instanceof LogicalTypeAnnotation.DateLogicalTypeAnnotation) {
+                    return java.sql.Date.valueOf(LocalDate.ofEpochDay(value));
+                }
+                if (logical instanceof LogicalTypeAnnotation.DecimalLogicalTypeAnnotation) {
+                    return BigDecimal.valueOf(value, ((LogicalTypeAnnotation.DecimalLogicalTypeAnnotation) logical).getScale());
+                }
+                return null;
+            }
+            case INT64: {
+                long value = ((BigIntVector) vector).get(i);
+                if (logical instanceof LogicalTypeAnnotation.TimestampLogicalTypeAnnotation) {
+                    long perSecond;
+                    switch (((LogicalTypeAnnotation.TimestampLogicalTypeAnnotation) logical).getUnit()) {
+                        case MILLIS: {
+                            perSecond = 1_000L;
+                            break;
+                        }
+                        case MICROS: {
+                            perSecond = 1_000_000L;
+                            break;
+                        }
+                        default: {
+                            perSecond = 1_000_000_000L;
+                        }
+                    }
+                    return Timestamp.from(Instant.ofEpochSecond(Math.floorDiv(value, perSecond),
+                            Math.floorMod(value, perSecond) * (1_000_000_000L / perSecond)));
+                }
+                if (logical instanceof LogicalTypeAnnotation.DecimalLogicalTypeAnnotation) {
+                    return BigDecimal.valueOf(value, ((LogicalTypeAnnotation.DecimalLogicalTypeAnnotation) logical).getScale());
+                }
+                return null;
+            }
+            case INT96: {
+                // nanoseconds of the day and Julian day, little-endian
+                ByteBuffer bb = ByteBuffer.wrap(((VarBinaryVector) vector).get(i)).order(ByteOrder.LITTLE_ENDIAN);
+                long nanos = bb.getLong();
+                long day = bb.getInt() - JULIAN_EPOCH_DAY;
+                return Timestamp.from(Instant.ofEpochSecond(day * 86_400L, nanos));
+            }
+            case BINARY:
+            case FIXED_LEN_BYTE_ARRAY: {
+                if (logical instanceof LogicalTypeAnnotation.DecimalLogicalTypeAnnotation) {
+                    return new BigDecimal(new BigInteger(((VarBinaryVector) vector).get(i)),
+                            ((LogicalTypeAnnotation.DecimalLogicalTypeAnnotation) logical).getScale());
+                }
+                return null;
+            }
+            default: {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return text of i-th value of the vector, or null
+     */
+    public static String text(FieldVector vector, int i) {
+        if ((vector == null) || vector.isNull(i)) {
+            return null;
+        }
+        if (vector instanceof VarCharVector) {
+            return new String(((VarCharVector) vector).get(i), StandardCharsets.UTF_8);
+        }
+
+        PrimitiveType parquet = parquetType(vector.getField());
+        if (parquet != null) {
+            Object value = logical(vector, i, parquet);
+            if (value instanceof BigDecimal) {
+                return ((BigDecimal) value).toPlainString();
+            }
+            if (value != null) {
+                return value.toString();
+            }
+        }
+        if (vector instanceof VarBinaryVector) {
+            return new String(((VarBinaryVector) vector).get(i), StandardCharsets.UTF_8);
+        }
+        return String.valueOf(vector.getObject(i));
+    }
+
+    static VectorSchemaRoot create(Schema schema, BufferAllocator allocator) {
+        VectorSchemaRoot root = VectorSchemaRoot.create(schema, allocator);
+        for (FieldVector vector : root.getFieldVectors()) {
+            vector.setInitialCapacity(BATCH_ROWS);
+        }
+        root.allocateNew();
+        return root;
+    }
+
+    static void setNull(FieldVector vector, int i) {
+        if (vector instanceof BaseVariableWidthVector) {
+            ((BaseVariableWidthVector) vector).setNull(i);
+        } else {
+            ((BaseFixedWidthVector) vector).setNull(i);
+        }
+    }
+
+    static void reset(VectorSchemaRoot root) {
+        for (FieldVector vector : root.getFieldVectors()) {
+            vector.reset();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.Serializable;
+
+/**
+ * Output function which also writes its part from {@link ArrowBatches}
+ */
+public interface BatchPartWriter extends Serializable {
+    void writeBatches(Configuration conf, int idx, BatchReader batches) throws Exception;
+}
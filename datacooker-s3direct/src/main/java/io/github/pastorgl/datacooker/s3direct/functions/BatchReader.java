@@ -0,0 +1,20 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import org.apache.arrow.vector.VectorSchemaRoot;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Source of {@link ArrowBatches}, read directly into column vectors, without a record object per row
+ */
+public interface BatchReader extends Closeable {
+    /**
+     * @return next batch of up to {@link ArrowBatches#BATCH_ROWS} rows, or null if there are no more
+     */
+    VectorSchemaRoot next() throws IOException;
+}
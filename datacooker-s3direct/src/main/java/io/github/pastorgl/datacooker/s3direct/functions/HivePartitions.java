@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import io.github.pastorgl.datacooker.data.Columnar;
+import io.github.pastorgl.datacooker.data.DataRecord;
+import io.github.pastorgl.datacooker.storage.hadoop.input.functions.RecordInputStream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hive-style partition path segments, col=value, with values escaped the same way as Hive and Spark do
+ */
+public class HivePartitions {
+    public static final String DEFAULT_PARTITION = "__HIVE_DEFAULT_PARTITION__";
+
+    private static final String ESCAPED = "\"#%'*/:=?\\\u007F{[]^";
+
+    /**
+     * @return path of record's partition, like col1=value1/col2=value2
+     */
+    public static String path(DataRecord<?> rec, String[] partitionBy) {
+        StringBuilder sb = new StringBuilder();
+        for (String column : partitionBy) {
+            if (sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(escape(column)).append('=').append(escape(rec.asString(column)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return partition columns and values of col=value segments of the key under the root prefix, in their order
+     */
+    public static Map<String, String> parse(String root, String key) {
+        Map<String, String> partitions = new LinkedHashMap<>();
+
+        String[] segments = key.substring(Math.min(root.length(), key.length())).split("/");
+        // last segment is object name
+        for (int i = 0; i < segments.length - 1; i++) {
+            int eq = segments[i].indexOf('=');
+            if (eq > 0) {
+                partitions.put(unescape(segments[i].substring(0, eq)), unescape(segments[i].substring(eq + 1)));
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Attach partition values to each record of the stream as columns. If columns are set, records have exactly
+     * them, else partition columns follow record's own
+     */
+    public static RecordInputStream withPartitions(RecordInputStream stream, Map<String, String> partitions, String[] columns) {
+        return new RecordInputStream() {
+            private List<String> own;
+            private List<String> all;
+
+            @Override
+            public DataRecord<?> ensureRecord() throws IOException {
+                DataRecord<?> rec = stream.ensureRecord();
+                if (rec == null) {
+                    return null;
+                }
+
+                if (!rec.attrs().equals(own)) {
+                    own = new ArrayList<>(rec.attrs());
+                    if (columns != null) {
+                        all = List.of(columns);
+                    } else {
+                        all = new ArrayList<>(own);
+                        partitions.keySet().stream().filter(c -> !own.contains(c)).forEach(all::add);
+                    }
+                }
+
+                Object[] values = new Object[all.size()];
+                for (int i = 0; i < values.length; i++) {
+                    String column = all.get(i);
+                    values[i] = partitions.containsKey(column) ? partitions.get(column) : rec.asIs(column);
+                }
+                return new Columnar(all, values);
+            }
+
+            @Override
+            public void close() throws IOException {
+                stream.close();
+            }
+        };
+    }
+
+    /**
+     * @return unescaped value, or null for default partition
+     */
+    public static String unescape(String value) {
+        if (DEFAULT_PARTITION.equals(value)) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c == '%') && (i + 2 < value.length())) {
+                try {
+                    sb.append((char) Integer.parseInt(value.substring(i + 1, i + 3), 16));
+                    i += 2;
+                    continue;
+                } catch (NumberFormatException ignore) {
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    public static String escape(String value) {
+        if ((value == null) || value.isEmpty()) {
+            return DEFAULT_PARTITION;
+        }
+
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c < ' ') || (ESCAPED.indexOf(c) >= 0)) {
+                sb.append('%').append(String.format("%02X", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
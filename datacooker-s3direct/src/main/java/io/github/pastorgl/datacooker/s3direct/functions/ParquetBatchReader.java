@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.*;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.ColumnReader;
+import org.apache.parquet.column.impl.ColumnReadStoreImpl;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.example.data.simple.convert.GroupRecordConverter;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.Type;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parquet file into batches, column by column, straight from its pages with Parquet's {@link ColumnReader}s, so
+ * no record is assembled. Only flat schemas of primitive non-repeated columns are supported
+ */
+public class ParquetBatchReader implements BatchReader {
+    private final ParquetFileReader reader;
+    private final MessageType schema;
+    private final String createdBy;
+    private final ColumnDescriptor[] descriptors;
+
+    private final BufferAllocator allocator;
+    private final VectorSchemaRoot root;
+    private final FieldVector[] vectors;
+
+    private ColumnReader[] columnReaders;
+    private long rowsLeft = 0L;
+
+    private ParquetBatchReader(ParquetFileReader reader, MessageType schema) {
+        this.reader = reader;
+        this.schema = schema;
+        createdBy = reader.getFooter().getFileMetaData().getCreatedBy();
+
+        reader.setRequestedSchema(schema);
+        descriptors = schema.getColumns().toArray(new ColumnDescriptor[0]);
+
+        allocator = ArrowBatches.allocator("parquet");
+        root = ArrowBatches.create(ArrowBatches.arrowSchema(schema), allocator);
+        vectors = root.getFieldVectors().toArray(new FieldVector[0]);
+    }
+
+    /**
+     * @return reader of selected columns, or null if some of them are nested or repeated
+     */
+    public static ParquetBatchReader open(Configuration conf, String path, String[] columns) throws IOException {
+        ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(new Path(path), conf));
+        MessageType fileSchema = reader.getFooter().getFileMetaData().getSchema();
+
+        List<Type> fields = new ArrayList<>();
+        try {
+            if (columns == null) {
+                fields.addAll(fileSchema.getFields());
+            } else {
+                for (String column : columns) {
+                    if (!fileSchema.containsField(column)) {
+                        throw new IOException("Column '" + column + "' isn't found in Parquet file " + path);
+                    }
+                    fields.add(fileSchema.getType(column));
+                }
+            }
+        } catch (IOException e) {
+            reader.close();
+            throw e;
+        }
+
+        for (Type field : fields) {
+            if (!field.isPrimitive() || field.isRepetition(Type.Repetition.REPEATED)) {
+                reader.close();
+                return null;
+            }
+        }
+
+        return new ParquetBatchReader(reader, new MessageType(fileSchema.getName(), fields));
+    }
+
+    @Override
+    public VectorSchemaRoot next() throws IOException {
+        ArrowBatches.reset(root);
+
+        int row = 0;
+        while (row < ArrowBatches.BATCH_ROWS) {
+            if (rowsLeft == 0L) {
+                PageReadStore pages = reader.readNextRowGroup();
+                if (pages == null) {
+                    break;
+                }
+
+                ColumnReadStoreImpl store = new ColumnReadStoreImpl(pages, new GroupRecordConverter(schema).getRootConverter(), schema, createdBy);
+                columnReaders = new ColumnReader[descriptors.length];
+                for (int i = 0; i < descriptors.length; i++) {
+                    columnReaders[i] = store.getColumnReader(descriptors[i]);
+                }
+                rowsLeft = pages.getRowCount();
+                continue;
+            }
+
+            int count = (int) Math.min(ArrowBatches.BATCH_ROWS - row, rowsLeft);
+            for (int i = 0; i < descriptors.length; i++) {
+                read(columnReaders[i], descriptors[i], vectors[i], row, count);
+            }
+            row += count;
+            rowsLeft -= count;
+        }
+
+        if (row == 0) {
+            return null;
+        }
+        root.setRowCount(row);
+        return root;
+    }
+
+    private static void read(ColumnReader cr, ColumnDescriptor descriptor, FieldVector vector, int from, int count) {
+        int maxDefinition = descriptor.getMaxDefinitionLevel();
+        for (int row = from; row < from + count; row++) {
+            if (cr.getCurrentDefinitionLevel() < maxDefinition) {
+                ArrowBatches.setNull(vector, row);
+            } else {
+                switch (descriptor.getPrimitiveType().getPrimitiveTypeName()) {
+                    case INT32: {
+                        ((IntVector) vector).setSafe(row, cr.getInteger());
+                        break;
+                    }
+                    case INT64: {
+                        ((BigIntVector) vector).setSafe(row, cr.getLong());
+                        break;
+                    }
+                    case FLOAT: {
+                        ((Float4Vector) vector).setSafe(row, cr.getFloat());
+                        break;
+                    }
+                    case DOUBLE: {
+                        ((Float8Vector) vector).setSafe(row, cr.getDouble());
+                        break;
+                    }
+                    case BOOLEAN: {
+                        ((BitVector) vector).setSafe(row, cr.getBoolean() ? 1 : 0);
+                        break;
+                    }
+                    default: {
+                        ((BaseVariableWidthVector) vector).setSafe(row, cr.getBinary().getBytes());
+                    }
+                }
+            }
+            cr.consume();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } finally {
+            root.close();
+            allocator.close();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import io.github.pastorgl.datacooker.storage.hadoop.HadoopStorage;
+import org.apache.arrow.vector.*;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.hadoop.util.HadoopOutputFile;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.Type;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes {@link ArrowBatches} into a Parquet file, passing vector values straight to Parquet's record consumer. File
+ * schema is set by the first batch. A column missing from any later batch is written as nulls, and a column of
+ * another type fails the write
+ */
+public class ParquetBatchWriter implements Closeable {
+    private final ParquetWriter<Integer> writer;
+    private final BatchWriteSupport support;
+    private final Path path;
+
+    /**
+     * @param columns columns of batches to write, or null for all. Those missing from the first batch are strings
+     */
+    public ParquetBatchWriter(Configuration conf, Path path, Schema batchSchema, String[] columns, HadoopStorage.Codec codec) throws IOException {
+        List<Field> fields = new ArrayList<>();
+        if (columns == null) {
+            fields.addAll(batchSchema.getFields());
+        } else {
+            Map<String, Field> byName = new HashMap<>();
+            batchSchema.getFields().forEach(f -> byName.put(f.getName(), f));
+            for (String column : columns) {
+                Field field = byName.get(column);
+                fields.add((field != null) ? field : Field.nullable(column, ArrowType.Utf8.INSTANCE));
+            }
+        }
+
+        support = new BatchWriteSupport(fields);
+        this.path = path;
+        writer = new Builder(HadoopOutputFile.fromPath(path, conf), support)
+                .withConf(conf)
+                .withCompressionCodec(codecName(codec))
+                .build();
+    }
+
+    public void write(VectorSchemaRoot root) throws IOException {
+        support.batch(root, path);
+        for (int row = 0; row < root.getRowCount(); row++) {
+            writer.write(row);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    static CompressionCodecName codecName(HadoopStorage.Codec codec) {
+        if (codec == HadoopStorage.Codec.NONE) {
+            return CompressionCodecName.UNCOMPRESSED;
+        }
+        try {
+            return CompressionCodecName.valueOf(codec.name());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Codec " + codec.name() + " isn't supported by Parquet, writing uncompressed");
+            return CompressionCodecName.UNCOMPRESSED;
+        }
+    }
+
+    private static class Builder extends ParquetWriter.Builder<Integer, Builder> {
+        private final BatchWriteSupport support;
+
+        Builder(OutputFile file, BatchWriteSupport support) {
+            super(file);
+            this.support = support;
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        @Override
+        protected WriteSupport<Integer> getWriteSupport(Configuration conf) {
+            return support;
+        }
+    }
+
+    // row index of the current batch is the record
+    private static class BatchWriteSupport extends WriteSupport<Integer> {
+        private final List<Field> fields;
+        private final MessageType schema;
+        private final String[] names;
+        private final FieldVector[] vectors;
+        private RecordConsumer consumer;
+
+        BatchWriteSupport(List<Field> fields) {
+            this.fields = fields;
+            this.schema = ArrowBatches.parquetSchema(new Schema(fields));
+            this.names = schema.getFields().stream().map(Type::getName).toArray(String[]::new);
+            this.vectors = new FieldVector[names.length];
+        }
+
+        void batch(VectorSchemaRoot root, Path path) throws IOException {
+            for (int i = 0; i < names.length; i++) {
+                FieldVector vector = root.getVector(names[i]);
+                if ((vector != null) && !ArrowBatches.sameType(vector.getField(), fields.get(i))) {
+                    throw new IOException("Column '" + names[i] + "' of a batch is " + vector.getField().getType()
+                            + ", but it's written into Parquet file " + path + " as " + schema.getType(i));
+                }
+                vectors[i] = vector;
+            }
+        }
+
+        @Override
+        public WriteContext init(Configuration configuration) {
+            return new WriteContext(schema, new HashMap<>());
+        }
+
+        @Override
+        public void prepareForWrite(RecordConsumer recordConsumer) {
+            consumer = recordConsumer;
+        }
+
+        @Override
+        public void write(Integer row) {
+            consumer.startMessage();
+            for (int i = 0; i < vectors.length; i++) {
+                FieldVector vector = vectors[i];
+                if ((vector == null) || vector.isNull(row)) {
+                    continue;
+                }
+
+                consumer.startField(names[i], i);
+                if (vector instanceof IntVector) {
+                    consumer.addInteger(((IntVector) vector).get(row));
+                } else if (vector instanceof BigIntVector) {
+                    consumer.addLong(((BigIntVector) vector).get(row));
+                } else if (vector instanceof Float4Vector) {
+                    consumer.addFloat(((Float4Vector) vector).get(row));
+                } else if (vector instanceof Float8Vector) {
+                    consumer.addDouble(((Float8Vector) vector).get(row));
+                } else if (vector instanceof BitVector) {
+                    consumer.addBoolean(((BitVector) vector).get(row) != 0);
+                } else if (vector instanceof VarCharVector) {
+                    consumer.addBinary(Binary.fromConstantByteArray(((VarCharVector) vector).get(row)));
+                } else {
+                    consumer.addBinary(Binary.fromConstantByteArray(((VarBinaryVector) vector).get(row)));
+                }
+                consumer.endField(names[i], i);
+            }
+            consumer.endMessage();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import io.github.pastorgl.datacooker.storage.hadoop.HadoopStorage;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.hadoop.util.HadoopOutputFile;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+import org.apache.parquet.schema.Types;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Writes parsed fields of delimited text lines into a Parquet file of optional UTF-8 string columns, passing each
+ * field straight to Parquet's record consumer
+ */
+public class ParquetTextWriter implements Closeable {
+    private final ParquetWriter<String[]> writer;
+
+    public ParquetTextWriter(Configuration conf, Path path, List<String> columns, HadoopStorage.Codec codec) throws IOException {
+        Types.MessageTypeBuilder builder = Types.buildMessage();
+        for (String column : columns) {
+            builder.optional(PrimitiveType.PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named(column);
+        }
+
+        writer = new Builder(HadoopOutputFile.fromPath(path, conf), new FieldsWriteSupport(builder.named("schema")))
+                .withConf(conf)
+                .withCompressionCodec(ParquetBatchWriter.codecName(codec))
+                .build();
+    }
+
+    public void write(String[] fields) throws IOException {
+        writer.write(fields);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private static class Builder extends ParquetWriter.Builder<String[], Builder> {
+        private final FieldsWriteSupport support;
+
+        Builder(OutputFile file, FieldsWriteSupport support) {
+            super(file);
+            this.support = support;
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        @Override
+        protected WriteSupport<String[]> getWriteSupport(Configuration conf) {
+            return support;
+        }
+    }
+
+    private static class FieldsWriteSupport extends WriteSupport<String[]> {
+        private final MessageType schema;
+        private final String[] names;
+        private RecordConsumer consumer;
+
+        FieldsWriteSupport(MessageType schema) {
+            this.schema = schema;
+            this.names = schema.getFields().stream().map(Type::getName).toArray(String[]::new);
+        }
+
+        @Override
+        public WriteContext init(Configuration configuration) {
+            return new WriteContext(schema, new HashMap<>());
+        }
+
+        @Override
+        public void prepareForWrite(RecordConsumer recordConsumer) {
+            consumer = recordConsumer;
+        }
+
+        @Override
+        public void write(String[] fields) {
+            consumer.startMessage();
+            for (int i = 0; i < names.length; i++) {
+                if (fields[i] != null) {
+                    consumer.startField(names[i], i);
+                    consumer.addBinary(Binary.fromString(fields[i]));
+                    consumer.endField(names[i], i);
+                }
+            }
+            consumer.endMessage();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import io.github.pastorgl.datacooker.data.Columnar;
+import io.github.pastorgl.datacooker.storage.hadoop.input.functions.RecordInputStream;
+import org.apache.arrow.vector.*;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.parquet.schema.PrimitiveType;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Parquet file records, decoded by {@link ParquetBatchReader} a batch of column chunks at a time. A row of the
+ * batch is made into a record only when it is read. Primitive values are boxed, binaries are Strings, and columns
+ * of logical types DATE, TIMESTAMP, DECIMAL, and INT96 are converted as in {@link ArrowBatches#logical}
+ */
+public class ParquetVectorizedInputStream implements RecordInputStream {
+    private final ParquetBatchReader reader;
+
+    private VectorSchemaRoot root;
+    private FieldVector[] vectors;
+    // original type of each column, if it has to be converted
+    private PrimitiveType[] logical;
+    private List<String> columns;
+    private int row = 0;
+
+    public ParquetVectorizedInputStream(ParquetBatchReader reader) {
+        this.reader = reader;
+    }
+
+    public Columnar ensureRecord() throws IOException {
+        if ((root == null) || (row >= root.getRowCount())) {
+            root = reader.next();
+            if (root == null) {
+                return null;
+            }
+            if (vectors == null) {
+                vectors = root.getFieldVectors().toArray(new FieldVector[0]);
+                columns = root.getSchema().getFields().stream().map(Field::getName).collect(Collectors.toList());
+
+                logical = new PrimitiveType[vectors.length];
+                for (int i = 0; i < vectors.length; i++) {
+                    PrimitiveType type = ArrowBatches.parquetType(vectors[i].getField());
+                    if ((type != null) && ((type.getLogicalTypeAnnotation() != null)
+                            || (type.getPrimitiveTypeName() == PrimitiveType.PrimitiveTypeName.INT96))) {
+                        logical[i] = type;
+                    }
+                }
+            }
+            row = 0;
+        }
+
+        Object[] values = new Object[vectors.length];
+        for (int i = 0; i < vectors.length; i++) {
+            FieldVector vector = vectors[i];
+            if (vector.isNull(row)) {
+                continue;
+            }
+
+            Object value = (logical[i] != null) ? ArrowBatches.logical(vector, row, logical[i]) : null;
+            if (value != null) {
+                values[i] = value;
+            } else if (vector instanceof IntVector) {
+                values[i] = ((IntVector) vector).get(row);
+            } else if (vector instanceof BigIntVector) {
+                values[i] = ((BigIntVector) vector).get(row);
+            } else if (vector instanceof Float8Vector) {
+                values[i] = ((Float8Vector) vector).get(row);
+            } else if (vector instanceof BaseVariableWidthVector) {
+                values[i] = ArrowBatches.text(vector, row);
+            } else {
+                values[i] = vector.getObject(row);
+            }
+        }
+        row++;
+
+        return new Columnar(columns, values);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Records of output parts completely written to S3, kept in the direction's progress manifest directory.
+ * Each record is a single line of key, size and ETag separated by tabs. For partitioned output, a task also
+ * records keys of all partition parts it has written, one per line
+ */
+public class PartProgress {
+    public static boolean completed(Configuration conf, String progressDir, AmazonS3 s3, String bucket, String key) throws IOException {
+        if (progressDir == null) {
+            return false;
+        }
+
+        Path marker = marker(progressDir, key);
+        FileSystem fs = marker.getFileSystem(conf);
+        if (!fs.exists(marker)) {
+            return false;
+        }
+
+        String[] recorded;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(marker), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            if (line == null) {
+                return false;
+            }
+            recorded = line.split("\t");
+        }
+
+        try {
+            ObjectMetadata om = s3.getObjectMetadata(bucket, key);
+            return (recorded.length == 3) && key.equals(recorded[0])
+                    && (om.getContentLength() == Long.parseLong(recorded[1])) && om.getETag().equals(recorded[2]);
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    public static void record(Configuration conf, String progressDir, String key, ObjectMetadata om) throws IOException {
+        if (progressDir == null) {
+            return;
+        }
+
+        Path marker = marker(progressDir, key);
+        FileSystem fs = marker.getFileSystem(conf);
+        try (FSDataOutputStream out = fs.create(marker, true)) {
+            out.write((key + "\t" + om.getContentLength() + "\t" + om.getETag() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Record partition parts written by a task, and delete the ones recorded by its previous run which aren't
+     * written again, as their records went to other tasks or partitions this time
+     *
+     * @param task output location and task index
+     */
+    public static void replaceTaskParts(Configuration conf, String progressDir, AmazonS3 s3, String bucket, String task, Collection<String> keys) throws IOException {
+        if (progressDir == null) {
+            return;
+        }
+
+        Path manifest = new Path(progressDir, DigestUtils.md5Hex(task) + ".task");
+        FileSystem fs = manifest.getFileSystem(conf);
+
+        List<String> stale = new ArrayList<>();
+        if (fs.exists(manifest)) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(manifest), StandardCharsets.UTF_8))) {
+                for (String line; (line = reader.readLine()) != null; ) {
+                    if (!line.isEmpty() && !keys.contains(line)) {
+                        stale.add(line);
+                    }
+                }
+            }
+        }
+
+        try (FSDataOutputStream out = fs.create(manifest, true)) {
+            for (String key : keys) {
+                out.write((key + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        for (String key : stale) {
+            System.out.println("Deleting S3 object " + key + " written by previous run");
+            s3.deleteObject(bucket, key);
+            fs.delete(marker(progressDir, key), false);
+        }
+    }
+
+    private static Path marker(String progressDir, String key) {
+        return new Path(progressDir, DigestUtils.md5Hex(key) + ".part");
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import io.github.pastorgl.datacooker.data.DataRecord;
+import scala.Tuple2;
+
+import java.util.*;
+
+/**
+ * Routes records of a task to per-partition sinks under Hive-style col=value/ sub-prefixes. No more than max open
+ * sinks are kept at once, and if each sink holds a buffer, no more than fit into the memory budget. Records of any
+ * other partition are set aside into a {@link RecordSorter}, and after the input is exhausted, they are written
+ * sorted by partition, one run at a time. Either way, each partition gets exactly one sink per task, with all of
+ * its records of the task, so which part a record gets into doesn't depend on the order of the task's records.
+ * Input already sorted by partition goes straight to runs, so only one partition is written at a time
+ */
+public class PartitionedWriter {
+    private final String[] partitionBy;
+    private final int maxOpen;
+    private final long memoryBudget;
+    private final Sinks sinks;
+
+    private final Map<String, Sink> open = new HashMap<>();
+
+    /**
+     * @param sinkMemory memory each open sink holds, or 0
+     */
+    public PartitionedWriter(String[] partitionBy, int maxOpen, long memoryBudget, long sinkMemory, Sinks sinks) {
+        this.partitionBy = partitionBy;
+        this.maxOpen = (int) Math.max(1L, (sinkMemory > 0L) ? Math.min(maxOpen, memoryBudget / sinkMemory) : maxOpen);
+        this.memoryBudget = memoryBudget;
+        this.sinks = sinks;
+    }
+
+    public void write(Iterator<Tuple2<Object, DataRecord<?>>> it) throws Exception {
+        RecordSorter<RecordOrder.Key> sorter = null;
+        try {
+            while (it.hasNext()) {
+                DataRecord<?> rec = it.next()._2;
+                String partition = HivePartitions.path(rec, partitionBy);
+
+                Sink sink = open.get(partition);
+                if ((sink == null) && (open.size() < maxOpen)) {
+                    sink = sinks.open(partition);
+                    open.put(partition, sink);
+                }
+
+                if (sink != null) {
+                    sink.write(rec);
+                } else {
+                    if (sorter == null) {
+                        System.out.println("More than " + maxOpen + " partitions in the task, sorting the rest of" +
+                                " records by partition");
+                        sorter = new RecordSorter<>(r -> RecordOrder.partition(HivePartitions.path(r, partitionBy)), memoryBudget);
+                    }
+                    sorter.add(RecordOrder.partition(partition), rec);
+                }
+            }
+
+            // a sink which fails to finish aborts itself
+            for (Iterator<Sink> i = open.values().iterator(); i.hasNext(); ) {
+                Sink sink = i.next();
+                i.remove();
+                sink.finish();
+            }
+
+            if (sorter != null) {
+                writeSorted(sorter.sorted());
+            }
+        } catch (Exception e) {
+            for (Sink sink : open.values()) {
+                sink.abort();
+            }
+            throw e;
+        } finally {
+            if (sorter != null) {
+                sorter.close();
+            }
+        }
+    }
+
+    /**
+     * Write records sorted by partition, each partition's run is written and finished before the next one begins
+     */
+    public void writeSorted(Iterator<Tuple2<RecordOrder.Key, DataRecord<?>>> it) throws Exception {
+        Tuple2<RecordOrder.Key, DataRecord<?>> first = it.hasNext() ? it.next() : null;
+        while (first != null) {
+            Run run = new Run(first, it);
+            sinks.write(run.partition, run);
+            if (run.hasNext()) {
+                throw new IllegalStateException("Records of partition " + run.partition + " weren't all written");
+            }
+            first = run.following;
+        }
+    }
+
+    // records of one partition, up to the first record of the next one
+    private static class Run implements Iterator<DataRecord<?>> {
+        private final String partition;
+        private final Iterator<Tuple2<RecordOrder.Key, DataRecord<?>>> it;
+        private DataRecord<?> current;
+        private Tuple2<RecordOrder.Key, DataRecord<?>> following = null;
+
+        Run(Tuple2<RecordOrder.Key, DataRecord<?>> first, Iterator<Tuple2<RecordOrder.Key, DataRecord<?>>> it) {
+            this.partition = first._1.partition();
+            this.it = it;
+            this.current = first._2;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return current != null;
+        }
+
+        @Override
+        public DataRecord<?> next() {
+            if (current == null) {
+                throw new NoSuchElementException();
+            }
+            DataRecord<?> rec = current;
+
+            current = null;
+            if (it.hasNext()) {
+                Tuple2<RecordOrder.Key, DataRecord<?>> t = it.next();
+                if (partition.equals(t._1.partition())) {
+                    current = t._2;
+                } else {
+                    following = t;
+                }
+            }
+            return rec;
+        }
+    }
+
+    public interface Sinks {
+        /**
+         * @param partition partition path, like col1=value1/col2=value2
+         */
+        Sink open(String partition) throws Exception;
+
+        /**
+         * Write all records of the partition at once, through a sink by default
+         */
+        default void write(String partition, Iterator<DataRecord<?>> records) throws Exception {
+            Sink sink = open(partition);
+            try {
+                while (records.hasNext()) {
+                    sink.write(records.next());
+                }
+            } catch (Exception e) {
+                sink.abort();
+                throw e;
+            }
+            // a sink which fails to finish aborts itself
+            sink.finish();
+        }
+    }
+
+    public interface Sink {
+        void write(DataRecord<?> rec) throws Exception;
+
+        void finish() throws Exception;
+
+        void abort();
+    }
+}
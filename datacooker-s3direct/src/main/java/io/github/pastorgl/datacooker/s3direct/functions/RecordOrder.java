@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import io.github.pastorgl.datacooker.data.DataRecord;
+import io.github.pastorgl.datacooker.s3direct.S3DirectStorage;
+
+import java.io.Serializable;
+
+/**
+ * Order of records in an output part. Either sorted by columns one after another, or clustered along a space
+ * filling curve (Z-order or Hilbert) over numeric columns, so records close by all of them, like lat and lon,
+ * end up close in the part, and row group statistics of each column are tight. Records are compared by their
+ * {@link Key}s, which are computed once per record
+ */
+public class RecordOrder implements Serializable {
+    private final String[] columns;
+    private final S3DirectStorage.ClusterCurve curve;
+
+    private RecordOrder(String[] columns, S3DirectStorage.ClusterCurve curve) {
+        this.columns = columns;
+        this.curve = curve;
+    }
+
+    public static RecordOrder sortBy(String[] columns) {
+        return new RecordOrder(columns, null);
+    }
+
+    public static RecordOrder clusterBy(String[] columns, S3DirectStorage.ClusterCurve curve) {
+        return new RecordOrder(columns, curve);
+    }
+
+    /**
+     * @param partition partition path of the record, or null if output isn't partitioned
+     */
+    public Key key(String partition, DataRecord<?> rec) {
+        return new Key(this, partition, rec);
+    }
+
+    /**
+     * @return key of the partition only, for records in no particular order within it
+     */
+    public static Key partition(String partition) {
+        return new Key(null, partition, null);
+    }
+
+    /**
+     * @return sorter of the task's records by partition, if any, and then by this order
+     */
+    public RecordSorter<Key> sorter(String[] partitionBy, long memoryBudget) {
+        return new RecordSorter<>(rec -> key((partitionBy == null) ? null : HivePartitions.path(rec, partitionBy), rec), memoryBudget);
+    }
+
+    // nulls first, numbers by value, same class by its own order, else by text
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compareValues(Object a, Object b) {
+        if (a == b) {
+            return 0;
+        }
+        if (a == null) {
+            return -1;
+        }
+        if (b == null) {
+            return 1;
+        }
+
+        if ((a instanceof Number) && (b instanceof Number)) {
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        if ((a.getClass() == b.getClass()) && (a instanceof Comparable)) {
+            return ((Comparable) a).compareTo(b);
+        }
+        return String.valueOf(a).compareTo(String.valueOf(b));
+    }
+
+    long curveKey(DataRecord<?> rec) {
+        int n = columns.length;
+        if (n == 1) {
+            return sortable(rec, columns[0]);
+        }
+
+        // each column gets an equal share of key bits, from the top of its sortable value
+        int bits = Math.min(64 / n, 32);
+        long[] x = new long[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = sortable(rec, columns[i]) >>> (64 - bits);
+        }
+
+        if (curve == S3DirectStorage.ClusterCurve.HILBERT) {
+            hilbertTranspose(x, bits);
+        }
+
+        long key = 0L;
+        for (int b = bits - 1; b >= 0; b--) {
+            for (int i = 0; i < n; i++) {
+                key = (key << 1) | ((x[i] >>> b) & 1L);
+            }
+        }
+        return key;
+    }
+
+    // value bits in unsigned order, NULL and non-numeric values are the lowest
+    private static long sortable(DataRecord<?> rec, String column) {
+        Object value = rec.asIs(column);
+
+        double d;
+        if (value instanceof Number) {
+            d = ((Number) value).doubleValue();
+        } else if (value == null) {
+            return 0L;
+        } else {
+            try {
+                d = Double.parseDouble(String.valueOf(value).trim());
+            } catch (NumberFormatException e) {
+                return 0L;
+            }
+        }
+        if (Double.isNaN(d)) {
+            return 0L;
+        }
+
+        long bits = Double.doubleToLongBits(d + 0.D);
+        return bits ^ ((bits >> 63) | Long.MIN_VALUE);
+    }
+
+    // Skilling's transform of coordinates into the transposed Hilbert index, in place
+    private static void hilbertTranspose(long[] x, int bits) {
+        int n = x.length;
+        long m = 1L << (bits - 1);
+
+        for (long q = m; q > 1; q >>= 1) {
+            long p = q - 1;
+            for (int i = 0; i < n; i++) {
+                if ((x[i] & q) != 0) {
+                    x[0] ^= p;
+                } else {
+                    long t = (x[0] ^ x[i]) & p;
+                    x[0] ^= t;
+                    x[i] ^= t;
+                }
+            }
+        }
+
+        for (int i = 1; i < n; i++) {
+            x[i] ^= x[i - 1];
+        }
+        long t = 0L;
+        for (long q = m; q > 1; q >>= 1) {
+            if ((x[n - 1] & q) != 0) {
+                t ^= q - 1;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            x[i] ^= t;
+        }
+    }
+
+    public static class Key implements Comparable<Key> {
+        private final RecordOrder order;
+        private final String partition;
+        private final long curveKey;
+        private final Object[] values;
+
+        private Key(RecordOrder order, String partition, DataRecord<?> rec) {
+            this.order = order;
+            this.partition = partition;
+
+            if ((order != null) && (order.curve != null)) {
+                curveKey = order.curveKey(rec);
+                values = null;
+            } else if (order != null) {
+                curveKey = 0L;
+                values = new Object[order.columns.length];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = rec.asIs(order.columns[i]);
+                }
+            } else {
+                curveKey = 0L;
+                values = null;
+            }
+        }
+
+        public String partition() {
+            return partition;
+        }
+
+        @Override
+        public int compareTo(Key o) {
+            int c = (partition == null) ? 0 : partition.compareTo(o.partition);
+            if ((c != 0) || (order == null)) {
+                return c;
+            }
+
+            if (values == null) {
+                return Long.compareUnsigned(curveKey, o.curveKey);
+            }
+            for (int i = 0; i < values.length; i++) {
+                c = compareValues(values[i], o.values[i]);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        }
+    }
+}
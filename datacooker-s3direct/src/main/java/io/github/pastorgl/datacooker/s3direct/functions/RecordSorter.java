@@ -0,0 +1,336 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import io.github.pastorgl.datacooker.data.DataRecord;
+import org.apache.spark.SparkEnv;
+import org.apache.spark.serializer.DeserializationStream;
+import org.apache.spark.serializer.SerializationStream;
+import org.apache.spark.serializer.SerializerInstance;
+import org.apache.spark.util.SizeEstimator;
+import scala.Tuple2;
+import scala.reflect.ClassTag;
+import scala.reflect.ClassTag$;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * External sort of records by their keys, which are computed once per record as it's added, and again only when
+ * it's read back from a spill. Records are kept in memory until their estimated size exceeds the budget, then
+ * sorted and spilled to a local file with Spark's serializer. Sorted records are merged from all spills and the
+ * in-memory rest, no more than {@link #MAX_FAN_IN} runs at once, so too many spills are merged in passes. Sort is
+ * stable, so records with equal keys keep their order of addition. Without keys, records are only buffered, and
+ * come back in their order of addition
+ */
+public class RecordSorter<K extends Comparable<K>> implements Closeable {
+    // size of each n-th record is estimated, as estimation is expensive
+    static final int SAMPLE_EVERY = 64;
+    static final int BUFFER_SIZE = 64 * 1024;
+    // each open spill holds a read buffer and a deserialization stream
+    static final int MAX_FAN_IN = 64;
+
+    @SuppressWarnings("unchecked")
+    private static final ClassTag<DataRecord<?>> TAG = (ClassTag<DataRecord<?>>) (ClassTag<?>) ClassTag$.MODULE$.apply(DataRecord.class);
+
+    private final Function<DataRecord<?>, K> key;
+    private final Comparator<Tuple2<K, DataRecord<?>>> comparator = (a, b) -> a._1.compareTo(b._1);
+    private final long memoryBudget;
+    private final SerializerInstance serializer;
+
+    private final List<Tuple2<K, DataRecord<?>>> buffer = new ArrayList<>();
+    private final List<Spill> spills = new ArrayList<>();
+
+    private long sampledSize = 0L;
+    private int sampled = 0;
+    private long count = 0L;
+
+    /**
+     * @param key sort key of a record, or null to keep records in their order of addition
+     */
+    public RecordSorter(Function<DataRecord<?>, K> key, long memoryBudget) {
+        this.key = key;
+        this.memoryBudget = memoryBudget;
+        this.serializer = SparkEnv.get().serializer().newInstance();
+    }
+
+    public void add(DataRecord<?> rec) throws IOException {
+        add((key == null) ? null : key.apply(rec), rec);
+    }
+
+    /**
+     * @param k key of the record, if it's already known
+     */
+    public void add(K k, DataRecord<?> rec) throws IOException {
+        Tuple2<K, DataRecord<?>> keyed = new Tuple2<>(k, rec);
+        if (buffer.size() % SAMPLE_EVERY == 0) {
+            sampledSize += SizeEstimator.estimate(keyed);
+            sampled++;
+        }
+        buffer.add(keyed);
+        count++;
+
+        if (buffer.size() * (sampledSize / sampled) > memoryBudget) {
+            if (key != null) {
+                buffer.sort(comparator);
+            }
+            spills.add(spill(buffer.iterator()));
+            buffer.clear();
+        }
+    }
+
+    /**
+     * @return all records of the task in order, with their keys. Can be called only once
+     */
+    public Iterator<Tuple2<K, DataRecord<?>>> sort(Iterator<Tuple2<Object, DataRecord<?>>> it) throws IOException {
+        while (it.hasNext()) {
+            add(it.next()._2);
+        }
+        return sorted();
+    }
+
+    public static Iterator<Tuple2<Object, DataRecord<?>>> tuples(Iterator<DataRecord<?>> records) {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return records.hasNext();
+            }
+
+            @Override
+            public Tuple2<Object, DataRecord<?>> next() {
+                return new Tuple2<>(null, records.next());
+            }
+        };
+    }
+
+    public static Iterator<Tuple2<Object, DataRecord<?>>> unkeyed(Iterator<? extends Tuple2<?, DataRecord<?>>> keyed) {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return keyed.hasNext();
+            }
+
+            @Override
+            public Tuple2<Object, DataRecord<?>> next() {
+                return new Tuple2<>(null, keyed.next()._2);
+            }
+        };
+    }
+
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @return all added records in order, with their keys. Can be called only once
+     */
+    public Iterator<Tuple2<K, DataRecord<?>>> sorted() throws IOException {
+        if (key == null) {
+            return new Chain();
+        }
+
+        buffer.sort(comparator);
+        if (spills.isEmpty()) {
+            return buffer.iterator();
+        }
+
+        // runs of each pass are consecutive, so ties are still resolved by order of addition
+        while (spills.size() + 1 > MAX_FAN_IN) {
+            List<Spill> merged = new ArrayList<>();
+            try {
+                for (int i = 0; i < spills.size(); i += MAX_FAN_IN) {
+                    List<Spill> group = spills.subList(i, Math.min(i + MAX_FAN_IN, spills.size()));
+                    if (group.size() == 1) {
+                        merged.add(group.get(0));
+                        continue;
+                    }
+
+                    List<Iterator<Tuple2<K, DataRecord<?>>>> runs = new ArrayList<>();
+                    for (Spill spill : group) {
+                        runs.add(spill.reader());
+                    }
+                    merged.add(spill(new Merge(runs)));
+                    group.forEach(Spill::close);
+                }
+            } catch (Exception e) {
+                merged.forEach(Spill::close);
+                throw e;
+            }
+            System.out.println("Merged " + spills.size() + " spill(s) into " + merged.size());
+
+            spills.clear();
+            spills.addAll(merged);
+        }
+
+        List<Iterator<Tuple2<K, DataRecord<?>>>> runs = new ArrayList<>();
+        for (Spill spill : spills) {
+            runs.add(spill.reader());
+        }
+        runs.add(buffer.iterator());
+
+        return new Merge(runs);
+    }
+
+    @Override
+    public void close() {
+        for (Spill spill : spills) {
+            spill.close();
+        }
+        spills.clear();
+        buffer.clear();
+    }
+
+    private Spill spill(Iterator<Tuple2<K, DataRecord<?>>> records) throws IOException {
+        File file = Files.createTempFile("dist-sort", ".spill").toFile();
+
+        int written = 0;
+        try (SerializationStream out = serializer.serializeStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE))) {
+            while (records.hasNext()) {
+                out.writeObject(records.next()._2, TAG);
+                written++;
+            }
+        } catch (Exception e) {
+            file.delete();
+            throw e;
+        }
+
+        System.out.println("Spilled " + written + " record(s) to " + file);
+        return new Spill(file, written);
+    }
+
+    private class Spill {
+        private final File file;
+        private final int records;
+        private DeserializationStream in;
+
+        Spill(File file, int records) {
+            this.file = file;
+            this.records = records;
+        }
+
+        Iterator<Tuple2<K, DataRecord<?>>> reader() throws IOException {
+            in = serializer.deserializeStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+
+            return new Iterator<>() {
+                private int read = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return read < records;
+                }
+
+                @Override
+                public Tuple2<K, DataRecord<?>> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    read++;
+
+                    DataRecord<?> rec = in.readObject(TAG);
+                    return new Tuple2<>((key == null) ? null : key.apply(rec), rec);
+                }
+            };
+        }
+
+        void close() {
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+            file.delete();
+        }
+    }
+
+    // unsorted spills one after another, each opened only when the previous is read through
+    private class Chain implements Iterator<Tuple2<K, DataRecord<?>>> {
+        private final Iterator<Spill> rest = new ArrayList<>(spills).iterator();
+        private Spill spill = null;
+        private Iterator<Tuple2<K, DataRecord<?>>> current = Collections.emptyIterator();
+        private boolean buffered = false;
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (spill != null) {
+                    spill.close();
+                    spill = null;
+                }
+
+                if (rest.hasNext()) {
+                    spill = rest.next();
+                    try {
+                        current = spill.reader();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                } else if (!buffered) {
+                    current = buffer.iterator();
+                    buffered = true;
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Tuple2<K, DataRecord<?>> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
+
+    // k-way merge, ties are resolved by run order, so the sort stays stable
+    private class Merge implements Iterator<Tuple2<K, DataRecord<?>>> {
+        private final List<Iterator<Tuple2<K, DataRecord<?>>>> runs;
+        private final PriorityQueue<Head> heads;
+
+        Merge(List<Iterator<Tuple2<K, DataRecord<?>>>> runs) {
+            this.runs = runs;
+            this.heads = new PriorityQueue<>(runs.size(), (a, b) -> {
+                int c = comparator.compare(a.rec, b.rec);
+                return (c != 0) ? c : Integer.compare(a.run, b.run);
+            });
+            for (int i = 0; i < runs.size(); i++) {
+                if (runs.get(i).hasNext()) {
+                    heads.add(new Head(runs.get(i).next(), i));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Tuple2<K, DataRecord<?>> next() {
+            Head head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+
+            Iterator<Tuple2<K, DataRecord<?>>> run = runs.get(head.run);
+            if (run.hasNext()) {
+                heads.add(new Head(run.next(), head.run));
+            }
+            return head.rec;
+        }
+    }
+
+    private class Head {
+        private final Tuple2<K, DataRecord<?>> rec;
+        private final int run;
+
+        Head(Tuple2<K, DataRecord<?>> rec, int run) {
+            this.rec = rec;
+            this.run = run;
+        }
+    }
+}
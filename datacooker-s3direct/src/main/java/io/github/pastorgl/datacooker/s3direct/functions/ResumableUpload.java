@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * S3 multipart upload which state is persisted under tmp location after each uploaded part.
+ * State consists of upload ID, and for each part its number, ETag, and input offset reached
+ * after it. A retried attempt of the same task in the same job re-attaches to the same upload
+ * and continues after the last part which S3 confirms, see {@link TaskState}. Input offset is opaque, and its meaning is up to the writer: a count
+ * of consumed records, or a byte position in a local file. Part checksum is also opaque, and
+ * allows the writer to verify that the input it will skip is the same as the uploaded one
+ */
+public class ResumableUpload {
+    public static final int PART_SIZE = 15 * 1024 * 1024;
+    // S3 minimum for all parts but the last
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private final AmazonS3 s3;
+    private final String bucket;
+    private final String key;
+
+    private final FileSystem stateFs;
+    private final Path sharedPath;
+    private final Path statePath;
+
+    private String uploadId;
+    private final List<Part> parts = new ArrayList<>();
+
+    private ResumableUpload(AmazonS3 s3, String bucket, String key, FileSystem stateFs, Path sharedPath) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.key = key;
+        this.stateFs = stateFs;
+        this.sharedPath = sharedPath;
+        this.statePath = TaskState.own(sharedPath);
+    }
+
+    public static ResumableUpload open(AmazonS3 s3, String bucket, String key, String contentType, Configuration conf, String tmpDir, boolean fresh) throws IOException {
+        Path sharedPath = TaskState.path(tmpDir, "dist-uploads", bucket, key, ".upload");
+        FileSystem stateFs = sharedPath.getFileSystem(conf);
+
+        ResumableUpload upload = new ResumableUpload(s3, bucket, key, stateFs, sharedPath);
+        boolean claimed = TaskState.claim(stateFs, sharedPath);
+        if (claimed && !fresh && upload.reattach()) {
+            System.out.println("Resuming S3 object " + key + " upload after part " + upload.parts.size());
+        } else {
+            if (claimed && fresh && upload.reattach()) {
+                s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, upload.uploadId));
+            }
+
+            ObjectMetadata om = new ObjectMetadata();
+            om.setContentType(contentType);
+            upload.uploadId = s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key, om)).getUploadId();
+            upload.parts.clear();
+            upload.persist();
+        }
+
+        return upload;
+    }
+
+    private boolean reattach() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stateFs.open(statePath), StandardCharsets.UTF_8))) {
+            uploadId = reader.readLine();
+            for (String line; (line = reader.readLine()) != null; ) {
+                String[] p = line.split("\t");
+                parts.add(new Part(Integer.parseInt(p[0]), p[1], Long.parseLong(p[2]), Long.parseLong(p[3])));
+            }
+        } catch (Exception e) {
+            return false;
+        }
+        if (uploadId == null) {
+            return false;
+        }
+
+        Map<Integer, String> confirmed = new HashMap<>();
+        try {
+            PartListing pl = s3.listParts(new ListPartsRequest(bucket, key, uploadId));
+            while (true) {
+                pl.getParts().forEach(ps -> confirmed.put(ps.getPartNumber(), ps.getETag()));
+                if (!pl.isTruncated()) {
+                    break;
+                }
+                pl = s3.listParts(new ListPartsRequest(bucket, key, uploadId).withPartNumberMarker(pl.getNextPartNumberMarker()));
+            }
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+
+        // keep only the unbroken sequence of parts which S3 still has
+        int last = 0;
+        while ((last < parts.size()) && parts.get(last).eTag.equals(confirmed.get(parts.get(last).number))) {
+            last++;
+        }
+        parts.subList(last, parts.size()).clear();
+
+        return true;
+    }
+
+    public long offset() {
+        return parts.isEmpty() ? 0L : parts.get(parts.size() - 1).offset;
+    }
+
+    public int uploadedParts() {
+        return parts.size();
+    }
+
+    public long partOffset(int part) {
+        return parts.get(part).offset;
+    }
+
+    public long partChecksum(int part) {
+        return parts.get(part).checksum;
+    }
+
+    /**
+     * Forget all parts from the specified one, so they'll be uploaded again
+     */
+    public void truncate(int part) throws IOException {
+        parts.subList(part, parts.size()).clear();
+        persist();
+    }
+
+    public void uploadPart(byte[] buffer, int length, long offset, long checksum) throws IOException {
+        uploadPart(new ByteArrayInputStream(buffer, 0, length), length, offset, checksum);
+    }
+
+    /**
+     * @param content must support mark and reset, for the client to retry the part
+     */
+    public void uploadPart(InputStream content, long length, long offset, long checksum) throws IOException {
+        int number = parts.size() + 1;
+
+        UploadPartResult result = s3.uploadPart(new UploadPartRequest()
+                .withBucketName(bucket)
+                .withKey(key)
+                .withUploadId(uploadId)
+                .withPartNumber(number)
+                .withInputStream(content)
+                .withPartSize(length));
+
+        parts.add(new Part(number, result.getETag(), offset, checksum));
+        persist();
+    }
+
+    public void complete() throws IOException {
+        if (parts.isEmpty()) {
+            uploadPart(new byte[0], 0, 0L, 0L);
+        }
+
+        s3.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId, parts.stream()
+                .map(p -> new PartETag(p.number, p.eTag))
+                .collect(Collectors.toList())));
+        stateFs.delete(statePath, false);
+    }
+
+    /**
+     * Abort the upload only if no more attempts of current task will follow, otherwise
+     * leave it and its state for the next attempt to continue
+     */
+    public boolean failed() throws IOException {
+        if (TaskState.finalAttempt()) {
+            s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+            stateFs.delete(statePath, false);
+            return true;
+        }
+
+        TaskState.release(stateFs, sharedPath);
+        return false;
+    }
+
+    private void persist() throws IOException {
+        Path tmpState = statePath.suffix(".tmp");
+        try (FSDataOutputStream out = stateFs.create(tmpState, true)) {
+            StringBuilder sb = new StringBuilder(uploadId).append('\n');
+            for (Part p : parts) {
+                sb.append(p.number).append('\t').append(p.eTag).append('\t').append(p.offset).append('\t').append(p.checksum).append('\n');
+            }
+            out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        stateFs.delete(statePath, false);
+        stateFs.rename(tmpState, statePath);
+    }
+
+    private static class Part {
+        final int number;
+        final String eTag;
+        final long offset;
+        final long checksum;
+
+        Part(int number, String eTag, long offset, long checksum) {
+            this.number = number;
+            this.eTag = eTag;
+            this.offset = offset;
+            this.checksum = checksum;
+        }
+    }
+}
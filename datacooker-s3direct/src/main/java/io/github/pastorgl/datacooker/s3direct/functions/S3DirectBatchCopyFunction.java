@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.spark.api.java.function.Function2;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Reads each group of source objects in {@link ArrowBatches}, and writes them as one output part
+ */
+public class S3DirectBatchCopyFunction implements Function2<Integer, Iterator<List<String>>, Iterator<Object>> {
+    private final S3DirectColumnarInputFunction source;
+    private final BatchPartWriter dest;
+    private final String confXml;
+
+    public S3DirectBatchCopyFunction(S3DirectColumnarInputFunction source, BatchPartWriter dest, String confXml) {
+        this.source = source;
+        this.dest = dest;
+        this.confXml = confXml;
+    }
+
+    @Override
+    public Iterator<Object> call(Integer idx, Iterator<List<String>> it) throws Exception {
+        Configuration conf = new Configuration(false);
+        conf.addResource(new ByteArrayInputStream(confXml.getBytes(StandardCharsets.UTF_8)));
+
+        while (it.hasNext()) {
+            try (BatchReader batches = source.batchReader(it.next())) {
+                dest.writeBatches(conf, idx, batches);
+            }
+        }
+
+        return Collections.emptyIterator();
+    }
+}
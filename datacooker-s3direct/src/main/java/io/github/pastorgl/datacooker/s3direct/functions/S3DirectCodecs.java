@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import com.github.luben.zstd.ZstdInputStreamNoFinalizer;
+import com.github.luben.zstd.ZstdOutputStreamNoFinalizer;
+import com.github.luben.zstd.util.Native;
+import io.github.pastorgl.datacooker.storage.hadoop.HadoopStorage;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.*;
+
+import java.io.*;
+import java.util.zip.*;
+
+/**
+ * Streams of {@link HadoopStorage.Codec}s, compatible with Hadoop's, but backed by native libraries where there
+ * are any: zstd-jni for Zstandard, and JDK's zlib for gzip and deflate (Hadoop's built-in gzip is a re-implementation
+ * on top of it, which is used if there is no libhadoop). If native library can't be loaded, or for other codecs
+ * (Hadoop's LZ4 and Snappy already use lz4-java and snappy-java, and their framing is Hadoop-specific), streams
+ * fall back to Hadoop's {@link CompressionCodec}
+ */
+public class S3DirectCodecs {
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    static final String ZSTD_LEVEL = "io.compression.codec.zstd.level";
+    static final String PARQUET_ZSTD_LEVEL = "parquet.compression.codec.zstd.level";
+    static final String ZLIB_LEVEL = "zlib.compress.level";
+    private static final String[] ZLIB_LEVELS = {"NO_COMPRESSION", "BEST_SPEED", "TWO", "THREE", "FOUR", "FIVE", "SIX",
+            "SEVEN", "EIGHT", "BEST_COMPRESSION"};
+
+    private static final boolean ZSTD_NATIVE = zstdNative();
+
+    public static InputStream decompress(HadoopStorage.Codec codec, InputStream in, Configuration conf) throws IOException {
+        return decompress(codec, in, conf, true);
+    }
+
+    public static InputStream decompress(HadoopStorage.Codec codec, InputStream in, Configuration conf, boolean preferNative) throws IOException {
+        Class<? extends CompressionCodec> codecClass = codec.codec;
+        if (codecClass == null) {
+            return in;
+        }
+
+        if (preferNative) {
+            if (GzipCodec.class.equals(codecClass)) {
+                // reads all concatenated members, as Hadoop's does
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            }
+            if (isDeflate(codecClass)) {
+                return new ConcatInflaterInputStream(in);
+            }
+            if (ZSTD_NATIVE && ZStandardCodec.class.equals(codecClass)) {
+                return new ZstdInputStreamNoFinalizer(new BufferedInputStream(in, BUFFER_SIZE));
+            }
+        }
+
+        return hadoopCodec(codecClass, conf).createInputStream(in);
+    }
+
+    public static OutputStream compress(HadoopStorage.Codec codec, OutputStream out, Configuration conf, Integer level) throws IOException {
+        return compress(codec, out, conf, level, true);
+    }
+
+    public static OutputStream compress(HadoopStorage.Codec codec, OutputStream out, Configuration conf, Integer level, boolean preferNative) throws IOException {
+        Class<? extends CompressionCodec> codecClass = codec.codec;
+        if (codecClass == null) {
+            return out;
+        }
+
+        if (preferNative) {
+            if (GzipCodec.class.equals(codecClass)) {
+                return new GZIPOutputStream(out, BUFFER_SIZE) {
+                    {
+                        if (level != null) {
+                            def.setLevel(level);
+                        }
+                    }
+                };
+            }
+            if (isDeflate(codecClass)) {
+                return new DeflaterOutputStream(out, new Deflater((level != null) ? level : Deflater.DEFAULT_COMPRESSION), BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        def.end();
+                    }
+                };
+            }
+            if (ZSTD_NATIVE && ZStandardCodec.class.equals(codecClass)) {
+                ZstdOutputStreamNoFinalizer zstd = new ZstdOutputStreamNoFinalizer(new BufferedOutputStream(out, BUFFER_SIZE));
+                if (level != null) {
+                    zstd.setLevel(level);
+                }
+                return zstd;
+            }
+        }
+
+        if (level != null) {
+            conf = new Configuration(conf);
+            setLevel(conf, level);
+        }
+        return hadoopCodec(codecClass, conf).createOutputStream(out);
+    }
+
+    /**
+     * @return lowest and highest compression level of the codec, or null if it doesn't support levels
+     */
+    public static int[] levelRange(HadoopStorage.Codec codec) {
+        Class<? extends CompressionCodec> codecClass = codec.codec;
+        if (GzipCodec.class.equals(codecClass) || isDeflate(codecClass)) {
+            return new int[]{Deflater.NO_COMPRESSION, Deflater.BEST_COMPRESSION};
+        }
+        if (ZStandardCodec.class.equals(codecClass)) {
+            return new int[]{1, 22};
+        }
+        return null;
+    }
+
+    /**
+     * Set compression level for Hadoop's and Parquet's own codecs, which take it from the configuration
+     */
+    public static void setLevel(Configuration conf, Integer level) {
+        if (level == null) {
+            return;
+        }
+
+        conf.setInt(ZSTD_LEVEL, level);
+        conf.setInt(PARQUET_ZSTD_LEVEL, level);
+        if ((level >= 0) && (level < ZLIB_LEVELS.length)) {
+            conf.set(ZLIB_LEVEL, ZLIB_LEVELS[level]);
+        }
+    }
+
+    public static String implementation(HadoopStorage.Codec codec, boolean preferNative) {
+        Class<? extends CompressionCodec> codecClass = codec.codec;
+        if (codecClass == null) {
+            return "none";
+        }
+
+        if (preferNative) {
+            if (GzipCodec.class.equals(codecClass) || isDeflate(codecClass)) {
+                return "java.util.zip";
+            }
+            if (ZSTD_NATIVE && ZStandardCodec.class.equals(codecClass)) {
+                return "zstd-jni";
+            }
+        }
+
+        return codecClass.getSimpleName();
+    }
+
+    private static boolean isDeflate(Class<? extends CompressionCodec> codecClass) {
+        return DefaultCodec.class.equals(codecClass) || DeflateCodec.class.equals(codecClass);
+    }
+
+    private static CompressionCodec hadoopCodec(Class<? extends CompressionCodec> codecClass, Configuration conf) throws IOException {
+        try {
+            CompressionCodec cc = codecClass.getDeclaredConstructor().newInstance();
+            ((Configurable) cc).setConf(conf);
+            return cc;
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Can't instantiate codec " + codecClass.getSimpleName(), e);
+        }
+    }
+
+    private static boolean zstdNative() {
+        try {
+            Native.load();
+            return true;
+        } catch (Throwable e) {
+            System.out.println("zstd-jni native library is not available (" + e.getMessage() + "), using Hadoop's ZStandardCodec");
+            return false;
+        }
+    }
+
+    /**
+     * Reads all zlib streams one after another, as Hadoop's DecompressorStream does, and not just the first one
+     */
+    private static class ConcatInflaterInputStream extends InflaterInputStream {
+        ConcatInflaterInputStream(InputStream in) {
+            super(in, new Inflater(), BUFFER_SIZE);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int length) throws IOException {
+            while (true) {
+                int n = super.read(b, off, length);
+                if ((n >= 0) || !inf.finished()) {
+                    return n;
+                }
+
+                // input left after the end of a stream is the start of the next one
+                int remaining = inf.getRemaining();
+                if (remaining > 0) {
+                    inf.reset();
+                    inf.setInput(buf, len - remaining, remaining);
+                } else {
+                    // len is where the next stream's remaining input is found from, so it must follow the refill
+                    len = in.read(buf, 0, buf.length);
+                    if (len < 0) {
+                        return -1;
+                    }
+                    inf.reset();
+                    inf.setInput(buf, 0, len);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            inf.end();
+        }
+    }
+}
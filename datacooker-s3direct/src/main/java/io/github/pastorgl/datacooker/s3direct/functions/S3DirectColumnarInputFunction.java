@@ -12,16 +12,18 @@ import io.github.pastorgl.datacooker.storage.hadoop.input.functions.ParquetColum
 import io.github.pastorgl.datacooker.storage.hadoop.input.functions.RecordInputStream;
 import io.github.pastorgl.datacooker.storage.hadoop.input.functions.TextColumnarInputFunction;
 import io.github.pastorgl.datacooker.s3direct.S3DirectStorage;
-import org.apache.commons.codec.binary.Hex;
-import org.apache.hadoop.conf.Configurable;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.compress.CompressionCodec;
 
+import java.io.IOException;
 import java.io.InputStream;
-import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 public class S3DirectColumnarInputFunction extends TextColumnarInputFunction {
     private final boolean _fromFile;
@@ -31,11 +33,16 @@ public class S3DirectColumnarInputFunction extends TextColumnarInputFunction {
     private final String region;
     private final String accessKey;
     private final String secretKey;
+    private final boolean throttle;
 
     private final String _bucket;
     private final Path _tmp;
+    private final S3DirectHedge hedge;
+    private final S3DirectSelect select;
+    private final boolean vectorized;
+    private final String partitionRoot;
 
-    public S3DirectColumnarInputFunction(boolean fromFile, String[] schema, String[] columns, char delimiter, String endpoint, String region, String accessKey, String secretKey, String bucket, String tmp, Configuration hadoopConf, Partitioning partitioning) {
+    public S3DirectColumnarInputFunction(boolean fromFile, String[] schema, String[] columns, char delimiter, String endpoint, String region, String accessKey, String secretKey, boolean throttle, String bucket, String tmp, S3DirectHedge hedge, S3DirectSelect select, boolean vectorized, String partitionRoot, Configuration hadoopConf, Partitioning partitioning) {
         super(columns, delimiter, hadoopConf, partitioning);
 
         this._fromFile = fromFile;
@@ -45,47 +52,155 @@ public class S3DirectColumnarInputFunction extends TextColumnarInputFunction {
         this.region = region;
         this.accessKey = accessKey;
         this.secretKey = secretKey;
+        this.throttle = throttle;
 
         this._bucket = bucket;
         this._tmp = new Path(tmp);
+        this.hedge = hedge;
+        this.select = select;
+        this.vectorized = vectorized;
+        this.partitionRoot = partitionRoot;
     }
 
     @Override
     protected RecordInputStream recordStream(String inputFile) throws Exception {
+        if (partitionRoot != null) {
+            Map<String, String> partitions = HivePartitions.parse(partitionRoot, inputFile);
+            if (!partitions.isEmpty()) {
+                // partition columns aren't in the object itself
+                String[] columns = (_columns == null) ? null
+                        : Arrays.stream(_columns).filter(c -> !partitions.containsKey(c)).toArray(String[]::new);
+
+                return HivePartitions.withPartitions(recordStream(inputFile, columns), partitions, _columns);
+            }
+        }
+
+        return recordStream(inputFile, _columns);
+    }
+
+    private RecordInputStream recordStream(String inputFile, String[] columns) throws Exception {
         String suffix = HadoopStorage.suffix(inputFile);
 
-        AmazonS3 _s3 = S3DirectStorage.get(endpoint, region, accessKey, secretKey);
-        InputStream inputStream = _s3.getObject(_bucket, inputFile).getObjectContent();
+        AmazonS3 _s3 = S3DirectStorage.get(endpoint, region, accessKey, secretKey, throttle);
 
-        if ("parquet".equalsIgnoreCase(suffix)) {
-            MessageDigest md5 = MessageDigest.getInstance("MD5");
+        if (select == null) {
+            return recordStream(_s3, inputFile, suffix, columns);
+        }
 
-            String pathHash = Hex.encodeHexString(md5.digest((inputFile).getBytes()));
+        RecordInputStream selected = select.open(_s3, _bucket, inputFile, suffix, _fromFile, _schema, columns, _delimiter);
+        if (selected != null) {
+            return selected;
+        }
 
-            Path localPath = new Path(_tmp, pathHash);
+        return select.filter(recordStream(_s3, inputFile, suffix, select.readColumns(columns)), columns);
+    }
 
-            FileSystem tmpFs = localPath.getFileSystem(hadoopConf);
-            if (!tmpFs.exists(localPath)) {
-                FSDataOutputStream fso = tmpFs.create(localPath, false);
+    private RecordInputStream recordStream(AmazonS3 _s3, String inputFile, String suffix, String[] columns) throws Exception {
+        InputStream inputStream = new S3DirectObjectStream(_s3, _bucket, inputFile, hedge);
 
-                IOUtils.copy(inputStream, fso);
-                fso.close();
-                tmpFs.deleteOnExit(localPath);
+        if ("parquet".equalsIgnoreCase(suffix)) {
+            String localPath = localCopy(inputStream, inputFile).toString();
+            if (vectorized) {
+                ParquetBatchReader reader = ParquetBatchReader.open(hadoopConf, localPath, columns);
+                if (reader != null) {
+                    return new ParquetVectorizedInputStream(reader);
+                }
             }
 
-            return new ParquetColumnarInputStream(hadoopConf, localPath.toString(), _columns);
+            return new ParquetColumnarInputStream(hadoopConf, localPath, columns);
         } else {
-            HadoopStorage.Codec codec = HadoopStorage.Codec.lookup(suffix);
+            inputStream = S3DirectCodecs.decompress(HadoopStorage.Codec.lookup(suffix), inputStream, hadoopConf);
+
+            return new S3DirectColumnarInputStream(inputStream, _delimiter, _fromFile, _schema, columns);
+        }
+    }
+
+    /**
+     * @return {@link ArrowBatches} of all input files, one after another
+     */
+    public BatchReader batchReader(List<String> inputFiles) {
+        AmazonS3 _s3 = S3DirectStorage.get(endpoint, region, accessKey, secretKey, throttle);
+
+        return new BatchReader() {
+            private int next = 0;
+            private BatchReader current = null;
+
+            @Override
+            public VectorSchemaRoot next() throws IOException {
+                while (true) {
+                    if (current == null) {
+                        if (next >= inputFiles.size()) {
+                            return null;
+                        }
+                        current = batchReader(_s3, inputFiles.get(next++));
+                    }
+
+                    VectorSchemaRoot root = current.next();
+                    if (root != null) {
+                        return root;
+                    }
+                    current.close();
+                    current = null;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (current != null) {
+                    current.close();
+                }
+            }
+        };
+    }
 
-            Class<? extends CompressionCodec> codecClass = codec.codec;
-            if (codecClass != null) {
-                CompressionCodec cc = codecClass.getDeclaredConstructor().newInstance();
-                ((Configurable) cc).setConf(hadoopConf);
+    private BatchReader batchReader(AmazonS3 _s3, String inputFile) throws IOException {
+        String suffix = HadoopStorage.suffix(inputFile);
+        InputStream inputStream = new S3DirectObjectStream(_s3, _bucket, inputFile, hedge);
 
-                inputStream = cc.createInputStream(inputStream);
+        if ("parquet".equalsIgnoreCase(suffix)) {
+            ParquetBatchReader reader = ParquetBatchReader.open(hadoopConf, localCopy(inputStream, inputFile).toString(), _columns);
+            if (reader == null) {
+                throw new IOException("Parquet file " + inputFile + " has nested or repeated columns, and can't be" +
+                        " read into a batch");
             }
+            return reader;
+        } else {
+            inputStream = S3DirectCodecs.decompress(HadoopStorage.Codec.lookup(suffix), inputStream, hadoopConf);
+
+            return new TextBatchReader(inputStream, _delimiter, _fromFile, _schema, _columns);
+        }
+    }
+
+    /**
+     * @return parsed fields of delimited text lines of all input files, one after another
+     */
+    public TextFields textFields(List<String> inputFiles) {
+        AmazonS3 _s3 = S3DirectStorage.get(endpoint, region, accessKey, secretKey, throttle);
+
+        return new TextFields(inputFiles, inputFile -> {
+            InputStream inputStream = new S3DirectObjectStream(_s3, _bucket, inputFile, hedge);
+            inputStream = S3DirectCodecs.decompress(HadoopStorage.Codec.lookup(HadoopStorage.suffix(inputFile)), inputStream, hadoopConf);
 
             return new S3DirectColumnarInputStream(inputStream, _delimiter, _fromFile, _schema, _columns);
+        });
+    }
+
+    // Parquet needs random access, so the object is downloaded under tmp, once per executor
+    private Path localCopy(InputStream inputStream, String inputFile) throws IOException {
+        String pathHash = DigestUtils.md5Hex(inputFile);
+
+        Path localPath = new Path(_tmp, pathHash);
+
+        FileSystem tmpFs = localPath.getFileSystem(hadoopConf);
+        if (!tmpFs.exists(localPath)) {
+            FSDataOutputStream fso = tmpFs.create(localPath, false);
+
+            IOUtils.copy(inputStream, fso);
+            fso.close();
+            tmpFs.deleteOnExit(localPath);
         }
+        inputStream.close();
+
+        return localPath;
     }
 }
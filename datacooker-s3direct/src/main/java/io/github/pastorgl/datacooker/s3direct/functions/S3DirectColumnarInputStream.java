@@ -41,28 +41,13 @@ public class S3DirectColumnarInputStream implements RecordInputStream {
             }
         }
 
-        if (_schema != null) {
-            if (_columns == null) {
-                columnOrder = IntStream.range(0, _schema.length).toArray();
-                _columns = _schema;
-            } else {
-                Map<String, Integer> schema = new HashMap<>();
-                for (int i = 0; i < _schema.length; i++) {
-                    schema.put(_schema[i], i);
-                }
-
-                Map<Integer, String> columns = new HashMap<>();
-                for (int i = 0; i < _columns.length; i++) {
-                    columns.put(i, _columns[i]);
-                }
-
-                columnOrder = new int[_columns.length];
-                for (int i = 0; i < _columns.length; i++) {
-                    columnOrder[i] = schema.get(columns.get(i));
-                }
-            }
-        } else {
-            columnOrder = IntStream.range(0, _columns.length).toArray();
+        if ((_schema == null) && (_columns == null)) {
+            // empty object without a header
+            _columns = new String[0];
+        }
+        columnOrder = columnOrder(_schema, _columns);
+        if (_columns == null) {
+            _columns = _schema;
         }
 
         this.columns = Arrays.asList(_columns);
@@ -70,6 +55,15 @@ public class S3DirectColumnarInputStream implements RecordInputStream {
     }
 
     public Columnar ensureRecord() throws IOException {
+        String[] acc = nextFields();
+
+        return (acc == null) ? null : new Columnar(columns, acc);
+    }
+
+    /**
+     * @return values of selected columns of the next line, or null at the end of input
+     */
+    String[] nextFields() throws IOException {
         String line = reader.readLine();
 
         if (line == null) {
@@ -85,12 +79,39 @@ public class S3DirectColumnarInputStream implements RecordInputStream {
                 acc[i] = ll[l];
             }
 
-            return new Columnar(columns, acc);
+            return acc;
         } catch (Exception e) {
             throw new IOException("Malformed input line: " + line, e);
         }
     }
 
+    /**
+     * @return index of each selected column in a line of the schema
+     */
+    static int[] columnOrder(String[] _schema, String[] _columns) {
+        if (_schema == null) {
+            return IntStream.range(0, _columns.length).toArray();
+        }
+        if (_columns == null) {
+            return IntStream.range(0, _schema.length).toArray();
+        }
+
+        Map<String, Integer> schema = new HashMap<>();
+        for (int i = 0; i < _schema.length; i++) {
+            schema.put(_schema[i], i);
+        }
+
+        int[] columnOrder = new int[_columns.length];
+        for (int i = 0; i < _columns.length; i++) {
+            columnOrder[i] = schema.get(_columns[i]);
+        }
+        return columnOrder;
+    }
+
+    List<String> columns() {
+        return columns;
+    }
+
     @Override
     public void close() throws IOException {
         reader.close();
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import io.github.pastorgl.datacooker.s3direct.S3DirectStorage;
+import org.apache.spark.api.java.function.FlatMapFunction;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class S3DirectCopyFunction implements FlatMapFunction<List<S3DirectCopyFunction.Item>, S3DirectCopyFunction.Item> {
+    private final String endpoint;
+    private final String region;
+    private final String accessKey;
+    private final String secretKey;
+    private final boolean throttle;
+
+    private final String sourceBucket;
+    private final String destBucket;
+
+    public S3DirectCopyFunction(String endpoint, String region, String accessKey, String secretKey, boolean throttle, String sourceBucket, String destBucket) {
+        this.endpoint = endpoint;
+        this.region = region;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.throttle = throttle;
+
+        this.sourceBucket = sourceBucket;
+        this.destBucket = destBucket;
+    }
+
+    @Override
+    public Iterator<Item> call(List<Item> items) {
+        AmazonS3 _s3 = S3DirectStorage.get(endpoint, region, accessKey, secretKey, throttle);
+
+        List<Item> ret = new ArrayList<>();
+        for (Item item : items) {
+            if (item.uploadId == null) {
+                if (item.conditional) {
+                    ObjectMetadata present = _s3.getObjectMetadata(destBucket, item.destKey);
+                    if (item.sourceETag.equals(present.getUserMetaDataOf(S3DirectStorage.SOURCE_ETAG))) {
+                        System.out.println("S3 object " + item.destKey + " is up to date");
+
+                        continue;
+                    }
+                }
+
+                System.out.println("Copying S3 object " + item.sourceKey + " to " + item.destKey);
+
+                CopyObjectRequest request = new CopyObjectRequest(sourceBucket, item.sourceKey, destBucket, item.destKey);
+                if (item.sourceETag != null) {
+                    ObjectMetadata om = S3DirectStorage.copyMetadata(_s3.getObjectMetadata(sourceBucket, item.sourceKey));
+                    om.addUserMetadata(S3DirectStorage.SOURCE_ETAG, item.sourceETag);
+                    request.setNewObjectMetadata(om);
+                }
+                _s3.copyObject(request);
+            } else {
+                System.out.println("Copying S3 object " + item.sourceKey + " range " + item.firstByte + "-" + item.lastByte
+                        + " to " + item.destKey + " part " + item.partNumber);
+
+                CopyPartResult result = _s3.copyPart(new CopyPartRequest()
+                        .withSourceBucketName(sourceBucket)
+                        .withSourceKey(item.sourceKey)
+                        .withDestinationBucketName(destBucket)
+                        .withDestinationKey(item.destKey)
+                        .withUploadId(item.uploadId)
+                        .withPartNumber(item.partNumber)
+                        .withFirstByte(item.firstByte)
+                        .withLastByte(item.lastByte));
+
+                item.eTag = result.getETag();
+            }
+
+            ret.add(item);
+        }
+
+        return ret.iterator();
+    }
+
+    public static class Item implements Serializable {
+        public final String sourceKey;
+        public final String destKey;
+
+        public final String uploadId;
+        public final int partNumber;
+        public final long firstByte;
+        public final long lastByte;
+
+        // if set, recorded at destination as a fingerprint of the source
+        public String sourceETag;
+        // if set, destination object is checked against the fingerprint before copying
+        public boolean conditional;
+
+        public String eTag;
+
+        private Item(String sourceKey, String destKey, String uploadId, int partNumber, long firstByte, long lastByte) {
+            this.sourceKey = sourceKey;
+            this.destKey = destKey;
+            this.uploadId = uploadId;
+            this.partNumber = partNumber;
+            this.firstByte = firstByte;
+            this.lastByte = lastByte;
+        }
+
+        public static Item object(String sourceKey, String destKey, long size) {
+            return new Item(sourceKey, destKey, null, 0, 0L, size - 1);
+        }
+
+        public static Item part(String sourceKey, String destKey, String uploadId, int partNumber, long firstByte, long lastByte) {
+            return new Item(sourceKey, destKey, uploadId, partNumber, firstByte, lastByte);
+        }
+
+        public Item fingerprint(String sourceETag, boolean conditional) {
+            this.sourceETag = sourceETag;
+            this.conditional = conditional;
+            return this;
+        }
+
+        public long size() {
+            return lastByte - firstByte + 1;
+        }
+    }
+}
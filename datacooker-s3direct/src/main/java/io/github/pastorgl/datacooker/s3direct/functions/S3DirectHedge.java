@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import io.github.pastorgl.datacooker.s3direct.S3DirectThrottle;
+
+import javax.management.ObjectName;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Policy of hedged S3 GETs. Time to first byte and read throughput of all GETs in the executor are
+ * sampled, and if a GET falls behind the configured percentile of either, a duplicate request is issued,
+ * as long as the share of hedged GETs stays within the budget. Counters are exposed as an MXBean under
+ * {@link S3DirectThrottle#JMX_DOMAIN}
+ */
+public class S3DirectHedge implements Serializable {
+    static final int MIN_SAMPLES = 32;
+    // throughput is sampled each time this many bytes are read from a stream
+    static final long THROUGHPUT_WINDOW = 1024L * 1024;
+
+    static final Samples TTFB = new Samples();
+    static final Samples THROUGHPUT = new Samples();
+    static final Stats STATS = new Stats();
+
+    static final ExecutorService POOL = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "s3direct-hedge");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final double percentile;
+    private final double budget;
+
+    public S3DirectHedge(double percentile, double budget) {
+        this.percentile = percentile;
+        this.budget = budget;
+    }
+
+    /**
+     * @return nanos to wait for the first byte before hedging, or -1 if not enough samples yet
+     */
+    long ttfbThreshold() {
+        return TTFB.percentile(percentile);
+    }
+
+    /**
+     * @return bytes per second below which a read is hedged, or -1 if not enough samples yet
+     */
+    long throughputThreshold() {
+        return THROUGHPUT.percentile(100.D - percentile);
+    }
+
+    boolean allow() {
+        long gets = STATS.gets.get();
+        if (STATS.hedges.get() < budget * gets) {
+            STATS.hedges.incrementAndGet();
+            return true;
+        }
+
+        return false;
+    }
+
+    static class Samples {
+        private static final int SIZE = 1024;
+
+        private final long[] ring = new long[SIZE];
+        private int count = 0;
+
+        private long[] sorted = null;
+
+        synchronized void add(long sample) {
+            ring[count % SIZE] = sample;
+            count++;
+
+            if ((count % MIN_SAMPLES) == 0) {
+                sorted = null;
+            }
+        }
+
+        synchronized long percentile(double p) {
+            if (count < MIN_SAMPLES) {
+                return -1L;
+            }
+
+            if (sorted == null) {
+                sorted = Arrays.copyOf(ring, Math.min(count, SIZE));
+                Arrays.sort(sorted);
+            }
+
+            int i = (int) Math.ceil(p / 100.D * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(i, sorted.length - 1))];
+        }
+    }
+
+    public interface StatsMXBean {
+        long getGets();
+
+        long getHedges();
+
+        long getHedgeWins();
+    }
+
+    static class Stats implements StatsMXBean {
+        final AtomicLong gets = new AtomicLong();
+        final AtomicLong hedges = new AtomicLong();
+        final AtomicLong hedgeWins = new AtomicLong();
+
+        Stats() {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                        new ObjectName(S3DirectThrottle.JMX_DOMAIN + ":type=S3DirectHedge"));
+            } catch (Exception ignore) {
+            }
+        }
+
+        @Override
+        public long getGets() {
+            return gets.get();
+        }
+
+        @Override
+        public long getHedges() {
+            return hedges.get();
+        }
+
+        @Override
+        public long getHedgeWins() {
+            return hedgeWins.get();
+        }
+    }
+}
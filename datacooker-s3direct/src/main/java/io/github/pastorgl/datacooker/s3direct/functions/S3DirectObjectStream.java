@@ -0,0 +1,290 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import io.github.pastorgl.datacooker.s3direct.S3DirectThrottle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Content of an S3 object, which tracks its read offset, so it can re-issue a ranged GET from the
+ * current position. If connection breaks mid-read, the stream transparently continues from the offset
+ * over a new connection, up to {@link #MAX_RETRIES} times in a row, as long as the object's ETag is the same.
+ * With a {@link S3DirectHedge} policy, GETs that are slow to respond or to read are hedged. Only the time
+ * spent in the request itself counts, not the wait for {@link S3DirectThrottle}'s permit, nor the time the
+ * consumer spends between reads
+ */
+public class S3DirectObjectStream extends InputStream {
+    static final int MAX_RETRIES = 5;
+    static final long RETRY_DELAY = 200L;
+
+    private final AmazonS3 s3;
+    private final String bucket;
+    private final String key;
+    private final S3DirectHedge hedge;
+
+    private S3Object object;
+    private InputStream content;
+    private long offset = 0L;
+    private long length = -1L;
+    private String eTag = null;
+
+    private long windowNanos = 0L;
+    private long windowBytes = 0L;
+
+    private int hedges = 0;
+
+    public S3DirectObjectStream(AmazonS3 s3, String bucket, String key, S3DirectHedge hedge) throws IOException {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.key = key;
+        this.hedge = hedge;
+
+        open();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int len = read(one, 0, 1);
+        return (len < 0) ? -1 : (one[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        for (int retry = 0; ; retry++) {
+            try {
+                long start = System.nanoTime();
+                int read = content.read(b, off, len);
+                if (read > 0) {
+                    offset += read;
+                    checkThroughput(read, System.nanoTime() - start);
+                }
+
+                return read;
+            } catch (IOException | SdkClientException e) {
+                retry = reconnect(retry, e);
+                if (offset >= length) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        for (int retry = 0; ; retry++) {
+            try {
+                long skipped = content.skip(n);
+                offset += skipped;
+                return skipped;
+            } catch (IOException | SdkClientException e) {
+                retry = reconnect(retry, e);
+                if (offset >= length) {
+                    return 0L;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return content.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (hedges > 0) {
+            System.out.println("S3 object " + key + " read with " + hedges + " hedged GET(s)");
+        }
+
+        object.close();
+    }
+
+    /**
+     * @return number of the last retry, as failed GETs of the reconnect count too
+     */
+    private int reconnect(int retry, Exception e) throws IOException {
+        if ((retry >= MAX_RETRIES) || (eTag == null)) {
+            throw (e instanceof IOException) ? (IOException) e : new IOException(e);
+        }
+
+        System.out.println("S3 object " + key + " read failed at offset " + offset + " (" + e.getMessage()
+                + "), retrying from it");
+        abort(object);
+
+        if (offset >= length) {
+            return retry;
+        }
+
+        for (; ; retry++) {
+            try {
+                Thread.sleep(RETRY_DELAY << retry);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while retrying S3 object " + key, ie);
+            }
+
+            try {
+                open();
+                return retry;
+            } catch (ChangedException ce) {
+                throw ce;
+            } catch (IOException | SdkClientException oe) {
+                if (retry + 1 >= MAX_RETRIES) {
+                    throw (oe instanceof IOException) ? (IOException) oe : new IOException(oe);
+                }
+                System.out.println("S3 object " + key + " GET from offset " + offset + " failed (" + oe.getMessage()
+                        + "), retrying");
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        GetObjectRequest request = new GetObjectRequest(bucket, key);
+        if (offset > 0L) {
+            request.setRange(offset);
+        }
+        if (eTag != null) {
+            // fail rather than mix content of different object versions
+            request.withMatchingETagConstraint(eTag);
+        }
+
+        object = get(request);
+        if (object == null) {
+            throw new ChangedException("S3 object " + key + " has changed while being read");
+        }
+        content = object.getObjectContent();
+
+        if (eTag == null) {
+            eTag = object.getObjectMetadata().getETag();
+            length = object.getObjectMetadata().getInstanceLength();
+        }
+
+        windowNanos = 0L;
+        windowBytes = 0L;
+    }
+
+    private void checkThroughput(int read, long nanos) throws IOException {
+        if (hedge == null) {
+            return;
+        }
+
+        windowBytes += read;
+        windowNanos += nanos;
+        if (windowBytes < S3DirectHedge.THROUGHPUT_WINDOW) {
+            return;
+        }
+
+        long throughput = windowBytes * 1_000_000_000L / Math.max(1L, windowNanos);
+        long threshold = hedge.throughputThreshold();
+        S3DirectHedge.THROUGHPUT.add(throughput);
+
+        if ((threshold > 0L) && (throughput < threshold) && hedge.allow()) {
+            // this connection is slow, so continue from current offset over a new one
+            hedges++;
+            S3Object slow = object;
+            open();
+            abort(slow);
+        } else {
+            windowNanos = 0L;
+            windowBytes = 0L;
+        }
+    }
+
+    private S3Object get(GetObjectRequest request) throws IOException {
+        S3DirectHedge.STATS.gets.incrementAndGet();
+
+        if (hedge == null) {
+            return s3.getObject(request);
+        }
+
+        CompletableFuture<Long> sent = S3DirectThrottle.sent(request);
+        CompletableFuture<S3Object> first = timedGet(request, sent);
+        long threshold = hedge.ttfbThreshold();
+        try {
+            if (threshold < 0L) {
+                return first.get();
+            }
+
+            // time spent waiting for the throttle isn't counted against the threshold
+            CompletableFuture.anyOf(sent, first).get();
+            try {
+                return first.get(threshold, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (!hedge.allow()) {
+                    return first.get();
+                }
+            }
+
+            hedges++;
+            GetObjectRequest hedged = (GetObjectRequest) request.clone();
+            CompletableFuture<S3Object> second = timedGet(hedged, S3DirectThrottle.sent(hedged));
+
+            CompletableFuture<S3Object> winner = new CompletableFuture<>();
+            AtomicInteger failures = new AtomicInteger();
+            first.whenComplete((o, t) -> race(winner, failures, o, t));
+            second.whenComplete((o, t) -> {
+                if (race(winner, failures, o, t)) {
+                    S3DirectHedge.STATS.hedgeWins.incrementAndGet();
+                }
+            });
+
+            return winner.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while opening S3 object " + key, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to open S3 object " + key, e.getCause());
+        }
+    }
+
+    private CompletableFuture<S3Object> timedGet(GetObjectRequest request, CompletableFuture<Long> sent) {
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            S3Object o = s3.getObject(request);
+            S3DirectHedge.TTFB.add(System.nanoTime() - sent.getNow(start));
+            return o;
+        }, S3DirectHedge.POOL);
+    }
+
+    private static boolean race(CompletableFuture<S3Object> winner, AtomicInteger failures, S3Object o, Throwable t) {
+        if (t == null) {
+            if (winner.complete(o)) {
+                return true;
+            }
+            abort(o);
+        } else if (failures.incrementAndGet() == 2) {
+            winner.completeExceptionally(t);
+        }
+
+        return false;
+    }
+
+    private static void abort(S3Object o) {
+        try {
+            o.getObjectContent().abort();
+            o.close();
+        } catch (Exception ignore) {
+        }
+    }
+
+    // content of the object can't be continued from another version of it, so it's never retried
+    private static class ChangedException extends IOException {
+        ChangedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -4,57 +4,183 @@
  */
 package io.github.pastorgl.datacooker.s3direct.functions;
 
-import alex.mojaki.s3upload.MultiPartOutputStream;
-import alex.mojaki.s3upload.StreamTransferManager;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
-import com.amazonaws.services.s3.model.ObjectMetadata;
 import io.github.pastorgl.datacooker.data.DataRecord;
 import io.github.pastorgl.datacooker.storage.hadoop.HadoopStorage;
 import io.github.pastorgl.datacooker.storage.hadoop.output.functions.ColumnarParquetOutputFunction;
 import io.github.pastorgl.datacooker.s3direct.S3DirectStorage;
-import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import scala.Tuple2;
 
-import java.io.InputStream;
-import java.util.Iterator;
+import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class S3DirectParquetOutputFunction extends ColumnarParquetOutputFunction {
+public class S3DirectParquetOutputFunction extends ColumnarParquetOutputFunction implements BatchPartWriter {
     private static final int BUFFER_SIZE = 5 * 1024 * 1024;
     private final String accessKey;
     private final String secretKey;
+    private final boolean throttle;
 
     private final String contentType;
     private final String endpoint;
     private final String region;
     private final Path _tmp;
-
-    public S3DirectParquetOutputFunction(String _name, String outputPath, HadoopStorage.Codec codec, String hadoopConf, String[] _columns, String endpoint, String region, String accessKey, String secretKey, String tmpDir, String contentType) {
+    private final String progressDir;
+    private final Integer codecLevel;
+    private final String[] columns;
+    private final String[] partitionBy;
+    private final int maxOpenPartitions;
+    private final long spillMemory;
+    private final RecordOrder order;
+
+    public S3DirectParquetOutputFunction(String _name, String outputPath, HadoopStorage.Codec codec, String hadoopConf, String[] _columns, String endpoint, String region, String accessKey, String secretKey, boolean throttle, String tmpDir, String contentType, String progressDir, Integer codecLevel, String[] partitionBy, int maxOpenPartitions, long spillMemory, RecordOrder order) {
         super(_name, outputPath, codec, hadoopConf, _columns);
 
         this.endpoint = endpoint;
         this.region = region;
         this.secretKey = secretKey;
+        this.throttle = throttle;
         this.accessKey = accessKey;
         this.contentType = contentType;
 
         this._tmp = new Path(tmpDir);
+        this.progressDir = progressDir;
+        this.codecLevel = codecLevel;
+        this.columns = _columns;
+        this.partitionBy = partitionBy;
+        this.maxOpenPartitions = maxOpenPartitions;
+        this.spillMemory = spillMemory;
+        this.order = order;
     }
 
     @Override
-    protected void writePart(Configuration conf, int idx, Iterator<Tuple2<Object, DataRecord<?>>> it) throws Exception {
+    protected void writePart(Configuration conf, int idx, Iterator<Tuple2<Object, DataRecord<?>>> records) throws Exception {
+        // partitioned records are sorted by partition first, so each partition's part is written at once
+        RecordSorter<RecordOrder.Key> sorter = (order == null) ? null : order.sorter(partitionBy, spillMemory);
+
+        try {
+            if (partitionBy != null) {
+                Set<String> written = new LinkedHashSet<>();
+                PartitionedWriter writer = new PartitionedWriter(partitionBy, maxOpenPartitions, spillMemory, 0L, new PartitionedWriter.Sinks() {
+                    @Override
+                    public PartitionedWriter.Sink open(String partition) {
+                        return partitionSink(conf, partition, idx, written);
+                    }
+
+                    // run of a partition is streamed right into its part
+                    @Override
+                    public void write(String partition, Iterator<DataRecord<?>> run) throws Exception {
+                        written.add(writePart(conf, partition, idx, path -> writeToParquetFile(conf, RecordSorter.tuples(run), path)));
+                    }
+                });
+                if (sorter == null) {
+                    writer.write(records);
+                } else {
+                    writer.writeSorted(sorter.sort(records));
+                }
+
+                Matcher m = Pattern.compile(S3DirectStorage.PATH_PATTERN).matcher(outputPath);
+                m.matches();
+                PartProgress.replaceTaskParts(conf, progressDir, S3DirectStorage.get(endpoint, region, accessKey, secretKey, throttle),
+                        m.group(1), m.group(1) + "/" + m.group(2) + "/" + sub + "#" + idx, written);
+                return;
+            }
+
+            Iterator<Tuple2<Object, DataRecord<?>>> it = (sorter == null) ? records : RecordSorter.unkeyed(sorter.sort(records));
+            writePart(conf, null, idx, path -> writeToParquetFile(conf, it, path));
+        } finally {
+            if (sorter != null) {
+                sorter.close();
+            }
+        }
+    }
+
+    // Parquet file is written at once, so records of a partition are buffered in their order until the end of
+    // unsorted input, spilling to local disk over their share of memory
+    private PartitionedWriter.Sink partitionSink(Configuration conf, String partition, int idx, Set<String> written) {
+        RecordSorter<RecordOrder.Key> buffer = new RecordSorter<>(null, spillMemory / Math.max(1, maxOpenPartitions));
+
+        return new PartitionedWriter.Sink() {
+            @Override
+            public void write(DataRecord<?> rec) throws Exception {
+                buffer.add(rec);
+            }
+
+            @Override
+            public void finish() throws Exception {
+                try {
+                    Iterator<Tuple2<RecordOrder.Key, DataRecord<?>>> records = buffer.sorted();
+                    written.add(writePart(conf, partition, idx, path -> writeToParquetFile(conf, RecordSorter.unkeyed(records), path)));
+                } finally {
+                    buffer.close();
+                }
+            }
+
+            @Override
+            public void abort() {
+                buffer.close();
+            }
+        };
+    }
+
+    @Override
+    public void writeBatches(Configuration conf, int idx, BatchReader batches) throws Exception {
+        writePart(conf, null, idx, path -> {
+            ParquetBatchWriter writer = null;
+            try {
+                for (VectorSchemaRoot root; (root = batches.next()) != null; ) {
+                    if (writer == null) {
+                        writer = new ParquetBatchWriter(conf, path, root.getSchema(), columns, codec);
+                    }
+                    writer.write(root);
+                }
+            } finally {
+                if (writer != null) {
+                    writer.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Transcode delimited text lines into the part, field by field
+     */
+    public void writeFields(Configuration conf, int idx, TextFields fields) throws Exception {
+        // columns are known after the first line is read
+        String[] first = fields.next();
+        if (first == null) {
+            System.out.println("Source objects of part " + idx + " have no lines, skipping");
+            return;
+        }
+
+        writePart(conf, null, idx, path -> {
+            try (ParquetTextWriter writer = new ParquetTextWriter(conf, path, fields.columns(), codec)) {
+                for (String[] line = first; line != null; line = fields.next()) {
+                    writer.write(line);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return key of the part. Records of a partition part depend on which records the task gets, so it's always
+     * written anew, and neither a part already written by a previous run nor a part file of a failed attempt is reused
+     */
+    private String writePart(Configuration conf, String partition, int idx, PartFile partFile) throws Exception {
         Matcher m = Pattern.compile(S3DirectStorage.PATH_PATTERN).matcher(outputPath);
         m.matches();
 
         final String bucket = m.group(1);
         String key = m.group(2);
 
-        String partName = (sub.isEmpty() ? "" : ("/" + sub)) + "/" + String.format("part-%05d", idx);
+        String partName = (sub.isEmpty() ? "" : ("/" + sub)) + ((partition == null) ? "" : ("/" + partition))
+                + "/" + String.format("part-%05d", idx);
         if (codec != HadoopStorage.Codec.NONE) {
             partName += "." + codec.name().toLowerCase();
         }
@@ -62,37 +188,60 @@ public class S3DirectParquetOutputFunction extends ColumnarParquetOutputFunction
         key = key.substring(0, key.lastIndexOf("/"));
         key += partName;
 
-        System.out.println("Writing S3 object " + key);
-
-        AmazonS3 _s3 = S3DirectStorage.get(endpoint, region, accessKey, secretKey);
-
-        StreamTransferManager stm = new StreamTransferManager(bucket, key, _s3) {
-            @Override
-            public void customiseInitiateRequest(InitiateMultipartUploadRequest request) {
-                ObjectMetadata om = new ObjectMetadata();
-                om.setContentType(contentType);
-                request.setObjectMetadata(om);
-            }
-        };
-
-        MultiPartOutputStream outputStream = stm.numStreams(1)
-                .numUploadThreads(1)
-                .queueCapacity(1)
-                .partSize(15)
-                .getMultiPartOutputStreams().get(0);
+        AmazonS3 _s3 = S3DirectStorage.get(endpoint, region, accessKey, secretKey, throttle);
 
-        Path tmpPath = new Path(_tmp + "/" + RandomStringUtils.randomAlphanumeric(16) + "/" + partName);
+        boolean partitioned = partition != null;
+        if (!partitioned && PartProgress.completed(conf, progressDir, _s3, bucket, key)) {
+            System.out.println("S3 object " + key + " is already written, skipping");
+            return key;
+        }
 
-        writeToParquetFile(conf, it, tmpPath);
+        System.out.println("Writing S3 object " + key);
 
+        // part file is kept under tmp until uploaded, so a retried attempt of the same job needn't write it again
+        Path sharedPath = TaskState.path(_tmp.toString(), "dist-parts", bucket, key, ".parquet");
+        Path tmpPath = TaskState.own(sharedPath);
         FileSystem tmpFs = tmpPath.getFileSystem(conf);
-        InputStream inputStream = tmpFs.open(tmpPath, BUFFER_SIZE);
 
-        int len;
-        for (byte[] buffer = new byte[BUFFER_SIZE]; (len = inputStream.read(buffer)) > 0; ) {
-            outputStream.write(buffer, 0, len);
+        boolean written = !partitioned && TaskState.claim(tmpFs, sharedPath);
+        if (!written) {
+            Path writingPath = tmpPath.suffix(".writing");
+            tmpFs.delete(writingPath, false);
+            S3DirectCodecs.setLevel(conf, codecLevel);
+            partFile.write(writingPath);
+            tmpFs.rename(writingPath, tmpPath);
+        }
+
+        // object becomes visible only after the upload is completed, so a failed part is never observed.
+        // if the task is retried in the same job, its upload continues from the last part uploaded by failed attempt
+        ResumableUpload upload = ResumableUpload.open(_s3, bucket, key, contentType, conf, _tmp.toString(), !written);
+        try (FSDataInputStream inputStream = tmpFs.open(tmpPath, BUFFER_SIZE)) {
+            long offset = upload.offset();
+            inputStream.seek(offset);
+
+            byte[] buffer = new byte[ResumableUpload.PART_SIZE];
+            for (int len; (len = IOUtils.read(inputStream, buffer)) > 0; ) {
+                offset += len;
+                upload.uploadPart(buffer, len, offset, 0L);
+            }
+            upload.complete();
+        } catch (Exception e) {
+            if (upload.failed() || partitioned) {
+                tmpFs.delete(tmpPath, false);
+            } else {
+                TaskState.release(tmpFs, sharedPath);
+            }
+            throw e;
         }
-        outputStream.close();
         tmpFs.delete(tmpPath, false);
+
+        if (!partitioned) {
+            PartProgress.record(conf, progressDir, key, _s3.getObjectMetadata(bucket, key));
+        }
+        return key;
+    }
+
+    private interface PartFile {
+        void write(Path path) throws Exception;
     }
 }
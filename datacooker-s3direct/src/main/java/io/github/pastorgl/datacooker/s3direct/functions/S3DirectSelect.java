@@ -0,0 +1,366 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import io.github.pastorgl.datacooker.data.Columnar;
+import io.github.pastorgl.datacooker.data.DataRecord;
+import io.github.pastorgl.datacooker.storage.hadoop.input.functions.RecordInputStream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Projection and conjunction of simple 'column op value' predicates over a columnar S3 object. If pushdown is
+ * allowed, they're evaluated by storage's SelectObjectContent, otherwise (or if object or endpoint doesn't
+ * support Select) the object is read as usual and predicates are evaluated locally. Numeric predicates are
+ * always evaluated locally, because Select fails the whole object on the first value which isn't a number,
+ * while locally such a record just doesn't match
+ */
+public class S3DirectSelect implements Serializable {
+    private static final Pattern PREDICATE = Pattern.compile("^\\s*(.+?)\\s*(=|<>|!=|<=|>=|<|>)\\s*(.*?)\\s*$");
+    // plain decimal notation only, no NaN, Infinity, hex or type suffixes that Java would also parse
+    private static final Pattern NUMBER = Pattern.compile("^[-+]?(\\d+\\.?\\d*|\\.\\d+)([eE][-+]?\\d+)?$");
+
+    private final boolean pushdown;
+    private final List<Predicate> predicates = new ArrayList<>();
+
+    // set once endpoint has told it doesn't implement Select, to not ask it again for each object
+    private transient boolean unsupported = false;
+
+    public S3DirectSelect(boolean pushdown, Object[] where) {
+        this.pushdown = pushdown;
+
+        if (where != null) {
+            for (Object w : where) {
+                Matcher m = PREDICATE.matcher(String.valueOf(w));
+                if (!m.matches()) {
+                    throw new IllegalArgumentException("Predicate '" + w + "' is not in the form of 'column op value'");
+                }
+
+                predicates.add(new Predicate(m.group(1), m.group(2), m.group(3)));
+            }
+        }
+    }
+
+    String[] localColumns(String[] projection) {
+        LinkedHashSet<String> read = new LinkedHashSet<>(Arrays.asList(projection));
+        for (Predicate p : predicates) {
+            if (p.number != null) {
+                read.add(p.column);
+            }
+        }
+
+        return read.toArray(new String[0]);
+    }
+
+    public List<String> whereColumns() {
+        List<String> ret = new ArrayList<>();
+        for (Predicate p : predicates) {
+            if (!ret.contains(p.column)) {
+                ret.add(p.column);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return columns to read from the object to evaluate the predicates locally, or null for all
+     */
+    public String[] readColumns(String[] columns) {
+        if (columns == null) {
+            return null;
+        }
+
+        LinkedHashSet<String> read = new LinkedHashSet<>(Arrays.asList(columns));
+        read.addAll(whereColumns());
+        return read.toArray(new String[0]);
+    }
+
+    /**
+     * @return stream of records selected by the storage, or null if Select can't be used for this object
+     */
+    public RecordInputStream open(AmazonS3 s3, String bucket, String key, String suffix, boolean fromFile, String[] schema,
+                                  String[] columns, char delimiter) throws IOException {
+        if (!pushdown || unsupported) {
+            return null;
+        }
+
+        boolean parquet = "parquet".equalsIgnoreCase(suffix);
+        // Parquet columns are always named, and schema is for delimited text only
+        boolean named = parquet || fromFile;
+
+        String[] projection = (columns != null) ? columns : (named ? null : schema);
+        if (projection == null) {
+            System.out.println("S3 Select can't project S3 object " + key + " without known columns, reading it as is");
+            return null;
+        }
+
+        InputSerialization input = new InputSerialization();
+        if (parquet) {
+            input.setParquet(new ParquetInput());
+        } else {
+            CompressionType compression;
+            if ((suffix == null) || suffix.isEmpty() || "csv".equalsIgnoreCase(suffix) || "tsv".equalsIgnoreCase(suffix)
+                    || "txt".equalsIgnoreCase(suffix)) {
+                compression = CompressionType.NONE;
+            } else if ("gz".equalsIgnoreCase(suffix)) {
+                compression = CompressionType.GZIP;
+            } else if ("bz2".equalsIgnoreCase(suffix)) {
+                compression = CompressionType.BZIP2;
+            } else {
+                System.out.println("S3 Select doesn't support codec of S3 object " + key + ", reading it as is");
+                return null;
+            }
+
+            input.setCsv(new CSVInput()
+                    .withFieldDelimiter(delimiter)
+                    .withFileHeaderInfo(fromFile ? FileHeaderInfo.USE : FileHeaderInfo.NONE));
+            input.setCompressionType(compression);
+        }
+
+        OutputSerialization output = new OutputSerialization();
+        output.setCsv(new CSVOutput()
+                .withFieldDelimiter(delimiter)
+                .withRecordDelimiter('\n')
+                .withQuoteFields(QuoteFields.ASNEEDED));
+
+        // columns of numeric predicates are selected too, to evaluate them locally
+        String[] selectColumns = localColumns(projection);
+        String expression = expression(named, schema, selectColumns);
+
+        SelectObjectContentRequest request = new SelectObjectContentRequest();
+        request.setBucketName(bucket);
+        request.setKey(key);
+        request.setExpression(expression);
+        request.setExpressionType(ExpressionType.SQL);
+        request.setInputSerialization(input);
+        request.setOutputSerialization(output);
+
+        SelectObjectContentResult result = null;
+        try {
+            result = s3.selectObjectContent(request);
+
+            AtomicBoolean ended = new AtomicBoolean();
+            InputStream records = result.getPayload().getRecordsInputStream(new SelectObjectContentEventVisitor() {
+                @Override
+                public void visit(SelectObjectContentEvent.EndEvent event) {
+                    ended.set(true);
+                }
+            });
+
+            // errors of unsupported features come before any records, so surface them here to fall back
+            PushbackInputStream selected = new PushbackInputStream(new FilterInputStream(records) {
+                @Override
+                public int read() throws IOException {
+                    return checkEnd(super.read());
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return checkEnd(super.read(b, off, len));
+                }
+
+                private int checkEnd(int read) throws IOException {
+                    if ((read < 0) && !ended.get()) {
+                        throw new IOException("S3 Select response for S3 object " + key + " is truncated");
+                    }
+                    return read;
+                }
+            });
+            int first = selected.read();
+            if (first >= 0) {
+                selected.unread(first);
+            }
+
+            System.out.println("S3 Select of S3 object " + key + ": " + expression);
+            return selected(selected, delimiter, selectColumns, projection);
+        } catch (SdkClientException e) {
+            if (result != null) {
+                result.close();
+            }
+
+            if ((e instanceof AmazonS3Exception) && (((AmazonS3Exception) e).getStatusCode() == 501)) {
+                unsupported = true;
+            }
+
+            System.out.println("S3 Select of S3 object " + key + " has failed (" + e.getMessage() + "), reading it as is");
+            return null;
+        }
+    }
+
+    /**
+     * Records of Select output, which has already passed text predicates but not numeric ones
+     */
+    RecordInputStream selected(InputStream selected, char delimiter, String[] selectColumns, String[] projection) {
+        return filter(new S3DirectColumnarInputStream(selected, delimiter, false, null, selectColumns), projection, true);
+    }
+
+    /**
+     * Wrap a stream of records read from the object as is, to evaluate the predicates and project the result
+     */
+    public RecordInputStream filter(RecordInputStream stream, String[] columns) {
+        return filter(stream, columns, false);
+    }
+
+    private RecordInputStream filter(RecordInputStream stream, String[] columns, boolean numericOnly) {
+        return new RecordInputStream() {
+            @Override
+            public DataRecord<?> ensureRecord() throws IOException {
+                while (true) {
+                    DataRecord<?> rec = stream.ensureRecord();
+                    if (rec == null) {
+                        return null;
+                    }
+
+                    if (!matches(rec, numericOnly)) {
+                        continue;
+                    }
+
+                    if (columns == null) {
+                        return rec;
+                    }
+
+                    Object[] values = new Object[columns.length];
+                    for (int i = 0; i < columns.length; i++) {
+                        values[i] = rec.asIs(columns[i]);
+                    }
+                    return new Columnar(Arrays.asList(columns), values);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                stream.close();
+            }
+        };
+    }
+
+    /**
+     * @return true if the value matches all predicates on the column, or there are none
+     */
+    public boolean matches(String column, String value) {
+        for (Predicate p : predicates) {
+            if (p.column.equals(column) && !p.matches(value)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean matches(DataRecord<?> rec, boolean numericOnly) {
+        for (Predicate p : predicates) {
+            if (numericOnly && (p.number == null)) {
+                continue;
+            }
+            if (!p.matches(rec.asString(p.column))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    String expression(boolean named, String[] schema, String[] projection) throws IOException {
+        StringJoiner select = new StringJoiner(", ", "SELECT ", " FROM S3Object s");
+        for (String column : projection) {
+            select.add(reference(named, schema, column));
+        }
+
+        StringJoiner where = new StringJoiner(" AND ", " WHERE ", "");
+        where.setEmptyValue("");
+        for (Predicate p : predicates) {
+            if (p.number == null) {
+                where.add(p.sql(reference(named, schema, p.column)));
+            }
+        }
+
+        return select + where.toString();
+    }
+
+    // without a header, Select addresses columns only by position
+    private static String reference(boolean named, String[] schema, String column) throws IOException {
+        if (!named) {
+            for (int i = 0; i < schema.length; i++) {
+                if (schema[i].equals(column)) {
+                    return "s._" + (i + 1);
+                }
+            }
+            throw new IOException("Column '" + column + "' is not in the schema");
+        }
+
+        return "s.\"" + column.replace("\"", "\"\"") + "\"";
+    }
+
+    private static class Predicate implements Serializable {
+        private final String column;
+        private final String op;
+        private final String value;
+        private final Double number;
+
+        private Predicate(String column, String op, String value) {
+            this.column = column;
+            this.op = "!=".equals(op) ? "<>" : op;
+
+            if ((value.length() > 1) && value.startsWith("'") && value.endsWith("'")) {
+                this.value = value.substring(1, value.length() - 1).replace("''", "'");
+                this.number = null;
+            } else {
+                this.value = value;
+                this.number = number(value);
+            }
+        }
+
+        private static Double number(String value) {
+            return NUMBER.matcher(value).matches() ? Double.valueOf(value) : null;
+        }
+
+        private String sql(String reference) {
+            return reference + " " + op + " '" + value.replace("'", "''") + "'";
+        }
+
+        private boolean matches(String field) {
+            if (field == null) {
+                return false;
+            }
+
+            int cmp;
+            if (number != null) {
+                Double n = number(field.trim());
+                if (n == null) {
+                    return false;
+                }
+                cmp = Double.compare(n, number);
+            } else {
+                cmp = field.compareTo(value);
+            }
+
+            switch (op) {
+                case "=":
+                    return cmp == 0;
+                case "<>":
+                    return cmp != 0;
+                case "<":
+                    return cmp < 0;
+                case "<=":
+                    return cmp <= 0;
+                case ">":
+                    return cmp > 0;
+                default:
+                    return cmp >= 0;
+            }
+        }
+    }
+}
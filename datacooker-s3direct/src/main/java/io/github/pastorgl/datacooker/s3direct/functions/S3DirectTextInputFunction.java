@@ -10,9 +10,7 @@ import io.github.pastorgl.datacooker.storage.hadoop.HadoopStorage;
 import io.github.pastorgl.datacooker.storage.hadoop.input.functions.InputFunction;
 import io.github.pastorgl.datacooker.storage.hadoop.input.functions.RecordInputStream;
 import io.github.pastorgl.datacooker.s3direct.S3DirectStorage;
-import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.io.compress.CompressionCodec;
 
 import java.io.InputStream;
 
@@ -21,36 +19,32 @@ public class S3DirectTextInputFunction extends InputFunction {
     private final String region;
     private final String accessKey;
     private final String secretKey;
+    private final boolean throttle;
 
     private final String _bucket;
+    private final S3DirectHedge hedge;
 
-    public S3DirectTextInputFunction(String endpoint, String region, String accessKey, String secretKey, String bucket, Configuration hadoopConf, Partitioning partitioning) {
+    public S3DirectTextInputFunction(String endpoint, String region, String accessKey, String secretKey, boolean throttle, String bucket, S3DirectHedge hedge, Configuration hadoopConf, Partitioning partitioning) {
         super(hadoopConf, partitioning);
 
         this.endpoint = endpoint;
         this.region = region;
         this.accessKey = accessKey;
         this.secretKey = secretKey;
+        this.throttle = throttle;
 
         this._bucket = bucket;
+        this.hedge = hedge;
     }
 
     @Override
     protected RecordInputStream recordStream(String inputFile) throws Exception {
         String suffix = HadoopStorage.suffix(inputFile);
 
-        AmazonS3 _s3 = S3DirectStorage.get(endpoint, region, accessKey, secretKey);
-        InputStream inputStream = _s3.getObject(_bucket, inputFile).getObjectContent();
+        AmazonS3 _s3 = S3DirectStorage.get(endpoint, region, accessKey, secretKey, throttle);
+        InputStream inputStream = new S3DirectObjectStream(_s3, _bucket, inputFile, hedge);
 
-        HadoopStorage.Codec codec = HadoopStorage.Codec.lookup(suffix);
-
-        Class<? extends CompressionCodec> codecClass = codec.codec;
-        if (codecClass != null) {
-            CompressionCodec cc = codecClass.getDeclaredConstructor().newInstance();
-            ((Configurable) cc).setConf(hadoopConf);
-
-            inputStream = cc.createInputStream(inputStream);
-        }
+        inputStream = S3DirectCodecs.decompress(HadoopStorage.Codec.lookup(suffix), inputStream, hadoopConf);
 
         return new PlainTextStream(inputStream);
     }
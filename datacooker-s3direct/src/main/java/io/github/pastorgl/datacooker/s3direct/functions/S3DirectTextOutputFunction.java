@@ -4,73 +4,257 @@
  */
 package io.github.pastorgl.datacooker.s3direct.functions;
 
-import alex.mojaki.s3upload.MultiPartOutputStream;
-import alex.mojaki.s3upload.StreamTransferManager;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
-import com.amazonaws.services.s3.model.ObjectMetadata;
 import io.github.pastorgl.datacooker.data.DataRecord;
 import io.github.pastorgl.datacooker.storage.hadoop.HadoopStorage;
 import io.github.pastorgl.datacooker.storage.hadoop.output.functions.HadoopTextOutputFunction;
 import io.github.pastorgl.datacooker.s3direct.S3DirectStorage;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
 import org.apache.hadoop.conf.Configuration;
 import scala.Tuple2;
 
-import java.util.Iterator;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class S3DirectTextOutputFunction extends HadoopTextOutputFunction {
+public class S3DirectTextOutputFunction extends HadoopTextOutputFunction implements BatchPartWriter {
     private final String accessKey;
     private final String secretKey;
+    private final boolean throttle;
 
     private final String contentType;
     private final String endpoint;
     private final String region;
+    private final String tmpDir;
+    private final String progressDir;
+    private final Integer codecLevel;
+    private final Integer compressionThreads;
 
-    public S3DirectTextOutputFunction(String _name, String outputPath, HadoopStorage.Codec codec, String hadoopConf, String[] _columns, char _delimiter, String endpoint, String region, String accessKey, String secretKey, String contentType) {
+    private final String[] columns;
+    private final char delimiter;
+    private final String[] partitionBy;
+    private final int maxOpenPartitions;
+    private final long spillMemory;
+    private final RecordOrder order;
+
+    public S3DirectTextOutputFunction(String _name, String outputPath, HadoopStorage.Codec codec, String hadoopConf, String[] _columns, char _delimiter, String endpoint, String region, String accessKey, String secretKey, boolean throttle, String tmpDir, String contentType, String progressDir, Integer codecLevel, Integer compressionThreads, String[] partitionBy, int maxOpenPartitions, long spillMemory, RecordOrder order) {
         super(_name, outputPath, codec, hadoopConf, _columns, _delimiter);
 
         this.endpoint = endpoint;
         this.region = region;
         this.secretKey = secretKey;
+        this.throttle = throttle;
         this.accessKey = accessKey;
         this.contentType = contentType;
+        this.tmpDir = tmpDir;
+        this.progressDir = progressDir;
+        this.codecLevel = codecLevel;
+        this.compressionThreads = compressionThreads;
+
+        this.columns = _columns;
+        this.delimiter = _delimiter;
+        this.partitionBy = partitionBy;
+        this.maxOpenPartitions = maxOpenPartitions;
+        this.spillMemory = spillMemory;
+        this.order = order;
     }
 
     @Override
-    protected void writePart(Configuration conf, int idx, Iterator<Tuple2<Object, DataRecord<?>>> it) throws Exception {
+    protected void writePart(Configuration conf, int idx, Iterator<Tuple2<Object, DataRecord<?>>> records) throws Exception {
+        // partitioned records are sorted by partition first, so each partition's part is written at once
+        RecordSorter<RecordOrder.Key> sorter = (order == null) ? null : order.sorter(partitionBy, spillMemory);
+
+        try {
+            if (partitionBy != null) {
+                Matcher m = Pattern.compile(S3DirectStorage.PATH_PATTERN).matcher(outputPath);
+                m.matches();
+
+                // sorted input has only one sink open at a time, so it needn't be compact
+                boolean compact = sorter == null;
+                Set<String> written = new LinkedHashSet<>();
+                PartitionedWriter writer = new PartitionedWriter(partitionBy, maxOpenPartitions, spillMemory, TextPartWriter.COMPACT_MEMORY,
+                        partition -> partitionSink(conf, m.group(1), m.group(2) + partName(partition, idx), written, compact));
+                if (sorter == null) {
+                    writer.write(records);
+                } else {
+                    writer.writeSorted(sorter.sort(records));
+                }
+
+                PartProgress.replaceTaskParts(conf, progressDir, S3DirectStorage.get(endpoint, region, accessKey, secretKey, throttle),
+                        m.group(1), m.group(1) + "/" + m.group(2) + "/" + sub + "#" + idx, written);
+                return;
+            }
+
+            Iterator<Tuple2<Object, DataRecord<?>>> it = (sorter == null) ? records : RecordSorter.unkeyed(sorter.sort(records));
+            writePart(conf, idx, writer -> {
+                writer.resume(it);
+                while (it.hasNext()) {
+                    writer.write(it.next()._2);
+                }
+            });
+        } finally {
+            if (sorter != null) {
+                sorter.close();
+            }
+        }
+    }
+
+    @Override
+    public void writeBatches(Configuration conf, int idx, BatchReader batches) throws Exception {
+        writePart(conf, idx, writer -> {
+            Iterator<byte[]> lines = new BatchLines(writer, batches);
+            try {
+                writer.resumeLines(lines);
+                while (lines.hasNext()) {
+                    writer.writeLine(lines.next());
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    private void writePart(Configuration conf, int idx, PartLines partLines) throws Exception {
         Matcher m = Pattern.compile(S3DirectStorage.PATH_PATTERN).matcher(outputPath);
         m.matches();
 
         final String bucket = m.group(1);
-        String key = m.group(2);
+        String key = m.group(2) + partName(null, idx);
 
-        String partName = (sub.isEmpty() ? "" : ("/" + sub)) + "/" + String.format("part-%05d", idx);
-        if (codec != HadoopStorage.Codec.NONE) {
-            partName += "." + codec.name().toLowerCase();
+        AmazonS3 _s3 = S3DirectStorage.get(endpoint, region, accessKey, secretKey, throttle);
+
+        if (PartProgress.completed(conf, progressDir, _s3, bucket, key)) {
+            System.out.println("S3 object " + key + " is already written, skipping");
+            return;
         }
-        key += partName;
 
         System.out.println("Writing S3 object " + key);
 
-        AmazonS3 _s3 = S3DirectStorage.get(endpoint, region, accessKey, secretKey);
+        // object becomes visible only after the upload is completed, so a failed part is never observed.
+        // if the task is retried in the same job, its upload continues from the last part uploaded by failed attempt
+        ResumableUpload upload = ResumableUpload.open(_s3, bucket, key, contentType, conf, tmpDir, false);
+        try (TextPartWriter writer = new TextPartWriter(upload, codec, codecLevel, conf, columns, delimiter, compressionThreads)) {
+            partLines.write(writer);
+            writer.finish();
+        } catch (Exception e) {
+            upload.failed();
+            throw e;
+        }
+
+        PartProgress.record(conf, progressDir, key, _s3.getObjectMetadata(bucket, key));
+    }
+
+    // records of a partition part depend on which records the task gets, so a part is always written anew,
+    // and written keys are recorded to delete the ones which a previous run has written, but this one doesn't
+    private PartitionedWriter.Sink partitionSink(Configuration conf, String bucket, String key, Set<String> written, boolean compact) throws IOException {
+        AmazonS3 _s3 = S3DirectStorage.get(endpoint, region, accessKey, secretKey, throttle);
+
+        System.out.println("Writing S3 object " + key);
+
+        ResumableUpload upload = ResumableUpload.open(_s3, bucket, key, contentType, conf, tmpDir, true);
+        TextPartWriter writer = new TextPartWriter(upload, codec, codecLevel, conf, columns, delimiter, compressionThreads, compact);
+        written.add(key);
+
+        return new PartitionedWriter.Sink() {
+            @Override
+            public void write(DataRecord<?> rec) throws Exception {
+                writer.write(rec);
+            }
 
-        StreamTransferManager stm = new StreamTransferManager(bucket, key, _s3) {
             @Override
-            public void customiseInitiateRequest(InitiateMultipartUploadRequest request) {
-                ObjectMetadata om = new ObjectMetadata();
-                om.setContentType(contentType);
-                request.setObjectMetadata(om);
+            public void finish() throws Exception {
+                try {
+                    writer.finish();
+                } catch (Exception e) {
+                    abort();
+                    throw e;
+                }
+                writer.close();
+            }
+
+            @Override
+            public void abort() {
+                writer.close();
+                try {
+                    upload.failed();
+                } catch (IOException ignore) {
+                }
             }
         };
+    }
+
+    private String partName(String partition, int idx) {
+        String partName = (sub.isEmpty() ? "" : ("/" + sub)) + ((partition == null) ? "" : ("/" + partition))
+                + "/" + String.format("part-%05d", idx);
+        if (codec != HadoopStorage.Codec.NONE) {
+            partName += "." + codec.name().toLowerCase();
+        }
+        return partName;
+    }
+
+    private interface PartLines {
+        void write(TextPartWriter writer) throws IOException;
+    }
 
-        MultiPartOutputStream outputStream = stm.numStreams(1)
-                .numUploadThreads(1)
-                .queueCapacity(1)
-                .partSize(15)
-                .getMultiPartOutputStreams().get(0);
+    // lines of batch rows, in their order
+    private class BatchLines implements Iterator<byte[]> {
+        private final TextPartWriter writer;
+        private final BatchReader batches;
 
-        writeToTextFile(it, outputStream);
+        private VectorSchemaRoot root;
+        private FieldVector[] vectors;
+        private int row;
+
+        BatchLines(TextPartWriter writer, BatchReader batches) {
+            this.writer = writer;
+            this.batches = batches;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while ((root == null) || (row >= root.getRowCount())) {
+                    root = batches.next();
+                    if (root == null) {
+                        return false;
+                    }
+
+                    if (columns == null) {
+                        vectors = root.getFieldVectors().toArray(new FieldVector[0]);
+                    } else {
+                        vectors = new FieldVector[columns.length];
+                        for (int i = 0; i < columns.length; i++) {
+                            vectors[i] = root.getVector(columns[i]);
+                        }
+                    }
+                    row = 0;
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public byte[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            String[] acc = new String[vectors.length];
+            for (int i = 0; i < vectors.length; i++) {
+                acc[i] = ArrowBatches.text(vectors[i], row);
+            }
+            row++;
+
+            try {
+                return writer.line(acc);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
     }
 }
@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.spark.api.java.function.Function2;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Parses each group of delimited text objects into {@link TextFields}, and writes them as one Parquet output part
+ */
+public class S3DirectTranscodeFunction implements Function2<Integer, Iterator<List<String>>, Iterator<Object>> {
+    private final S3DirectColumnarInputFunction source;
+    private final S3DirectParquetOutputFunction dest;
+    private final String confXml;
+
+    public S3DirectTranscodeFunction(S3DirectColumnarInputFunction source, S3DirectParquetOutputFunction dest, String confXml) {
+        this.source = source;
+        this.dest = dest;
+        this.confXml = confXml;
+    }
+
+    @Override
+    public Iterator<Object> call(Integer idx, Iterator<List<String>> it) throws Exception {
+        Configuration conf = new Configuration(false);
+        conf.addResource(new ByteArrayInputStream(confXml.getBytes(StandardCharsets.UTF_8)));
+
+        while (it.hasNext()) {
+            List<String> group = it.next();
+            if (group.isEmpty()) {
+                continue;
+            }
+
+            try (TextFields fields = source.textFields(group)) {
+                dest.writeFields(conf, idx, fields);
+            }
+        }
+
+        return Collections.emptyIterator();
+    }
+}
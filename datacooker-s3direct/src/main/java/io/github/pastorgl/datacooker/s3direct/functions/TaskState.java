@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.SparkConf;
+import org.apache.spark.SparkEnv;
+import org.apache.spark.TaskContext;
+
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Location of a task's state under tmp, which only retried attempts of the same task of the same job may reuse.
+ * It is scoped by application, stage and stage attempt, so nothing left by other runs is ever picked up. Running
+ * attempt holds the state under its own name, so a concurrent speculative attempt of the task doesn't share it,
+ * and returns it under the common name on failure for the next attempt
+ */
+final class TaskState {
+    private TaskState() {
+    }
+
+    /**
+     * Common location of the state of an S3 object written by current task
+     */
+    static Path path(String tmpDir, String kind, String bucket, String key, String ext) {
+        return new Path(tmpDir, kind + "/" + scope() + "/" + DigestUtils.md5Hex(bucket + "/" + key) + ext);
+    }
+
+    /**
+     * Location of the state while held by current attempt
+     */
+    static Path own(Path path) {
+        TaskContext tc = TaskContext.get();
+        return path.suffix("." + ((tc == null) ? 0L : tc.taskAttemptId()));
+    }
+
+    /**
+     * @return true if the state is left by a previous attempt, and current attempt holds it now
+     */
+    static boolean claim(FileSystem fs, Path path) throws IOException {
+        Path own = own(path);
+        fs.delete(own, false);
+        return fs.exists(path) && fs.rename(path, own);
+    }
+
+    /**
+     * Leave the state held by current attempt for the next one
+     */
+    static void release(FileSystem fs, Path path) throws IOException {
+        Path own = own(path);
+        if (fs.exists(own)) {
+            fs.delete(path, false);
+            fs.rename(own, path);
+        }
+    }
+
+    /**
+     * @return true if no more attempts of current task will follow
+     */
+    static boolean finalAttempt() {
+        TaskContext tc = TaskContext.get();
+        SparkEnv env = SparkEnv.get();
+        if ((tc == null) || (env == null)) {
+            return true;
+        }
+
+        SparkConf conf = env.conf();
+        int maxFailures = conf.getInt("spark.task.maxFailures", 4);
+        String master = conf.get("spark.master", "");
+        if (master.startsWith("local")) {
+            // local mode retries tasks only if set as local[N,F]
+            Matcher m = Pattern.compile("local\\[[^,\\]]+,\\s*(\\d+)]").matcher(master);
+            maxFailures = m.matches() ? Integer.parseInt(m.group(1)) : 1;
+        }
+
+        return tc.attemptNumber() + 1 >= maxFailures;
+    }
+
+    private static String scope() {
+        TaskContext tc = TaskContext.get();
+        SparkEnv env = SparkEnv.get();
+        if ((tc == null) || (env == null)) {
+            return "local";
+        }
+
+        String appId = env.conf().get("spark.app.id", "app");
+        return appId.replaceAll("[^A-Za-z0-9_.-]", "_") + "-" + tc.stageId() + "." + tc.stageAttemptNumber();
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import com.opencsv.CSVParser;
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.ICSVParser;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Delimited text into batches of UTF-8 columns, with the same schema and column selection rules as
+ * {@link S3DirectColumnarInputStream}. Lines are split in place, and field bytes are copied straight into vectors.
+ * Only lines with quotes or escapes go through the CSV parser
+ */
+public class TextBatchReader implements BatchReader {
+    private static final int BUFFER_SIZE = 65536;
+
+    private final InputStream input;
+    private final CSVParser parser;
+    private final byte delimiter;
+    private final boolean bytewise;
+    private final int[] order;
+
+    private final BufferAllocator allocator;
+    private final VectorSchemaRoot root;
+    private final VarCharVector[] vectors;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+    private boolean skipLF = false;
+
+    private byte[] line = new byte[4096];
+    private int lineLength;
+    private int[] starts = new int[64];
+    private int[] ends = new int[64];
+
+    public TextBatchReader(InputStream input, char delimiter, boolean fromFile, String[] schema, String[] columns) throws IOException {
+        this.input = input;
+        this.parser = new CSVParserBuilder().withSeparator(delimiter).build();
+        // a multibyte delimiter can't be found in UTF-8 bytes one at a time
+        this.delimiter = (byte) delimiter;
+        this.bytewise = delimiter < 0x80;
+
+        if (fromFile && readLine()) {
+            try {
+                schema = parser.parseLine(new String(line, 0, lineLength, StandardCharsets.UTF_8));
+            } catch (Exception ignore) {
+            }
+        }
+
+        if ((schema == null) && (columns == null)) {
+            // empty object without a header
+            columns = new String[0];
+        }
+        order = S3DirectColumnarInputStream.columnOrder(schema, columns);
+        List<String> cols = Arrays.asList((columns != null) ? columns : schema);
+
+        allocator = ArrowBatches.allocator("text");
+        root = ArrowBatches.create(ArrowBatches.textSchema(cols), allocator);
+
+        List<FieldVector> fieldVectors = root.getFieldVectors();
+        vectors = fieldVectors.toArray(new VarCharVector[0]);
+    }
+
+    @Override
+    public VectorSchemaRoot next() throws IOException {
+        ArrowBatches.reset(root);
+
+        int row = 0;
+        for (; (row < ArrowBatches.BATCH_ROWS) && readLine(); row++) {
+            if (bytewise && plain()) {
+                splitLine(row);
+            } else {
+                parseLine(row);
+            }
+        }
+
+        if (row == 0) {
+            return null;
+        }
+        root.setRowCount(row);
+        return root;
+    }
+
+    // no quote or escape characters, so fields are just between delimiters
+    private boolean plain() {
+        for (int i = 0; i < lineLength; i++) {
+            byte b = line[i];
+            if ((b == ICSVParser.DEFAULT_QUOTE_CHARACTER) || (b == ICSVParser.DEFAULT_ESCAPE_CHARACTER)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void splitLine(int row) throws IOException {
+        int count = 0;
+        int start = 0;
+        for (int i = 0; i <= lineLength; i++) {
+            if ((i == lineLength) || (line[i] == delimiter)) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                }
+                starts[count] = start;
+                ends[count] = i;
+                count++;
+                start = i + 1;
+            }
+        }
+
+        for (int i = 0; i < vectors.length; i++) {
+            int l = order[i];
+            if (l >= count) {
+                throw new IOException("Malformed input line: " + new String(line, 0, lineLength, StandardCharsets.UTF_8));
+            }
+            vectors[i].setSafe(row, line, starts[l], ends[l] - starts[l]);
+        }
+    }
+
+    private void parseLine(int row) throws IOException {
+        String text = new String(line, 0, lineLength, StandardCharsets.UTF_8);
+        try {
+            String[] ll = parser.parseLine(text);
+            for (int i = 0; i < vectors.length; i++) {
+                String field = ll[order[i]];
+                if (field == null) {
+                    ArrowBatches.setNull(vectors[i], row);
+                } else {
+                    vectors[i].setSafe(row, field.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        } catch (Exception e) {
+            throw new IOException("Malformed input line: " + text, e);
+        }
+    }
+
+    // next line without its terminator, which is \n, \r\n, or \r
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        boolean any = false;
+        while (true) {
+            if (position >= limit) {
+                limit = input.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return any;
+                }
+            }
+            if (skipLF) {
+                skipLF = false;
+                if (buffer[position] == '\n') {
+                    position++;
+                    continue;
+                }
+            }
+            any = true;
+
+            int from = position;
+            while ((position < limit) && (buffer[position] != '\n') && (buffer[position] != '\r')) {
+                position++;
+            }
+            append(from, position - from);
+
+            if (position < limit) {
+                skipLF = buffer[position] == '\r';
+                position++;
+                return true;
+            }
+        }
+    }
+
+    private void append(int from, int length) {
+        if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        }
+        System.arraycopy(buffer, from, line, lineLength, length);
+        lineLength += length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            input.close();
+        } finally {
+            root.close();
+            allocator.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Parsed fields of delimited text lines of several objects, one after another, without a record object per line
+ */
+public class TextFields implements Closeable {
+    private final List<String> inputFiles;
+    private final Opener opener;
+
+    private int next = 0;
+    private S3DirectColumnarInputStream current = null;
+    private List<String> columns = null;
+    private boolean opened = false;
+
+    TextFields(List<String> inputFiles, Opener opener) {
+        this.inputFiles = inputFiles;
+        this.opener = opener;
+    }
+
+    /**
+     * @return values of selected columns of the next line, or null at the end of all objects
+     */
+    public String[] next() throws IOException {
+        while (true) {
+            if (current == null) {
+                if (next >= inputFiles.size()) {
+                    return null;
+                }
+                current = opener.open(inputFiles.get(next++));
+                opened = true;
+            }
+
+            String[] fields = current.nextFields();
+            if (fields != null) {
+                // an object without lines may have no header either, so its columns don't count
+                if (opened) {
+                    opened = false;
+                    if (columns == null) {
+                        columns = current.columns();
+                    } else if (!columns.equals(current.columns())) {
+                        throw new IOException("Columns of " + inputFiles.get(next - 1) + " " + current.columns()
+                                + " differ from " + columns);
+                    }
+                }
+                return fields;
+            }
+            current.close();
+            current = null;
+        }
+    }
+
+    /**
+     * @return selected columns, known after the first line is read, or null if no object has any lines
+     */
+    public List<String> columns() {
+        return columns;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    interface Opener {
+        S3DirectColumnarInputStream open(String inputFile) throws IOException;
+    }
+}
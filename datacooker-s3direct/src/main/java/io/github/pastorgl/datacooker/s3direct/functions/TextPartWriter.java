@@ -0,0 +1,420 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import com.opencsv.CSVWriter;
+import io.github.pastorgl.datacooker.data.DataRecord;
+import io.github.pastorgl.datacooker.data.PlainText;
+import io.github.pastorgl.datacooker.storage.hadoop.HadoopStorage;
+import org.apache.hadoop.conf.Configuration;
+import scala.Tuple2;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * Writes text lines into a {@link ResumableUpload}, cutting S3 parts at about {@link ResumableUpload#PART_SIZE}.
+ * Lines are collected into blocks of {@link #BLOCK_SIZE}, and with a codec, each block is compressed as an
+ * independent stream (gzip member, zstd frame), so blocks can be compressed in parallel, and a part can be
+ * re-uploaded without any compressor state from previous ones. Concatenated streams are read back as one.
+ * Compressed blocks are handed to the upload in their order. All writers of the executor share one pool of
+ * compression threads, which takes no more than {@link #MAX_IN_FLIGHT} blocks at once (a writer compresses
+ * its block itself when the pool is full), and a free list of block buffers. A part is kept as the list of
+ * its compressed blocks, each sized to its content. A compact writer, one of many open at once, uses small blocks,
+ * compresses them itself, and cuts parts at the S3 minimum, so it holds no more than {@link #COMPACT_MEMORY}
+ */
+public class TextPartWriter implements Closeable {
+    static final int BLOCK_SIZE = 4 * 1024 * 1024;
+    static final int COMPACT_BLOCK_SIZE = 256 * 1024;
+    public static final long COMPACT_MEMORY = ResumableUpload.MIN_PART_SIZE + 2L * (COMPACT_BLOCK_SIZE + 64 * 1024);
+    static final int MAX_IN_FLIGHT = 2 * Runtime.getRuntime().availableProcessors();
+
+    private static final ExecutorService COMPRESSORS = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+        Thread t = new Thread(r, "s3direct-compress");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final Semaphore IN_FLIGHT = new Semaphore(MAX_IN_FLIGHT);
+    private static final BlockingQueue<Block> FREE_BLOCKS = new ArrayBlockingQueue<>(MAX_IN_FLIGHT);
+
+    private final ResumableUpload upload;
+    private final HadoopStorage.Codec codec;
+    private final Integer codecLevel;
+    private final Configuration conf;
+
+    private final String[] columns;
+    private final char delimiter;
+
+    private final int blockSize;
+    private final int partLimit;
+    private final int maxPending;
+    private final ArrayDeque<Future<Block>> pending = new ArrayDeque<>();
+
+    // compressed blocks of the part, uploaded together
+    private final List<Block> part = new ArrayList<>();
+    private long partSize;
+    private Block block;
+
+    // lines consumed from input, and lines in the blocks handed to upload
+    private long offset;
+    private long handedOffset;
+    private long partChecksum;
+
+    public TextPartWriter(ResumableUpload upload, HadoopStorage.Codec codec, Integer codecLevel, Configuration conf, String[] columns, char delimiter, Integer threads) {
+        this(upload, codec, codecLevel, conf, columns, delimiter, threads, false);
+    }
+
+    public TextPartWriter(ResumableUpload upload, HadoopStorage.Codec codec, Integer codecLevel, Configuration conf, String[] columns, char delimiter, Integer threads, boolean compact) {
+        this.upload = upload;
+
+        this.codec = codec;
+        this.codecLevel = codecLevel;
+        this.conf = conf;
+
+        this.columns = columns;
+        this.delimiter = delimiter;
+
+        if (threads == null) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        // blocks of this writer compressed at once by the shared pool
+        maxPending = (!compact && (codec.codec != null) && (threads > 1)) ? threads : 0;
+        blockSize = compact ? COMPACT_BLOCK_SIZE : BLOCK_SIZE;
+        partLimit = compact ? ResumableUpload.MIN_PART_SIZE : ResumableUpload.PART_SIZE;
+
+        block = block();
+    }
+
+    /**
+     * Skip the records already uploaded by a previous attempt. Each uploaded part is verified by
+     * checksum of its lines, and if the input differs, parts are uploaded again from the first mismatched
+     */
+    public void resume(Iterator<Tuple2<Object, DataRecord<?>>> it) throws IOException {
+        try {
+            resumeLines(new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public byte[] next() {
+                    try {
+                        return line(it.next()._2);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Same as {@link #resume(Iterator)}, for lines already formatted by {@link #line(String[])}
+     */
+    public void resumeLines(Iterator<byte[]> it) throws IOException {
+        int parts = upload.uploadedParts();
+        if (parts == 0) {
+            return;
+        }
+
+        File spill = Files.createTempFile("dist-resume", ".txt").toFile();
+        try {
+            for (int part = 0; part < parts; part++) {
+                long until = upload.partOffset(part);
+                long sum = 0L;
+
+                try (DataOutputStream spillOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spill)))) {
+                    while ((offset < until) && it.hasNext()) {
+                        byte[] line = it.next();
+                        spillOut.writeInt(line.length);
+                        spillOut.write(line);
+
+                        sum += checksum(line);
+                        offset++;
+                    }
+                }
+
+                if ((offset < until) || (sum != upload.partChecksum(part))) {
+                    System.out.println("Input differs from uploaded part " + (part + 1) + ", uploading again from it");
+
+                    upload.truncate(part);
+                    offset = (part == 0) ? 0L : upload.partOffset(part - 1);
+                    handedOffset = offset;
+
+                    try (DataInputStream spillIn = new DataInputStream(new BufferedInputStream(new FileInputStream(spill)))) {
+                        while (true) {
+                            byte[] line;
+                            try {
+                                line = new byte[spillIn.readInt()];
+                            } catch (EOFException e) {
+                                break;
+                            }
+                            spillIn.readFully(line);
+                            writeLine(line);
+                        }
+                    }
+                    return;
+                }
+            }
+
+            handedOffset = offset;
+        } finally {
+            spill.delete();
+        }
+    }
+
+    public void write(DataRecord<?> rec) throws IOException {
+        writeLine(line(rec));
+    }
+
+    public void finish() throws IOException {
+        if (block.lines > 0) {
+            submit();
+        }
+        while (!pending.isEmpty()) {
+            handOver();
+        }
+        if (partSize > 0L) {
+            cut();
+        }
+        upload.complete();
+    }
+
+    /**
+     * Blocks already submitted to the pool are left to finish, as the pool is shared
+     */
+    @Override
+    public void close() {
+        pending.clear();
+        part.clear();
+        partSize = 0L;
+    }
+
+    public void writeLine(byte[] line) throws IOException {
+        block.write(line);
+        block.write('\n');
+
+        block.checksum += checksum(line);
+        block.lines++;
+        offset++;
+
+        if (block.size() >= blockSize) {
+            submit();
+        }
+    }
+
+    private void submit() throws IOException {
+        Block raw = block;
+        block = block();
+
+        if ((maxPending == 0) || !IN_FLIGHT.tryAcquire()) {
+            pending.add(CompletableFuture.completedFuture(compress(raw)));
+        } else {
+            try {
+                pending.add(COMPRESSORS.submit(() -> {
+                    try {
+                        return compress(raw);
+                    } finally {
+                        IN_FLIGHT.release();
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                IN_FLIGHT.release();
+                throw new IOException("Failed to submit a block for compression", e);
+            }
+        }
+
+        while (pending.size() > maxPending) {
+            handOver();
+        }
+    }
+
+    private Block compress(Block raw) throws IOException {
+        if (codec.codec == null) {
+            return raw;
+        }
+
+        // sized to the content, as compressed blocks are kept until their part is uploaded
+        Block compressed = new Block(Math.max(64 * 1024, raw.size() / 4));
+        try (OutputStream stream = S3DirectCodecs.compress(codec, compressed, conf, codecLevel)) {
+            raw.writeTo(stream);
+        }
+        compressed.lines = raw.lines;
+        compressed.checksum = raw.checksum;
+        if (raw.buf().length >= BLOCK_SIZE) {
+            FREE_BLOCKS.offer(raw);
+        }
+        return compressed;
+    }
+
+    private void handOver() throws IOException {
+        Block compressed;
+        try {
+            compressed = pending.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing a block", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress a block", e.getCause());
+        }
+
+        part.add(compressed);
+        partSize += compressed.size();
+        partChecksum += compressed.checksum;
+        handedOffset += compressed.lines;
+
+        if (partSize >= partLimit) {
+            cut();
+        }
+    }
+
+    private void cut() throws IOException {
+        upload.uploadPart(new BlocksInputStream(part), partSize, handedOffset, partChecksum);
+        for (Block b : part) {
+            if (b.buf().length >= BLOCK_SIZE) {
+                FREE_BLOCKS.offer(b);
+            }
+        }
+        part.clear();
+        partSize = 0L;
+        partChecksum = 0L;
+    }
+
+    private Block block() {
+        if (blockSize != BLOCK_SIZE) {
+            return new Block(blockSize + 64 * 1024);
+        }
+
+        Block b = FREE_BLOCKS.poll();
+        if (b == null) {
+            return new Block();
+        }
+
+        b.reset();
+        return b;
+    }
+
+    private byte[] line(DataRecord<?> rec) throws IOException {
+        if (rec instanceof PlainText) {
+            return String.valueOf(rec).getBytes(StandardCharsets.UTF_8);
+        }
+
+        String[] cols = (columns != null) ? columns : rec.attrs().toArray(new String[0]);
+        String[] acc = new String[cols.length];
+        for (int i = 0; i < cols.length; i++) {
+            acc[i] = rec.asString(cols[i]);
+        }
+
+        return line(acc);
+    }
+
+    public byte[] line(String[] acc) throws IOException {
+        StringWriter buffer = new StringWriter();
+        CSVWriter writer = new CSVWriter(buffer, delimiter, CSVWriter.DEFAULT_QUOTE_CHARACTER, CSVWriter.DEFAULT_ESCAPE_CHARACTER, "");
+        writer.writeNext(acc, false);
+        writer.flush();
+        return buffer.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // order-insensitive, so any ordering of the same lines within a part matches
+    private static long checksum(byte[] line) {
+        CRC32 crc = new CRC32();
+        crc.update(line);
+        return crc.getValue() * 0x9E3779B97F4A7C15L;
+    }
+
+    private static class Block extends ByteArrayOutputStream {
+        private long lines;
+        private long checksum;
+
+        Block() {
+            super(BLOCK_SIZE + 64 * 1024);
+        }
+
+        Block(int size) {
+            super(size);
+        }
+
+        @Override
+        public synchronized void reset() {
+            super.reset();
+            lines = 0L;
+            checksum = 0L;
+        }
+
+        byte[] buf() {
+            return buf;
+        }
+    }
+
+    /**
+     * Content of blocks one after another, which can be reset to a mark, so the client can retry the upload
+     */
+    private static class BlocksInputStream extends InputStream {
+        private final List<Block> blocks;
+        private int block = 0;
+        private int pos = 0;
+        private int markBlock = 0;
+        private int markPos = 0;
+
+        BlocksInputStream(List<Block> blocks) {
+            this.blocks = blocks;
+        }
+
+        @Override
+        public int read() {
+            byte[] one = new byte[1];
+            return (read(one, 0, 1) < 0) ? -1 : (one[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+
+            while ((block < blocks.size()) && (pos >= blocks.get(block).size())) {
+                block++;
+                pos = 0;
+            }
+            if (block >= blocks.size()) {
+                return -1;
+            }
+
+            Block current = blocks.get(block);
+            int n = Math.min(len, current.size() - pos);
+            System.arraycopy(current.buf(), pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public void mark(int readLimit) {
+            markBlock = block;
+            markPos = pos;
+        }
+
+        @Override
+        public void reset() {
+            block = markBlock;
+            pos = markPos;
+        }
+    }
+}
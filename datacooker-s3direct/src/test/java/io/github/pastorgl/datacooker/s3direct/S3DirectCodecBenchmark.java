@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct;
+
+import io.github.pastorgl.datacooker.s3direct.functions.S3DirectCodecs;
+import io.github.pastorgl.datacooker.storage.hadoop.HadoopStorage;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Compression and decompression throughput of each {@link HadoopStorage.Codec}, by native-preferring streams of
+ * {@link S3DirectCodecs} and by Hadoop's own codec, over a sample file. Run on the target hosts with
+ * <pre>java -cp target/test-classes:... io.github.pastorgl.datacooker.s3direct.S3DirectCodecBenchmark sample.csv [rounds] [level]</pre>
+ */
+public class S3DirectCodecBenchmark {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: S3DirectCodecBenchmark <sample file> [rounds, 5 by default] [compression level]");
+            return;
+        }
+
+        byte[] sample = Files.readAllBytes(Paths.get(args[0]));
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        Integer level = (args.length > 2) ? Integer.valueOf(args[2]) : null;
+
+        Configuration conf = new Configuration();
+        double mb = sample.length / 1048576.D;
+
+        System.out.printf("%-8s %-20s %8s %12s %12s%n", "codec", "implementation", "ratio", "comp MB/s", "decomp MB/s");
+        for (HadoopStorage.Codec codec : HadoopStorage.Codec.values()) {
+            if (codec.codec == null) {
+                continue;
+            }
+
+            for (boolean preferNative : new boolean[]{true, false}) {
+                String impl = S3DirectCodecs.implementation(codec, preferNative);
+                if (preferNative && impl.equals(S3DirectCodecs.implementation(codec, false))) {
+                    // no native alternative
+                    continue;
+                }
+
+                try {
+                    byte[] compressed = null;
+                    long compNanos = 0L, decompNanos = 0L;
+                    // first round warms up
+                    for (int r = 0; r <= rounds; r++) {
+                        long start = System.nanoTime();
+                        ByteArrayOutputStream buffer = new ByteArrayOutputStream(sample.length);
+                        try (OutputStream out = S3DirectCodecs.compress(codec, buffer, conf, level, preferNative)) {
+                            out.write(sample);
+                        }
+                        compressed = buffer.toByteArray();
+                        long compressedAt = System.nanoTime();
+
+                        try (InputStream in = S3DirectCodecs.decompress(codec, new ByteArrayInputStream(compressed), conf, preferNative)) {
+                            if (IOUtils.consume(in) != sample.length) {
+                                throw new IllegalStateException("decompressed size differs");
+                            }
+                        }
+
+                        if (r > 0) {
+                            compNanos += compressedAt - start;
+                            decompNanos += System.nanoTime() - compressedAt;
+                        }
+                    }
+
+                    System.out.printf("%-8s %-20s %8.3f %12.1f %12.1f%n", codec.name(), impl,
+                            (double) compressed.length / sample.length,
+                            mb * rounds / (compNanos / 1E9D), mb * rounds / (decompNanos / 1E9D));
+                } catch (Throwable e) {
+                    System.out.printf("%-8s %-20s unavailable: %s%n", codec.name(), impl, e.getMessage());
+                }
+            }
+        }
+    }
+}
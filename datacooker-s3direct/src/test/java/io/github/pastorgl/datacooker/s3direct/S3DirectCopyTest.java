@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct;
+
+import io.github.pastorgl.datacooker.storage.hadoop.HadoopStorage;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class S3DirectCopyTest {
+    @Test
+    public void textObjectsCopyToTextOfSameCodec() {
+        assertNull(S3DirectCopy.objectIncompatibility(Arrays.asList("in/a.tsv", "in/b"), false, HadoopStorage.Codec.NONE));
+        assertNull(S3DirectCopy.objectIncompatibility(Collections.singletonList("in/part-00000.gz"), false, HadoopStorage.Codec.GZIP));
+        assertNull(S3DirectCopy.objectIncompatibility(Collections.singletonList("in/part-00000.gzip"), false, HadoopStorage.Codec.GZIP));
+    }
+
+    @Test
+    public void textObjectsDontCopyToParquet() {
+        assertNotNull(S3DirectCopy.objectIncompatibility(Collections.singletonList("in/a.tsv"), true, HadoopStorage.Codec.NONE));
+    }
+
+    @Test
+    public void parquetObjectsDontCopyToText() {
+        assertNotNull(S3DirectCopy.objectIncompatibility(Collections.singletonList("in/a.parquet"), false, HadoopStorage.Codec.NONE));
+    }
+
+    @Test
+    public void codecMustMatch() {
+        assertNotNull(S3DirectCopy.objectIncompatibility(Arrays.asList("in/a.gz", "in/b.tsv"), false, HadoopStorage.Codec.GZIP));
+        assertNotNull(S3DirectCopy.objectIncompatibility(Collections.singletonList("in/a.tsv"), false, HadoopStorage.Codec.GZIP));
+        assertNotNull(S3DirectCopy.objectIncompatibility(Collections.singletonList("in/part-0.snappy.parquet"), true, HadoopStorage.Codec.GZIP));
+        assertNull(S3DirectCopy.objectIncompatibility(Collections.singletonList("in/part-0.gzip.parquet"), true, HadoopStorage.Codec.GZIP));
+        assertNull(S3DirectCopy.objectIncompatibility(Collections.singletonList("in/part-0.parquet"), true, HadoopStorage.Codec.NONE));
+    }
+}
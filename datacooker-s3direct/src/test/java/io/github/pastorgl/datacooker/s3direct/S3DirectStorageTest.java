@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class S3DirectStorageTest {
+    private static final List<String> KEYS = Arrays.asList(
+            "t/_SUCCESS",
+            "t/dt=1/h=1/part-0", "t/dt=1/h=2/part-0",
+            "t/dt=2/h=1/part-0", "t/dt=2/h=1/part-1", "t/dt=2/h=2/x/part-0",
+            "t/dt=3/h=1/part-0",
+            "t/other/part-0");
+
+    // bucket with the keys above, which records prefix and delimiter of each LIST request
+    private static AmazonS3 s3(Collection<ListObjectsRequest> requests) {
+        return (AmazonS3) Proxy.newProxyInstance(AmazonS3.class.getClassLoader(), new Class[]{AmazonS3.class}, (proxy, method, args) -> {
+            if (!method.getName().equals("listObjects")) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+
+            ListObjectsRequest request = (ListObjectsRequest) args[0];
+            requests.add(request);
+
+            ObjectListing lo = new ObjectListing();
+            Set<String> prefixes = new TreeSet<>();
+            for (String key : KEYS) {
+                if (!key.startsWith(request.getPrefix())) {
+                    continue;
+                }
+
+                int d = (request.getDelimiter() == null) ? -1 : key.indexOf(request.getDelimiter(), request.getPrefix().length());
+                if (d >= 0) {
+                    prefixes.add(key.substring(0, d + 1));
+                } else {
+                    S3ObjectSummary summary = new S3ObjectSummary();
+                    summary.setKey(key);
+                    summary.setSize(1L);
+                    summary.setETag(key);
+                    lo.getObjectSummaries().add(summary);
+                }
+            }
+            lo.setCommonPrefixes(new ArrayList<>(prefixes));
+            return lo;
+        });
+    }
+
+    @Test
+    public void listsFilteredPartitionsFlat() {
+        Collection<ListObjectsRequest> requests = new ConcurrentLinkedQueue<>();
+
+        List<String> keys = S3DirectStorage.listPartitions(s3(requests), "bucket", "t/",
+                        (column, value) -> !column.equals("dt") || !value.equals("1"), Collections.singletonList("dt"))
+                .stream()
+                .map(o -> o.key)
+                .collect(Collectors.toList());
+
+        assertEquals(Arrays.asList("t/_SUCCESS", "t/dt=2/h=1/part-0", "t/dt=2/h=1/part-1", "t/dt=2/h=2/x/part-0",
+                "t/dt=3/h=1/part-0", "t/other/part-0"), keys);
+
+        // pruned dt=1 isn't listed, and below dt=2 and dt=3 everything is listed at once
+        assertEquals(4, requests.size());
+        for (ListObjectsRequest request : requests) {
+            assertTrue(!request.getPrefix().startsWith("t/dt=1"));
+            if (request.getPrefix().startsWith("t/dt=")) {
+                assertEquals(null, request.getDelimiter());
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class S3DirectThrottleTest {
+    private static void request(S3DirectThrottle.Controller controller, String type, long millis) {
+        controller.acquire();
+        controller.release(type, millis * 1_000_000L, false);
+    }
+
+    @Test
+    public void slowPartsDontLimitGets() {
+        S3DirectThrottle.Controller controller = S3DirectThrottle.forPrefix("bucket", "slow-parts/");
+        for (int i = 0; i < 100; i++) {
+            request(controller, "GetObjectRequest", 10L);
+        }
+        double limit = controller.getLimit();
+
+        // much longer than GETs, but usual for UploadPart
+        for (int i = 0; i < 10; i++) {
+            request(controller, "UploadPartRequest", 2_000L);
+        }
+        assertTrue(controller.getLimit() > limit);
+        assertEquals(10.D, controller.getLatencyMillis().get("GetObjectRequest"), 0.001D);
+        assertEquals(2_000.D, controller.getLatencyMillis().get("UploadPartRequest"), 0.001D);
+    }
+
+    @Test
+    public void slowGetsLimitRequests() {
+        S3DirectThrottle.Controller controller = S3DirectThrottle.forPrefix("bucket", "slow-gets/");
+        for (int i = 0; i < 100; i++) {
+            request(controller, "GetObjectRequest", 10L);
+        }
+        double limit = controller.getLimit();
+
+        request(controller, "GetObjectRequest", 1_000L);
+        assertTrue(controller.getLimit() < limit);
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import io.github.pastorgl.datacooker.data.Columnar;
+import io.github.pastorgl.datacooker.data.DataRecord;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.Tuple2;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionedWriterTest {
+    private static final List<String> COLUMNS = Arrays.asList("p", "v");
+
+    private static JavaSparkContext context;
+
+    // records over open sinks are sorted with Spark's serializer
+    @BeforeClass
+    public static void setUp() {
+        context = new JavaSparkContext(new SparkConf()
+                .setAppName("PartitionedWriterTest")
+                .setMaster("local[1]")
+                .set("spark.ui.enabled", "false"));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        context.stop();
+    }
+
+    private static Map<String, List<Object>> write(List<Tuple2<Object, DataRecord<?>>> records, int maxOpen, long sinkMemory) throws Exception {
+        Map<String, List<Object>> parts = new HashMap<>();
+        new PartitionedWriter(new String[]{"p"}, maxOpen, 1024L * 1024L, sinkMemory, partition -> {
+            List<Object> part = new ArrayList<>();
+            assertEquals(null, parts.put(partition, part));
+
+            return new PartitionedWriter.Sink() {
+                @Override
+                public void write(DataRecord<?> rec) {
+                    part.add(rec.asIs("v"));
+                }
+
+                @Override
+                public void finish() {
+                }
+
+                @Override
+                public void abort() {
+                }
+            };
+        }).write(records.iterator());
+
+        parts.values().forEach(part -> part.sort(Comparator.comparing(o -> (Integer) o)));
+        return parts;
+    }
+
+    @Test
+    public void onePartPerPartitionInAnyOrder() throws Exception {
+        List<Tuple2<Object, DataRecord<?>>> records = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            records.add(new Tuple2<>(null, new Columnar(COLUMNS, new Object[]{"p" + (i % 7), i})));
+        }
+
+        Map<String, List<Object>> expected = write(records, 3, 0L);
+        assertEquals(7, expected.size());
+
+        Collections.shuffle(records, new Random(42L));
+        assertEquals(expected, write(records, 3, 0L));
+        // only two sinks fit into memory
+        assertEquals(expected, write(records, 3, 400L * 1024L));
+    }
+
+    @Test
+    public void sortedInputOpensOneSinkAtATime() throws Exception {
+        RecordOrder order = RecordOrder.sortBy(new String[]{"v"});
+        RecordSorter<RecordOrder.Key> sorter = order.sorter(new String[]{"p"}, 1024L);
+
+        List<Tuple2<Object, DataRecord<?>>> records = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            records.add(new Tuple2<>(null, new Columnar(COLUMNS, new Object[]{"p" + (i % 3), 99 - i})));
+        }
+
+        List<String> partitions = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        int[] openSinks = {0};
+        try {
+            new PartitionedWriter(new String[]{"p"}, 3, 1024L, 0L, partition -> {
+                partitions.add(partition);
+                assertEquals(1, ++openSinks[0]);
+
+                return new PartitionedWriter.Sink() {
+                    @Override
+                    public void write(DataRecord<?> rec) {
+                        values.add(rec.asIs("v"));
+                    }
+
+                    @Override
+                    public void finish() {
+                        openSinks[0]--;
+                    }
+
+                    @Override
+                    public void abort() {
+                    }
+                };
+            }).writeSorted(sorter.sort(records.iterator()));
+        } finally {
+            sorter.close();
+        }
+
+        assertEquals(Arrays.asList("p=p0", "p=p1", "p=p2"), partitions);
+        assertEquals(100, values.size());
+        for (int i = 1; i < values.size(); i++) {
+            if (i != 34 && i != 67) {
+                assertTrue((Integer) values.get(i - 1) < (Integer) values.get(i));
+            }
+        }
+    }
+}
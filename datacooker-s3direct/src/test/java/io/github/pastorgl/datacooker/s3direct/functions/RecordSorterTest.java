@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import io.github.pastorgl.datacooker.data.Columnar;
+import io.github.pastorgl.datacooker.data.DataRecord;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.Tuple2;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class RecordSorterTest {
+    private static final List<String> COLUMNS = Arrays.asList("k", "seq");
+
+    private static JavaSparkContext context;
+
+    @BeforeClass
+    public static void setUp() {
+        context = new JavaSparkContext(new SparkConf()
+                .setAppName("RecordSorterTest")
+                .setMaster("local[1]")
+                .set("spark.ui.enabled", "false"));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        context.stop();
+    }
+
+    @Test
+    public void mergesManySpillsStably() throws Exception {
+        int count = RecordSorter.MAX_FAN_IN * 20;
+
+        // every record is spilled on its own, so spills are merged in passes
+        try (RecordSorter<RecordOrder.Key> sorter = RecordOrder.sortBy(new String[]{"k"}).sorter(null, 1L)) {
+            for (int i = 0; i < count; i++) {
+                sorter.add(new Columnar(COLUMNS, new Object[]{String.valueOf((i * 7) % 10), i}));
+            }
+
+            Iterator<Tuple2<RecordOrder.Key, DataRecord<?>>> sorted = sorter.sorted();
+            String k = "";
+            int seq = -1;
+            for (int i = 0; i < count; i++) {
+                DataRecord<?> rec = sorted.next()._2;
+
+                int c = rec.asString("k").compareTo(k);
+                if (c == 0) {
+                    // equal keys keep their order of addition
+                    assertEquals(true, (Integer) rec.asIs("seq") > seq);
+                } else {
+                    assertEquals(true, c > 0);
+                }
+                k = rec.asString("k");
+                seq = (Integer) rec.asIs("seq");
+            }
+            assertFalse(sorted.hasNext());
+        }
+    }
+
+    @Test
+    public void keepsOrderWithoutKeys() throws Exception {
+        try (RecordSorter<RecordOrder.Key> buffer = new RecordSorter<>(null, 1L)) {
+            for (int i = 0; i < 100; i++) {
+                buffer.add(new Columnar(COLUMNS, new Object[]{"k", i}));
+            }
+
+            Iterator<Tuple2<RecordOrder.Key, DataRecord<?>>> records = buffer.sorted();
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i, records.next()._2.asIs("seq"));
+            }
+            assertFalse(records.hasNext());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import io.github.pastorgl.datacooker.storage.hadoop.HadoopStorage;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.DeflateCodec;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class S3DirectCodecsTest {
+    @Test
+    public void concatenatedDeflateStreams() throws Exception {
+        Configuration conf = new Configuration();
+
+        HadoopStorage.Codec[] deflate = Arrays.stream(HadoopStorage.Codec.values())
+                .filter(c -> DefaultCodec.class.equals(c.codec) || DeflateCodec.class.equals(c.codec))
+                .toArray(HadoopStorage.Codec[]::new);
+        assertTrue(deflate.length > 0);
+
+        for (HadoopStorage.Codec codec : deflate) {
+            ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+            for (String chunk : new String[]{"first\tline\n", "second\tline\n", "third\tline\n"}) {
+                try (OutputStream out = S3DirectCodecs.compress(codec, new NonClosing(concatenated), conf, null)) {
+                    out.write(chunk.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+
+            for (boolean preferNative : new boolean[]{true, false}) {
+                try (InputStream in = S3DirectCodecs.decompress(codec, new ByteArrayInputStream(concatenated.toByteArray()), conf, preferNative)) {
+                    assertEquals(codec.name() + " " + preferNative, "first\tline\nsecond\tline\nthird\tline\n",
+                            IOUtils.toString(in, StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void streamBoundaryAfterRefill() throws Exception {
+        Configuration conf = new Configuration();
+
+        HadoopStorage.Codec[] deflate = Arrays.stream(HadoopStorage.Codec.values())
+                .filter(c -> DefaultCodec.class.equals(c.codec) || DeflateCodec.class.equals(c.codec))
+                .toArray(HadoopStorage.Codec[]::new);
+
+        for (HadoopStorage.Codec codec : deflate) {
+            // many short streams, so some end right at the end of a read, and the next ones inside the following one
+            StringBuilder expected = new StringBuilder();
+            ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+            for (int i = 0; i < 50; i++) {
+                String chunk = "line " + i + "\n";
+                expected.append(chunk);
+                try (OutputStream out = S3DirectCodecs.compress(codec, new NonClosing(concatenated), conf, null)) {
+                    out.write(chunk.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+
+            for (int readSize = 1; readSize <= 64; readSize++) {
+                for (boolean preferNative : new boolean[]{true, false}) {
+                    try (InputStream in = S3DirectCodecs.decompress(codec, new ShortReads(concatenated.toByteArray(), readSize), conf, preferNative)) {
+                        assertEquals(codec.name() + " " + readSize + " " + preferNative, expected.toString(),
+                                IOUtils.toString(in, StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        }
+    }
+
+    // no more than the given number of bytes per read
+    private static class ShortReads extends ByteArrayInputStream {
+        private final int readSize;
+
+        ShortReads(byte[] buf, int readSize) {
+            super(buf);
+            this.readSize = readSize;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, readSize));
+        }
+    }
+
+    private static class NonClosing extends FilterOutputStream {
+        NonClosing(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
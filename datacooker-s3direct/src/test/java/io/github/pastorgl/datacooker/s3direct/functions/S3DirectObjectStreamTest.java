@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class S3DirectObjectStreamTest {
+    private static final byte[] CONTENT = "0123456789abcdefghij".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * @param failedGets how many GETs after the first one fail
+     * @param changed if the object changes after the first GET
+     */
+    private static AmazonS3 s3(int failedGets, boolean changed, AtomicInteger gets) {
+        return (AmazonS3) Proxy.newProxyInstance(AmazonS3.class.getClassLoader(), new Class[]{AmazonS3.class}, (proxy, method, args) -> {
+            if (!method.getName().equals("getObject") || !(args[0] instanceof GetObjectRequest)) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+
+            GetObjectRequest request = (GetObjectRequest) args[0];
+            int get = gets.getAndIncrement();
+            if (get == 0) {
+                // connection breaks after a few bytes
+                return object(new ByteArrayInputStream(CONTENT, 0, 5) {
+                    @Override
+                    public synchronized int read(byte[] b, int off, int len) {
+                        int read = super.read(b, off, len);
+                        if (read < 0) {
+                            throw new SdkClientException("Connection reset");
+                        }
+                        return read;
+                    }
+                });
+            }
+            if (changed) {
+                return null;
+            }
+            if (get <= failedGets) {
+                throw new SdkClientException("Unable to execute HTTP request");
+            }
+
+            int from = (int) request.getRange()[0];
+            return object(new ByteArrayInputStream(Arrays.copyOfRange(CONTENT, from, CONTENT.length)));
+        });
+    }
+
+    private static S3Object object(InputStream content) {
+        ObjectMetadata om = new ObjectMetadata();
+        om.setHeader("ETag", "etag");
+        om.setContentLength(CONTENT.length);
+
+        S3Object o = new S3Object();
+        o.setObjectMetadata(om);
+        o.setObjectContent(new S3ObjectInputStream(content, new HttpGet()));
+        return o;
+    }
+
+    @Test
+    public void failedReconnectGetsAreRetried() throws Exception {
+        AtomicInteger gets = new AtomicInteger();
+        try (InputStream in = new S3DirectObjectStream(s3(2, false, gets), "bucket", "key", null)) {
+            assertArrayEquals(CONTENT, IOUtils.toByteArray(in));
+        }
+        assertEquals(4, gets.get());
+    }
+
+    @Test
+    public void failedReconnectGetsAreBounded() throws Exception {
+        AtomicInteger gets = new AtomicInteger();
+        try (InputStream in = new S3DirectObjectStream(s3(Integer.MAX_VALUE, false, gets), "bucket", "key", null)) {
+            IOUtils.toByteArray(in);
+            fail();
+        } catch (IOException e) {
+            assertEquals(1 + S3DirectObjectStream.MAX_RETRIES, gets.get());
+        }
+    }
+
+    @Test
+    public void changedObjectIsntRetried() throws Exception {
+        AtomicInteger gets = new AtomicInteger();
+        try (InputStream in = new S3DirectObjectStream(s3(0, true, gets), "bucket", "key", null)) {
+            IOUtils.toByteArray(in);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("has changed"));
+            assertEquals(2, gets.get());
+        }
+    }
+}
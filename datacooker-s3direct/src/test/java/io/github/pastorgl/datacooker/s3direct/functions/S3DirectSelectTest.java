@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import io.github.pastorgl.datacooker.data.DataRecord;
+import io.github.pastorgl.datacooker.storage.hadoop.input.functions.RecordInputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class S3DirectSelectTest {
+    @Test
+    public void numericPredicatesStayLocal() throws Exception {
+        S3DirectSelect select = new S3DirectSelect(true, new Object[]{"a > 10", "b = 'x'"});
+
+        String sql = select.expression(true, null, new String[]{"a", "b"});
+        assertEquals("SELECT s.\"a\", s.\"b\" FROM S3Object s WHERE s.\"b\" = 'x'", sql);
+    }
+
+    @Test
+    public void nonDecimalLiteralsAreText() throws Exception {
+        S3DirectSelect select = new S3DirectSelect(true, new Object[]{"a = NaN", "b < Infinity", "c = 0x10"});
+
+        String sql = select.expression(false, new String[]{"a", "b", "c"}, new String[]{"a"});
+        assertEquals("SELECT s._1 FROM S3Object s WHERE s._1 = 'NaN' AND s._2 < 'Infinity' AND s._3 = '0x10'", sql);
+    }
+
+    @Test
+    public void nonNumericCellDoesntMatch() {
+        S3DirectSelect select = new S3DirectSelect(true, new Object[]{"a >= 1.5e1"});
+
+        assertTrue(select.matches("a", "15"));
+        assertTrue(select.matches("a", " 20.0 "));
+        assertFalse(select.matches("a", "14"));
+        assertFalse(select.matches("a", "abc"));
+        assertFalse(select.matches("a", "NaN"));
+        assertFalse(select.matches("a", null));
+        assertTrue(select.matches("b", "abc"));
+    }
+
+    private static List<List<Object>> read(RecordInputStream stream) throws IOException {
+        List<List<Object>> ret = new ArrayList<>();
+        for (DataRecord<?> rec; (rec = stream.ensureRecord()) != null; ) {
+            List<Object> values = new ArrayList<>();
+            for (String column : rec.attrs()) {
+                values.add(column + "=" + rec.asString(column));
+            }
+            ret.add(values);
+        }
+        return ret;
+    }
+
+    private static RecordInputStream selected(S3DirectSelect select, String output, String[] projection) {
+        return select.selected(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)), ',',
+                select.localColumns(projection), projection);
+    }
+
+    @Test
+    public void numericPredicateOnProjectedColumn() throws Exception {
+        S3DirectSelect select = new S3DirectSelect(true, new Object[]{"x > 10", "a = 'k'"});
+
+        // S3 has applied a = 'k' only
+        List<List<Object>> records = read(selected(select, "k,5\nk,11\nk,20\n", new String[]{"a", "x"}));
+        assertEquals(Arrays.asList(Arrays.asList("a=k", "x=11"), Arrays.asList("a=k", "x=20")), records);
+    }
+
+    @Test
+    public void numericPredicateOnUnprojectedColumn() throws Exception {
+        S3DirectSelect select = new S3DirectSelect(true, new Object[]{"x > 10", "b = 'y'"});
+
+        // b isn't selected, as S3 has already applied its predicate, and x is selected to be checked here
+        assertArrayEquals(new String[]{"a", "x"}, select.localColumns(new String[]{"a"}));
+        List<List<Object>> records = read(selected(select, "p,5\nq,11\n", new String[]{"a"}));
+        assertEquals(Arrays.asList(Arrays.asList("a=q")), records);
+    }
+
+    @Test
+    public void localFilterChecksAllPredicates() throws Exception {
+        S3DirectSelect select = new S3DirectSelect(false, new Object[]{"x > 10", "b = 'y'"});
+
+        RecordInputStream stream = new S3DirectColumnarInputStream(new ByteArrayInputStream(
+                "a,b,x\np,y,5\nq,y,11\nr,n,12\n".getBytes(StandardCharsets.UTF_8)), ',', true, null, null);
+        List<List<Object>> records = read(select.filter(stream, new String[]{"a"}));
+        assertEquals(Arrays.asList(Arrays.asList("a=q")), records);
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2023 Data Cooker Team and Contributors
+ * This project uses New BSD license with do no evil clause. For full text, check the LICENSE file in the root directory.
+ */
+package io.github.pastorgl.datacooker.s3direct.functions;
+
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class TextBatchReaderTest {
+    @Test
+    public void emptyObjectWithoutHeader() throws Exception {
+        try (TextBatchReader reader = new TextBatchReader(new ByteArrayInputStream(new byte[0]), ',', true, null, null)) {
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void plainAndQuotedLines() throws Exception {
+        byte[] text = "a,b\r\n1,x\n\"2,2\",y\n".getBytes(StandardCharsets.UTF_8);
+        try (TextBatchReader reader = new TextBatchReader(new ByteArrayInputStream(text), ',', true, null, new String[]{"b", "a"})) {
+            VectorSchemaRoot root = reader.next();
+            assertEquals(2, root.getRowCount());
+            assertEquals("x", root.getVector("b").getObject(0).toString());
+            assertEquals("1", root.getVector("a").getObject(0).toString());
+            assertEquals("2,2", root.getVector("a").getObject(1).toString());
+            assertNull(reader.next());
+        }
+    }
+}